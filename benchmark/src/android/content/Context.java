@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.content;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+/**
+ * Stands in for Android's Context off-device, where the ZRTP sockets only
+ * keep it to hand to the preference and database stand-ins.  There are no
+ * app files to open.
+ */
+
+public class Context {
+  public static final int MODE_WORLD_READABLE = 1;
+
+  public Context getApplicationContext() {
+    return this;
+  }
+
+  public FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException {
+    throw new FileNotFoundException(name);
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.os;
+
+/**
+ * Stands in for Android's Process off-device, where thread priorities are
+ * left alone.
+ */
+
+public class Process {
+  public static final int THREAD_PRIORITY_BACKGROUND = 10;
+  public static final int THREAD_PRIORITY_LOWEST     = 19;
+
+  public static void setThreadPriority(int priority) {}
+}
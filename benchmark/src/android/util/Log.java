@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.util;
+
+/**
+ * Stands in for Android's Log off-device, where the ZRTP key agreement code
+ * under benchmark still logs.  Everything is discarded.
+ */
+
+public final class Log {
+  public static int d(String tag, String msg) { return 0; }
+  public static int i(String tag, String msg) { return 0; }
+  public static int w(String tag, String msg) { return 0; }
+  public static int w(String tag, Throwable tr) { return 0; }
+  public static int w(String tag, String msg, Throwable tr) { return 0; }
+  public static int e(String tag, String msg) { return 0; }
+  public static int e(String tag, String msg, Throwable tr) { return 0; }
+}
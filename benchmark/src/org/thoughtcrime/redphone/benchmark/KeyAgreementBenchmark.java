@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thoughtcrime.redphone.crypto.zrtp.DH3KSecretCalculator;
+import org.thoughtcrime.redphone.crypto.zrtp.EC25SecretCalculator;
+import org.thoughtcrime.redphone.crypto.zrtp.SecretCalculator;
+import org.thoughtcrime.redphone.crypto.zrtp.X255SecretCalculator;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The public key work one side of a ZRTP handshake does for each
+ * key agreement type: generating an ephemeral key pair, encoding its
+ * public half for the DH part, and agreeing on the DH result with the
+ * other side's public value.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class KeyAgreementBenchmark {
+
+  @Param({"DH3K", "EC25", "X255"})
+  public String keyAgreementType;
+
+  private SecretCalculator calculator;
+  private KeyPair          localKeyPair;
+  private byte[]           foreignPublicKey;
+
+  @Setup
+  public void setup() {
+    calculator = createCalculator(keyAgreementType);
+
+    KeyPair foreignKeyPair = calculator.generateKeyPair();
+
+    localKeyPair     = calculator.generateKeyPair();
+    foreignPublicKey = calculator.getPublicKeyBytes(foreignKeyPair);
+
+    byte[] localResult   = calculator.calculateKeyAgreement(localKeyPair, foreignPublicKey);
+    byte[] foreignResult = calculator.calculateKeyAgreement(foreignKeyPair,
+                                                            calculator.getPublicKeyBytes(localKeyPair));
+
+    if (!Arrays.equals(localResult, foreignResult))
+      throw new AssertionError("Key agreement mismatch");
+  }
+
+  @Benchmark
+  public byte[] generateKeyPair() {
+    return calculator.getPublicKeyBytes(calculator.generateKeyPair());
+  }
+
+  @Benchmark
+  public byte[] calculateKeyAgreement() {
+    return calculator.calculateKeyAgreement(localKeyPair, foreignPublicKey);
+  }
+
+  @Benchmark
+  public byte[] generateAndAgree() {
+    KeyPair keyPair = calculator.generateKeyPair();
+    calculator.getPublicKeyBytes(keyPair);
+
+    return calculator.calculateKeyAgreement(keyPair, foreignPublicKey);
+  }
+
+  private static SecretCalculator createCalculator(String keyAgreementType) {
+    if      (keyAgreementType.equals("DH3K")) return new DH3KSecretCalculator();
+    else if (keyAgreementType.equals("EC25")) return new EC25SecretCalculator();
+    else if (keyAgreementType.equals("X255")) return new X255SecretCalculator();
+    else                                      throw new AssertionError(keyAgreementType);
+  }
+}
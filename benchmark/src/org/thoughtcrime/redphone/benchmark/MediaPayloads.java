@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.benchmark;
+
+import org.thoughtcrime.redphone.crypto.SecureRtpPacket;
+
+import java.util.Random;
+
+/**
+ * Payload sizes and packets shared by the media crypto benchmarks.
+ *
+ * The sizes are a single 20ms G.711 frame, and the default two Speex frames
+ * per packet at the quality the call uses (8kbps, 20 bytes per frame).  Keys
+ * and payloads come from a fixed seed so runs are comparable.
+ */
+
+class MediaPayloads {
+
+  static final String SPEEX_TWO_FRAMES = "40";
+  static final String G711_ONE_FRAME   = "160";
+
+  static final long SSRC = 0x5EC0DE;
+
+  private final Random random = new Random(0x5eed);
+
+  byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  static SecureRtpPacket packet(byte[] payload, int macLength) {
+    SecureRtpPacket packet = new SecureRtpPacket(payload.length);
+    packet.setVersion();
+    packet.setPayloadType(96);
+    packet.setSSRC(SSRC);
+    packet.setPayload(payload, payload.length);
+    packet.setMacLength(macLength);
+    return packet;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thoughtcrime.redphone.crypto.SecureRtpPacket;
+import org.thoughtcrime.redphone.crypto.SecureStream;
+import org.thoughtcrime.redphone.crypto.StreamAead;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-packet crypto of SecureRtpSocket's send and receive, without the socket.
+ *
+ * Sending copies the payload into the packet, extends the sequence number,
+ * then encrypts and authenticates it.  Receiving starts from a copy of a
+ * packet sealed by the other side, and authenticates, sequences and decrypts
+ * it.  Both media protection modes are measured: AES-CTR with HMAC-SHA1, and
+ * AES-GCM.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SecureStreamBenchmark {
+
+  @Param({MediaPayloads.SPEEX_TWO_FRAMES, MediaPayloads.G711_ONE_FRAME})
+  public int payloadSize;
+
+  @Param({"ctr-hmac", "gcm"})
+  public String mode;
+
+  private SecureStream    sender;
+  private SecureStream    receiver;
+  private byte[]          payload;
+  private SecureRtpPacket outgoing;
+  private SecureRtpPacket incoming;
+  private byte[]          sealed;
+  private int             sequence;
+
+  @Setup
+  public void setup() {
+    MediaPayloads payloads = new MediaPayloads();
+    int           macLength;
+
+    if (mode.equals("gcm")) {
+      byte[] key  = payloads.randomBytes(16);
+      byte[] salt = payloads.randomBytes(StreamAead.SALT_LENGTH);
+
+      sender    = new SecureStream(key, salt);
+      receiver  = new SecureStream(key, salt);
+      macLength = StreamAead.TAG_LENGTH;
+    } else {
+      byte[] cipherKey = payloads.randomBytes(16);
+      byte[] macKey    = payloads.randomBytes(20);
+      byte[] salt      = payloads.randomBytes(14);
+
+      sender    = new SecureStream(cipherKey, macKey, salt);
+      receiver  = new SecureStream(cipherKey, macKey, salt);
+      macLength = SecureRtpPacket.MAC_SIZE;
+    }
+
+    payload  = payloads.randomBytes(payloadSize);
+    outgoing = MediaPayloads.packet(payload, macLength);
+
+    SecureRtpPacket packet = MediaPayloads.packet(payload, macLength);
+    packet.setSequenceNumber(1);
+    sender.updateSequence(packet);
+    protect(sender, packet);
+
+    sealed   = new byte[packet.getPacketLength()];
+    incoming = new SecureRtpPacket(new byte[sealed.length], sealed.length);
+    incoming.setMacLength(macLength);
+    System.arraycopy(packet.getPacket(), 0, sealed, 0, sealed.length);
+
+    if (!receive())
+      throw new AssertionError("Sealed packet doesn't verify");
+  }
+
+  @Benchmark
+  public SecureRtpPacket send() {
+    outgoing.setPayload(payload, payload.length);
+    outgoing.setSequenceNumber(sequence++ & 0xFFFF);
+    sender.updateSequence(outgoing);
+    protect(sender, outgoing);
+    return outgoing;
+  }
+
+  @Benchmark
+  public boolean receive() {
+    System.arraycopy(sealed, 0, incoming.getPacket(), 0, sealed.length);
+    incoming.setPacketLength(sealed.length);
+
+    if (receiver.isAead())
+      return receiver.open(incoming);
+
+    if (!receiver.verifyMac(incoming))
+      return false;
+
+    receiver.updateSequence(incoming);
+    receiver.decrypt(incoming);
+    return true;
+  }
+
+  private static void protect(SecureStream stream, SecureRtpPacket packet) {
+    if (stream.isAead()) {
+      stream.seal(packet);
+    } else {
+      stream.encrypt(packet);
+      stream.mac(packet);
+    }
+  }
+}
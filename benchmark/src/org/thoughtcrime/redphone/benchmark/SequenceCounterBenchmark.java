@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thoughtcrime.redphone.crypto.SecureRtpPacket;
+import org.thoughtcrime.redphone.crypto.SequenceCounter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extends consecutive 16 bit RTP sequence numbers, wrapping around as a long call would.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SequenceCounterBenchmark {
+
+  private SequenceCounter counter;
+  private SecureRtpPacket packet;
+  private int             sequence;
+
+  @Setup
+  public void setup() {
+    counter = new SequenceCounter();
+    packet  = MediaPayloads.packet(new byte[40], SecureRtpPacket.MAC_SIZE);
+  }
+
+  @Benchmark
+  public long updateSequence() {
+    packet.setSequenceNumber(sequence++ & 0xFFFF);
+    counter.updateSequence(packet);
+    return packet.getLogicalSequence();
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thoughtcrime.redphone.crypto.SecureRtpPacket;
+import org.thoughtcrime.redphone.crypto.StreamCipher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES-CTR payload encryption and decryption, one packet per operation with a
+ * new sequence number each time, so every packet generates fresh keystream.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class StreamCipherBenchmark {
+
+  @Param({MediaPayloads.SPEEX_TWO_FRAMES, MediaPayloads.G711_ONE_FRAME})
+  public int payloadSize;
+
+  private StreamCipher    cipher;
+  private SecureRtpPacket packet;
+  private long            sequence;
+
+  @Setup
+  public void setup() {
+    MediaPayloads payloads = new MediaPayloads();
+
+    cipher = new StreamCipher(payloads.randomBytes(16), payloads.randomBytes(14));
+    packet = MediaPayloads.packet(payloads.randomBytes(payloadSize), SecureRtpPacket.MAC_SIZE);
+  }
+
+  @Benchmark
+  public SecureRtpPacket encrypt() {
+    packet.setLogicalSequence(sequence++);
+    cipher.encrypt(packet);
+    return packet;
+  }
+
+  @Benchmark
+  public SecureRtpPacket decrypt() {
+    packet.setLogicalSequence(sequence++);
+    cipher.decrypt(packet);
+    return packet;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thoughtcrime.redphone.crypto.SecureRtpPacket;
+import org.thoughtcrime.redphone.crypto.StreamMac;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HMAC-SHA1 packet authentication, with both the full and the truncated tag.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class StreamMacBenchmark {
+
+  @Param({MediaPayloads.SPEEX_TWO_FRAMES, MediaPayloads.G711_ONE_FRAME})
+  public int payloadSize;
+
+  @Param({"20", "10"})
+  public int macLength;
+
+  private StreamMac       mac;
+  private SecureRtpPacket packet;
+
+  @Setup
+  public void setup() {
+    MediaPayloads payloads = new MediaPayloads();
+
+    mac    = new StreamMac(payloads.randomBytes(20));
+    packet = MediaPayloads.packet(payloads.randomBytes(payloadSize), macLength);
+
+    mac.macPacket(packet);
+
+    if (!mac.verifyPacket(packet))
+      throw new AssertionError("Packet doesn't verify");
+  }
+
+  @Benchmark
+  public SecureRtpPacket macPacket() {
+    mac.macPacket(packet);
+    return packet;
+  }
+
+  @Benchmark
+  public boolean verifyPacket() {
+    return mac.verifyPacket(packet);
+  }
+}
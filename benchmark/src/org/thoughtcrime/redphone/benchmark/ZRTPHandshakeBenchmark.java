@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.benchmark;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thoughtcrime.redphone.crypto.SecureRtpSocket;
+import org.thoughtcrime.redphone.crypto.zrtp.ZRTPInitiatorSocket;
+import org.thoughtcrime.redphone.crypto.zrtp.ZRTPResponderSocket;
+import org.thoughtcrime.redphone.network.RtpSocket;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A complete ZRTP handshake between an initiator and a responder in this
+ * process, from the first Hello until both sides have finished.
+ *
+ * Packets pass through a loopback relay that holds each one for the given
+ * one-way delay, so the timings include the network waits the handshake can
+ * overlap its crypto with.  Each handshake uses fresh ZIDs, so it's always
+ * keyed as a first call.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ZRTPHandshakeBenchmark {
+
+  private static final String INITIATOR_NUMBER = "+15555550100";
+  private static final String RESPONDER_NUMBER = "+15555550101";
+  private static final int    BASE_PORT        = 31300;
+  private static final int    PORT_RANGE       = 4000;
+
+  @Param({"0", "25"})
+  public int oneWayDelayMillis;
+
+  private final Context      context = new Context();
+  private final SecureRandom random  = new SecureRandom();
+
+  private int nextPort = 0;
+
+  private ZRTPInitiatorSocket initiator;
+  private ZRTPResponderSocket responder;
+  private DelayRelay          relay;
+  private Exception           responderException;
+
+  @Setup(Level.Invocation)
+  public void setup() throws IOException {
+    int initiatorPort      = takePort();
+    int responderPort      = takePort();
+    int initiatorRelayPort = takePort();
+    int responderRelayPort = takePort();
+
+    relay = new DelayRelay(oneWayDelayMillis, initiatorRelayPort, initiatorPort,
+                           responderRelayPort, responderPort);
+
+    RtpSocket initiatorSocket = new RtpSocket(initiatorPort, new InetSocketAddress("127.0.0.1", initiatorRelayPort));
+    RtpSocket responderSocket = new RtpSocket(responderPort, new InetSocketAddress("127.0.0.1", responderRelayPort));
+
+    initiator = new ZRTPInitiatorSocket(context, new SecureRtpSocket(initiatorSocket),
+                                        randomZid(), RESPONDER_NUMBER);
+    responder = new ZRTPResponderSocket(context, new SecureRtpSocket(responderSocket),
+                                        randomZid(), INITIATOR_NUMBER);
+
+    responderException = null;
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() {
+    initiator.close();
+    responder.close();
+    relay.close();
+  }
+
+  @Benchmark
+  public byte[] handshake() throws Exception {
+    Thread responderThread = new Thread("ZRTPHandshakeBenchmark responder") {
+      @Override
+      public void run() {
+        try {
+          responder.negotiateStart();
+          responder.negotiateFinish();
+        } catch (Exception e) {
+          responderException = e;
+        }
+      }
+    };
+
+    responderThread.start();
+
+    initiator.negotiateStart();
+    initiator.negotiateFinish();
+
+    responderThread.join();
+
+    if (responderException != null)
+      throw responderException;
+
+    return initiator.getMasterSecret().getSAS();
+  }
+
+  private int takePort() {
+    int port = BASE_PORT + nextPort;
+    nextPort = (nextPort + 1) % PORT_RANGE;
+    return port;
+  }
+
+  private byte[] randomZid() {
+    byte[] zid = new byte[12];
+    random.nextBytes(zid);
+    return zid;
+  }
+
+  /**
+   * Forwards packets between the two sides, holding each one for the one-way
+   * delay.  Each side sees the relay as its peer.
+   */
+  private static class DelayRelay {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final int                      delayMillis;
+    private final DatagramSocket           initiatorFacing;
+    private final DatagramSocket           responderFacing;
+
+    public DelayRelay(int delayMillis, int initiatorRelayPort, int initiatorPort,
+                      int responderRelayPort, int responderPort)
+        throws IOException
+    {
+      this.delayMillis     = delayMillis;
+      this.initiatorFacing = new DatagramSocket(initiatorRelayPort);
+      this.responderFacing = new DatagramSocket(responderRelayPort);
+
+      forward(initiatorFacing, responderFacing, responderPort);
+      forward(responderFacing, initiatorFacing, initiatorPort);
+    }
+
+    private void forward(final DatagramSocket from, final DatagramSocket to, final int toPort) {
+      new Thread("ZRTPHandshakeBenchmark relay") {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              final DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+              from.receive(packet);
+              packet.setSocketAddress(new InetSocketAddress("127.0.0.1", toPort));
+
+              executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    to.send(packet);
+                  } catch (IOException e) {
+                    // Closed while the packet was held.
+                  }
+                }
+              }, delayMillis, TimeUnit.MILLISECONDS);
+            }
+          } catch (IOException e) {
+            // Closed.
+          }
+        }
+      }.start();
+    }
+
+    public void close() {
+      initiatorFacing.close();
+      responderFacing.close();
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.database;
+
+import android.content.Context;
+
+/**
+ * Stands in for the app's database off-device, with one in-memory retained
+ * secrets table shared by every caller.
+ */
+
+public class DatabaseFactory {
+  private static final RetainedSecretsDatabase retainedSecretsDatabase = new RetainedSecretsDatabase();
+
+  public static RetainedSecretsDatabase getRetainedSecretsDatabase(Context context) {
+    return retainedSecretsDatabase;
+  }
+}
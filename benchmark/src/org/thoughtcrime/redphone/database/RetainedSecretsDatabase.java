@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.database;
+
+import org.thoughtcrime.redphone.crypto.zrtp.retained.RetainedSecrets;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stands in for the app's retained secrets table off-device, keeping the
+ * same rows in memory.  Expiration isn't tracked.
+ */
+
+public class RetainedSecretsDatabase {
+
+  private final Map<String, Row> rows = new HashMap<String, Row>();
+
+  public synchronized void setVerified(String number, byte[] zid) {
+    Row row = rows.get(getKey(number, zid));
+    if (row != null) row.verified = true;
+  }
+
+  public synchronized boolean isVerified(String number, byte[] zid) {
+    Row row = rows.get(getKey(number, zid));
+    return row != null && row.verified;
+  }
+
+  public synchronized void setRetainedSecret(String number, byte[] zid, byte[] rs1, long expiration,
+                                             boolean continuity, boolean preshared)
+  {
+    Row row = rows.get(getKey(number, zid));
+
+    if (row == null) {
+      row = new Row();
+      rows.put(getKey(number, zid), row);
+    } else {
+      row.rs2 = row.rs1;
+    }
+
+    row.rs1            = rs1;
+    row.verified       = row.verified && continuity;
+    row.presharedCount = preshared ? row.presharedCount + 1 : 0;
+  }
+
+  public synchronized RetainedSecrets getRetainedSecrets(String number, byte[] zid) {
+    Row row = rows.get(getKey(number, zid));
+
+    if (row == null) return new RetainedSecrets(null, null);
+    else             return new RetainedSecrets(row.rs1, row.rs2, row.presharedCount);
+  }
+
+  private static String getKey(String number, byte[] zid) {
+    return number + ":" + Arrays.toString(zid);
+  }
+
+  private static class Row {
+    private byte[]  rs1;
+    private byte[]  rs2;
+    private boolean verified;
+    private int     presharedCount;
+  }
+}
@@ -19,11 +19,13 @@ package org.thoughtcrime.redphone;
 import android.app.Application;
 
 import org.thoughtcrime.redphone.crypto.PRNGFixes;
+import org.thoughtcrime.redphone.crypto.zrtp.KeyPairPool;
 
 /**
  * Will be called once when the RedPhone process is created.
  *
- * We're using this as an insertion point to patch up the Android PRNG disaster.
+ * We're using this as an insertion point to patch up the Android PRNG disaster,
+ * and to start generating key material for the first call.
  *
  * @author Moxie Marlinspike
  */
@@ -31,5 +33,6 @@ public class ApplicationListener extends Application {
   @Override
   public void onCreate() {
     PRNGFixes.apply();
+    KeyPairPool.getInstance().refill();
   }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.audio;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.thoughtcrime.redphone.monitor.CallMonitor;
+import org.thoughtcrime.redphone.monitor.CountMetric;
+import org.thoughtcrime.redphone.monitor.HistogramMetric;
+import org.thoughtcrime.redphone.profiling.TimeProfiler;
+
+import java.io.IOException;
+
+/**
+ * One stage of the call audio pipeline, run on its own thread at audio priority.
+ *
+ * The stage repeatedly does a unit of work in {@link #runOnce()} and then idles until it is
+ * next needed.  Each unit of work is timed against the stage's deadline, and the run times
+ * along with the number of missed deadlines are reported to the {@link CallMonitor} as
+ * "stage-" followed by the stage name.  Time spent idle isn't counted against the deadline.
+ * Each unit of work is also timed by the {@link TimeProfiler} under the stage's name.
+ *
+ * If the work throws, including a runtime exception, the stage stops and the failure is held
+ * until the owner collects it with {@link #checkFailure()}.
+ */
+abstract class AudioStage extends Thread {
+  private static final int  MAX_RECORDED_MILLIS  = 100;
+  private static final long LOG_THRESHOLD_MILLIS = 100;
+
+  private final String          stageName;
+  private final int             timer;
+  private final long            deadlineMillis;
+  private final HistogramMetric runTimes;
+  private final CountMetric     deadlineCounts = new CountMetric();
+
+  private volatile boolean   terminated = false;
+  private volatile Exception failure;
+
+  protected AudioStage(String stageName, long deadlineMillis, CallMonitor monitor) {
+    super( "Audio " + stageName );
+    this.stageName      = stageName;
+    this.deadlineMillis = deadlineMillis;
+    this.timer          = TimeProfiler.registerTimer( "stage:" + stageName );
+    this.runTimes       = new HistogramMetric(0, MAX_RECORDED_MILLIS, 20);
+
+    if( monitor != null ) {
+      monitor.addSampledMetrics("stage-" + stageName, runTimes);
+      monitor.addSampledMetrics("stage-" + stageName, deadlineCounts);
+    }
+  }
+
+  /**
+   * Does one unit of work.
+   *
+   * @return how long the stage can idle before it is needed again, in milliseconds.
+   */
+  protected abstract long runOnce() throws AudioException, IOException;
+
+  /**
+   * Waits until the stage is next needed.  Stages that can be woken early by their input,
+   * such as a socket becoming readable, override this.
+   */
+  protected void idle(long millis) throws IOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+    }
+  }
+
+  @Override
+  public void run() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+    try {
+      while( !terminated ) {
+        long start   = SystemClock.uptimeMillis();
+        TimeProfiler.startBlock( timer );
+        long idle    = runOnce();
+        TimeProfiler.stopBlock( timer );
+        long elapsed = SystemClock.uptimeMillis() - start;
+
+        runTimes.addEvent( (int)Math.min( elapsed, MAX_RECORDED_MILLIS ) );
+        deadlineCounts.increment( "runs", 1 );
+
+        if( elapsed > deadlineMillis ) {
+          deadlineCounts.increment( "missed", 1 );
+          if( elapsed > LOG_THRESHOLD_MILLIS ) {
+            Log.w( "AudioStage", stageName + " time=" + elapsed );
+          }
+        }
+
+        if( idle > 0 && !terminated ) {
+          idle( idle );
+        }
+      }
+    } catch( AudioException e ) {
+      failure = e;
+    } catch( IOException e ) {
+      failure = e;
+    } catch( RuntimeException e ) {
+      Log.w( "AudioStage", stageName + " failed", e );
+      failure = e;
+    }
+  }
+
+  public void terminate() {
+    terminated = true;
+  }
+
+  /**
+   * Rethrows the exception that stopped this stage, if any.
+   */
+  public void checkFailure() throws AudioException, IOException {
+    Exception e = failure;
+    if( e instanceof AudioException   ) throw new AudioException( (AudioException)e );
+    if( e instanceof IOException      ) throw (IOException)e;
+    if( e instanceof RuntimeException ) throw (RuntimeException)e;
+  }
+}
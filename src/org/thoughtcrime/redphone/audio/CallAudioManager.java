@@ -24,16 +24,19 @@ import android.util.Log;
 import org.thoughtcrime.redphone.codec.AudioCodec;
 import org.thoughtcrime.redphone.crypto.SecureRtpSocket;
 import org.thoughtcrime.redphone.monitor.CallMonitor;
+import org.thoughtcrime.redphone.network.PacketizationController;
+import org.thoughtcrime.redphone.network.ReceiverReporter;
 import org.thoughtcrime.redphone.network.RtpAudioReader;
 import org.thoughtcrime.redphone.network.RtpAudioSender;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
 import org.thoughtcrime.redphone.profiling.StatisticsWatcher;
+import org.thoughtcrime.redphone.profiling.CallTracer;
 import org.thoughtcrime.redphone.profiling.TimeProfiler;
 import org.thoughtcrime.redphone.ui.ApplicationPreferencesActivity;
+import org.thoughtcrime.redphone.util.RingBuffer;
 
 import java.io.IOException;
 import java.util.LinkedList;
-import java.util.NoSuchElementException;
 
 /**
  * CallAudioManager controls the reading and writing of audio data from between the network stack
@@ -44,32 +47,74 @@ import java.util.NoSuchElementException;
  * Raw audio from the microphone input buffer is encoded by the {@link MicrophoneReader}, then
  * queued before being sent to the {@link org.thoughtcrime.redphone.network.RtpAudioSender}.
  *
+ * By default each stage runs on its own {@link AudioStage} thread: capture, encode and send,
+ * receive and decrypt, and decode and playout.  A stall in one stage then only delays the
+ * stages downstream of it.  The single threaded preference instead runs every stage in turn
+ * from one polling loop, which is kept for comparison.
+ *
+ * The queues between stages are single producer, single consumer {@link RingBuffer}s that
+ * drop their oldest entries when full.  The encoder and the sender share a thread and the
+ * encoder stops once a full packet's worth of frames is queued, so the outgoing queue only
+ * needs room for {@link RtpAudioSender#MAX_FRAMES_PER_PACKET} frames.  The incoming queue
+ * drops its oldest packets when playout falls behind, since the jitter buffer would discard
+ * them as late anyway.
+ *
  * @author Stuart O. Anderson
  */
 public class CallAudioManager {
-  private final LinkedList<EncodedAudioData> outgoingAudio = new LinkedList<EncodedAudioData>();
-  private final LinkedList<EncodedAudioData> incomingAudio = new LinkedList<EncodedAudioData>();
+  private static final long MAX_IDLE_MILLIS   = 20;
+  private static final int  MAX_RECEIVE_BATCH = 16;
+
+  private static final int  OUTGOING_QUEUE_CAPACITY = RtpAudioSender.MAX_FRAMES_PER_PACKET;
+  private static final int  INCOMING_QUEUE_CAPACITY = 64;
+
+  private static final long FRAME_MILLIS            = 1000 / AudioCodec.FRAME_RATE;
+  private static final long STAGE_CHECK_MILLIS      = 100;
+  private static final long STAGE_JOIN_MILLIS       = 1000;
+
+  private static final int TIMER_LOOP_MIC     = TimeProfiler.registerTimer( "loop:mic" );
+  private static final int TIMER_LOOP_SEND    = TimeProfiler.registerTimer( "loop:send" );
+  private static final int TIMER_LOOP_RECEIVE = TimeProfiler.registerTimer( "loop:receive" );
+  private static final int TIMER_LOOP_PLAYOUT = TimeProfiler.registerTimer( "loop:playout" );
+  private static final int TIMER_LOOP_WAIT    = TimeProfiler.registerTimer( "loop:wait" );
+
+  private final RingBuffer<EncodedAudioData> outgoingAudio =
+    new RingBuffer<EncodedAudioData>(OUTGOING_QUEUE_CAPACITY, RingBuffer.OverflowPolicy.DROP_OLDEST, 0);
+  private final RingBuffer<EncodedAudioData> incomingAudio =
+    new RingBuffer<EncodedAudioData>(INCOMING_QUEUE_CAPACITY, RingBuffer.OverflowPolicy.DROP_OLDEST, 0);
 
-  private boolean callDone = false;
-  private long extraReads = 0;
+  private volatile boolean callDone = false;
 
   private MicrophoneReader micReader;
   private RtpAudioSender netSender;
   private RtpAudioReader netReader;
+  private PacketizationController packetizationController;
+  private ReceiverReporter receiverReporter;
   private CallAudioStream audioStream;
   private AudioCodec codec;
   private boolean runStarted = false;
   private boolean loopbackMode;
   private boolean simDrops;
+  private boolean singleThread;
+  private boolean traceCall;
+  private Context context;
+  private CallMonitor monitor;
   private LinkedList<EncodedAudioData> stolenAudio = new LinkedList<EncodedAudioData>();
 
-  private PacketLogger packetLogger = new PacketLogger();
+  private PacketLogger packetLogger;
 
   public CallAudioManager( SecureRtpSocket socket, String codecID, Context context, CallMonitor monitor) {
     codec = AudioCodec.getInstance( codecID ); //begins init
+    this.monitor = monitor;
+    packetLogger = new PacketLogger( monitor );
+    monitor.addSampledMetrics( "profiler", TimeProfiler.newSampler() );
 
     netSender   = new RtpAudioSender( outgoingAudio, socket, packetLogger );
-    netReader   = new RtpAudioReader( incomingAudio, socket, packetLogger );
+    netReader   = new RtpAudioReader( incomingAudio, socket, packetLogger, monitor, MAX_RECEIVE_BATCH );
+    receiverReporter        = new ReceiverReporter( netSender, netReader.getStatistics(), monitor );
+    packetizationController = new PacketizationController( netSender, netReader.getStatistics(),
+                                                           receiverReporter, monitor );
+    netReader.setReceiverReporter( receiverReporter );
     //create audioStream before micreader, so they pick up the same audio mode, since audiomode is set in audioStream
     audioStream = new CallAudioStream(incomingAudio, codec, packetLogger, monitor);
     micReader   = new MicrophoneReader(outgoingAudio, codec, packetLogger, monitor);
@@ -77,6 +122,9 @@ public class CallAudioManager {
     //setup preferences
     loopbackMode  = ApplicationPreferencesActivity.getLoopbackEnabled(context);
     simDrops = ApplicationPreferencesActivity.isSimulateDroppedPackets(context);
+    singleThread = ApplicationPreferencesActivity.isSingleThread(context);
+    traceCall = ApplicationPreferencesActivity.isCallTraceEnabled(context);
+    this.context = context;
   }
 
   public void run() throws AudioException, IOException {
@@ -87,7 +135,6 @@ public class CallAudioManager {
     }
   }
 
-  //TODO(Stuart Anderson): Split this up
   private void doRun() throws AudioException, IOException {
     synchronized(this) {
       if( callDone ) return;
@@ -97,8 +144,60 @@ public class CallAudioManager {
     if( codec == null ) return;
     codec.waitForInitializationComplete();
 
+    if( traceCall ) CallTracer.startSession();
+    micReader.flush();
+
+    if( singleThread ) {
+      runLoop();
+    } else {
+      runStages();
+    }
+  }
+
+  private void runStages() throws AudioException, IOException {
+    AudioStage[] stages;
+
+    if( loopbackMode ) {
+      stages = new AudioStage[] { new EncodeSendStage(), new PlayoutStage() };
+    } else {
+      stages = new AudioStage[] { new EncodeSendStage(), new ReceiveStage(), new PlayoutStage() };
+    }
+
+    for( AudioStage stage : stages ) {
+      stage.start();
+    }
+
+    try {
+      while( !callDone ) {
+        for( AudioStage stage : stages ) {
+          stage.checkFailure();
+        }
+
+        synchronized( this ) {
+          if( !callDone ) {
+            try {
+              wait( STAGE_CHECK_MILLIS );
+            } catch( InterruptedException e ) {
+            }
+          }
+        }
+      }
+    } finally {
+      for( AudioStage stage : stages ) {
+        stage.terminate();
+      }
+      for( AudioStage stage : stages ) {
+        try {
+          stage.join( STAGE_JOIN_MILLIS );
+        } catch( InterruptedException e ) {
+        }
+      }
+    }
+  }
+
+  //TODO(Stuart Anderson): Split this up
+  private void runLoop() throws AudioException, IOException {
     int cycleCount = 0;
-    new TimeProfiler().start();
     StatisticsWatcher mrS = new StatisticsWatcher();
     mrS.debugName = "MicReader";
     StatisticsWatcher nsS = new StatisticsWatcher();
@@ -108,8 +207,6 @@ public class CallAudioManager {
     StatisticsWatcher ewS = new StatisticsWatcher();
     ewS.debugName = "EarWriter";
 
-    micReader.flush();
-
     while( !callDone ) {
       /*if( pt.periodically() ) {
         Log.w( "CallAudioManager", "executed " + cycleCount + " cycles" + " sendSequenceNumber=" + netSender.getSequenceNumber() + " recvSequenceNumber=" + netReader.sequenceNumber() );
@@ -120,7 +217,9 @@ public class CallAudioManager {
       cycleCount++;
       long t1,t2,t3,t4,t5;
       t1 = SystemClock.uptimeMillis();
+      TimeProfiler.startBlock( TIMER_LOOP_MIC );
       micReader.go();
+      TimeProfiler.stopBlock( TIMER_LOOP_MIC );
 
       if( loopbackMode ) {
         try {
@@ -128,43 +227,26 @@ public class CallAudioManager {
         } catch (InterruptedException e1) {
         }
         t2 = t3 = SystemClock.uptimeMillis();
-        if( simDrops ) {
-          if( Math.random() < .25 ) {
-            try {
-              stolenAudio.add(outgoingAudio.remove());
-              if( stolenAudio.size() > 1 ) {
-                incomingAudio.add( stolenAudio.remove() );
-
-              }
-              outgoingAudio.remove();
-            }catch ( NoSuchElementException e ) {
-
-            }
-          }
-        }
-        if (outgoingAudio.size() > 0) {
-          try {
-            EncodedAudioData ead = outgoingAudio.remove();
-            incomingAudio.add(ead);
-          } catch (NoSuchElementException e) {
-          }
-        }
+        loopbackAudio();
       } else {
 
         t2 = SystemClock.uptimeMillis();
+        TimeProfiler.startBlock( TIMER_LOOP_SEND );
         netSender.go(); //TODO remove debug
+        TimeProfiler.stopBlock( TIMER_LOOP_SEND );
         t3 = SystemClock.uptimeMillis();
+        TimeProfiler.startBlock( TIMER_LOOP_RECEIVE );
         netReader.go(); //TODO remove debug
+        TimeProfiler.stopBlock( TIMER_LOOP_RECEIVE );
+        packetizationController.update();
+        receiverReporter.update();
       }
 
       t4 = SystemClock.uptimeMillis();
+      TimeProfiler.startBlock( TIMER_LOOP_PLAYOUT );
       audioStream.go();
+      TimeProfiler.stopBlock( TIMER_LOOP_PLAYOUT );
       t5 = SystemClock.uptimeMillis();
-      if( netSender.sentPackets() > extraReads ) {
-        extraReads++;
-        netReader.go();
-        audioStream.go();
-      }
 
       if( t2-t1 > 100 ) {
         Log.e( "CAM", "micReader time=" + (t2-t1) );
@@ -190,13 +272,54 @@ public class CallAudioManager {
         Log.e( "CAM", "outgoing audio queue length=" + outgoingAudio.size() );
       }
 
+      if( !loopbackMode ) {
+        netSender.prefetchKeystream();
+        netReader.prefetchKeystream();
+        TimeProfiler.startBlock( TIMER_LOOP_WAIT );
+        netReader.waitForPacket( getIdleDeadline() );
+        TimeProfiler.stopBlock( TIMER_LOOP_WAIT );
+      }
+
+    }
+  }
+
+  private void loopbackAudio() {
+    if( simDrops ) {
+      if( Math.random() < .25 ) {
+        EncodedAudioData stolen = outgoingAudio.poll();
+        if( stolen != null ) {
+          stolenAudio.add(stolen);
+          if( stolenAudio.size() > 1 ) {
+            loopback( stolenAudio.remove() );
+          }
+          outgoingAudio.poll();
+        }
+      }
+    }
+    EncodedAudioData ead = outgoingAudio.poll();
+    if( ead != null ) {
+      loopback( ead );
     }
   }
 
+  private void loopback( EncodedAudioData ead ) {
+    EncodedAudioData evicted = incomingAudio.offer( ead );
+    if( evicted != null ) evicted.recycle();
+  }
+
+  /**
+   * How long the loop can sleep before the playout buffer or the microphone will need service.
+   */
+  private long getIdleDeadline() {
+    long deadline = Math.min( audioStream.getMillisUntilRefill(), micReader.getMillisUntilNextChunk() );
+    return Math.min( deadline, MAX_IDLE_MILLIS );
+  }
+
   private void doTerminate() {
-    TimeProfiler.terminate();
     micReader.terminate();
     audioStream.terminate();
+    packetLogger.terminate();
+    if( traceCall ) CallTracer.finishSession( context );
   }
 
   public void terminate() {
@@ -205,6 +328,7 @@ public class CallAudioManager {
     synchronized( this ) {
       callDone = true;
       if( !runStarted ) callTerm = true;
+      notifyAll();
     }
     if( callTerm ) doTerminate();
   }
@@ -212,4 +336,78 @@ public class CallAudioManager {
   public void setMute(boolean enabled) {
     micReader.setMute(enabled);
   }
+
+  private static long clampIdle( long millis ) {
+    return Math.max( 1, Math.min( millis, MAX_IDLE_MILLIS ) );
+  }
+
+  /**
+   * Encodes captured audio and sends it, or loops it back in loopback mode.  The microphone
+   * capture thread is started by the first call to {@link MicrophoneReader#go()}.  While
+   * waiting for the next chunk it prepares the keystream for the packets it will send next.
+   */
+  private class EncodeSendStage extends AudioStage {
+    public EncodeSendStage() {
+      super( "encode-send", FRAME_MILLIS, monitor );
+    }
+
+    @Override
+    protected long runOnce() throws AudioException, IOException {
+      micReader.go();
+
+      if( loopbackMode ) {
+        loopbackAudio();
+      } else {
+        netSender.go();
+        packetizationController.update();
+        receiverReporter.update();
+      }
+
+      return clampIdle( micReader.getMillisUntilNextChunk() );
+    }
+
+    @Override
+    protected void idle( long millis ) throws IOException {
+      if( !loopbackMode ) netSender.prefetchKeystream();
+      super.idle( millis );
+    }
+  }
+
+  /**
+   * Receives and decrypts every pending packet, then prepares the keystream for the packets
+   * expected next and sleeps until the socket is readable.
+   */
+  private class ReceiveStage extends AudioStage {
+    public ReceiveStage() {
+      super( "receive", FRAME_MILLIS, monitor );
+    }
+
+    @Override
+    protected long runOnce() throws IOException {
+      netReader.go();
+      return MAX_IDLE_MILLIS;
+    }
+
+    @Override
+    protected void idle( long millis ) throws IOException {
+      netReader.prefetchKeystream();
+      netReader.waitForPacket( millis );
+    }
+  }
+
+  /**
+   * Moves received audio into the jitter buffer, then decodes and plays it as the audio
+   * hardware needs it.
+   */
+  private class PlayoutStage extends AudioStage {
+    public PlayoutStage() {
+      super( "playout", FRAME_MILLIS, monitor );
+    }
+
+    @Override
+    protected long runOnce() {
+      audioStream.go();
+      return clampIdle( audioStream.getMillisUntilRefill() );
+    }
+  }
 }
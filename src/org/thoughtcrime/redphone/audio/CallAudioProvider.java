@@ -21,10 +21,11 @@ import android.util.Log;
 
 import org.thoughtcrime.redphone.codec.AudioCodec;
 import org.thoughtcrime.redphone.monitor.CallMonitor;
+import org.thoughtcrime.redphone.monitor.CountMetric;
+import org.thoughtcrime.redphone.profiling.TimeProfiler;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
 import org.thoughtcrime.redphone.profiling.StatisticsWatcher;
 
-import java.util.TreeMap;
 
 /**
  * The CallAudioProvider stretches and shrinks audio on the fly to mask issues like
@@ -38,10 +39,17 @@ import java.util.TreeMap;
  * If too little audio is available the audio is slowed down or synthesized based on the
  * last few packets decoded.
  *
+ * Frames are indexed by codec frame number rather than packet number.  A packet holding
+ * several frames is stored under the index of its first frame and advances the playhead by
+ * the number of frames it decodes to, so the provider does not depend on how many frames the
+ * sender bundles into each packet.
+ *
  * @author Stuart O. Anderson
  */
 public class CallAudioProvider {
   private static final String TAG = "CallAudioProvider";
+  private static final int TIMER_DECODE  = TimeProfiler.registerTimer( "cap:decode" );
+  private static final int TIMER_CONCEAL = TimeProfiler.registerTimer( "cap:conceal" );
 
   private static final int RATE_NORMAL = 0;
   private static final int RATE_BIG    = 1;
@@ -50,12 +58,13 @@ public class CallAudioProvider {
   private static final float bigRateShift    = .5f;
   private static final float littleRateShift = .05f;
 
-  private static final int   bigStart = 10; //start a quick correction if we exceed the average delay by this amount
-  private static final float littleStartShrink = 3f;
-  private static final float littleStartStretch = 2f;
+  private static final int   bigStart = 20; //start a quick correction if we exceed the average delay by this many frames
+  private static final float littleStartShrink = 6f;
+  private static final float littleStartStretch = 4f;
 
-  private static final int maxGap = 1;
-  private static final int maxBuffer = 25;
+  private static final int maxGap = 2;
+  private static final int maxBufferFrames = 50; //span of frame indices we hold before discarding the oldest
+  private static final int jitterBufferFrames = 256; //span of frame indices the buffer can hold, well beyond maxBufferFrames
 
   private PacketLogger packetLogger;
 
@@ -68,6 +77,7 @@ public class CallAudioProvider {
   private CallLogger callAudioLogger;
 
   private int decodeBufferLength;
+  private int framesPulled;
   private int outputFrameLength;
 
   private final short decodeBuffer[] = new short[1024];
@@ -76,9 +86,10 @@ public class CallAudioProvider {
   private StatisticsWatcher frameDelayStats = new StatisticsWatcher();
   private StatisticsWatcher samplesPerPacketStats = new StatisticsWatcher();
   private StatisticsWatcher frameSizeStats = new StatisticsWatcher();
+  private CountMetric concealmentCounts = new CountMetric();
 
   private AudioCodec codec;
-  private TreeMap<Long, EncodedAudioData> audioFrames = new TreeMap<Long, EncodedAudioData>();
+  private JitterBuffer audioFrames = new JitterBuffer( jitterBufferFrames );
   private DesiredCallAudioDelayChooser delayChooser;
 
   private int gapLength;
@@ -86,7 +97,7 @@ public class CallAudioProvider {
   private int decodedCount;
 
   CallAudioProvider(AudioCodec _codec, PacketLogger packetLogger, CallLogger callLogger, CallMonitor monitor) {
-    delayChooser = new DesiredCallAudioDelayChooser( packetLogger );
+    delayChooser = new DesiredCallAudioDelayChooser( packetLogger, monitor );
     codec = _codec;
     this.packetLogger = packetLogger;
     this.callAudioLogger = callLogger;
@@ -97,6 +108,7 @@ public class CallAudioProvider {
     monitor.addSampledMetrics("cap-latency", frameDelayStats.getSampler());
     monitor.addSampledMetrics("cap-samples-per-packet", samplesPerPacketStats.getSampler());
     monitor.addSampledMetrics("cap-frame-size", frameSizeStats.getSampler());
+    monitor.addSampledMetrics("cap-concealment", concealmentCounts);
   }
 
   private void pullAudio() {
@@ -104,7 +116,7 @@ public class CallAudioProvider {
     EncodedAudioData eadAtHead = null;
     if( audioFrames.size() != 0 ) {
       //see if the next sample is the one we want
-      ead       = audioFrames.get(audioFrames.firstKey());
+      ead       = audioFrames.getFirst();
       eadAtHead = audioFrames.get(streamPlayheadPosition);
     }
 
@@ -125,9 +137,13 @@ public class CallAudioProvider {
     }
 
     if( ead != null && ead.sequenceNumber == streamPlayheadPosition ) {
-      decodeBufferLength = codec.decode( ead.data, decodeBuffer, ead.data.length );
+      TimeProfiler.startBlock( TIMER_DECODE );
+      decodeBufferLength = codec.decode( ead.data, ead.offset, decodeBuffer, ead.length );
+      TimeProfiler.stopBlock( TIMER_DECODE );
+      framesPulled = Math.max( 1, decodeBufferLength / AudioCodec.SAMPLES_PER_FRAME );
       decodedCount++;
-      packetLogger.logPacket( ead.sourceSequenceNumber, PacketLogger.PACKET_DECODED );
+      concealmentCounts.increment( "decoded", framesPulled );
+      packetLogger.logPacket( ead.sequenceNumber, PacketLogger.PACKET_DECODED );
       if( gapLength < CallLogger.gapLengthCounts.length &&
         gapLength > 0 ) {
         CallLogger.gapLengthCounts[gapLength]++;
@@ -135,6 +151,7 @@ public class CallAudioProvider {
       gapLength = 0;
       lastGoodFrame = ead.sequenceNumber;
       audioFrames.remove(ead.sequenceNumber);
+      ead.recycle();
       if( audioFrames.size() == 0 ) delayChooser.notifyJustInTime();
       return;
     }
@@ -145,8 +162,11 @@ public class CallAudioProvider {
       //Log.d( "CAP", "PLCNULL" );
       packetLogger.logPacket(streamPlayheadPosition, PacketLogger.PLAY_BUFFER_EMPTY );
     }
+    TimeProfiler.startBlock( TIMER_CONCEAL );
     decodeBufferLength = codec.decode(null, decodeBuffer, 0 );
-    if( gapLength % 2 == 0 ) streamPlayheadPosition--; //FIXME: Assumes 2 frames per packet here...
+    TimeProfiler.stopBlock( TIMER_CONCEAL );
+    framesPulled = 1;
+    concealmentCounts.increment( "concealed", 1 );
     delayChooser.notifyMissing();
     gapLength++;
 
@@ -158,13 +178,14 @@ public class CallAudioProvider {
 
   public void addFrame( EncodedAudioData ead ) {
     //Log.d( "CAP", "added: " + ead.sequenceNumber );
-    audioFrames.put( ead.sequenceNumber, ead );
+    EncodedAudioData replaced = audioFrames.put( ead );
+    if( replaced != null && replaced != ead ) replaced.recycle();
     delayChooser.notifyArrival(ead.sequenceNumber);
   }
   private void updatePlayRate() {
     long frameDelay = lastGoodFrame - streamPlayheadPosition;
     if( audioFrames.size() > 0 ) {
-      frameDelay = audioFrames.lastKey() - streamPlayheadPosition;
+      frameDelay = audioFrames.getLastSequence() - streamPlayheadPosition;
     }
     frameDelayStats.observeValue((int)frameDelay);
 
@@ -214,10 +235,11 @@ public class CallAudioProvider {
   private void discardStaleFrames() {
     //discard frames that happened before the last data-frame we played
     int sizeBeforeDiscard = audioFrames.size();
-    audioFrames.headMap(lastGoodFrame).clear();
-    while( audioFrames.size() > maxBuffer ) {
-      audioFrames.remove( audioFrames.firstKey());
-      streamPlayheadPosition = audioFrames.firstKey();
+    audioFrames.discardBefore( lastGoodFrame );
+    while( audioFrames.size() > 0 &&
+           audioFrames.getLastSequence() - audioFrames.getFirstSequence() > maxBufferFrames ) {
+      audioFrames.discardBefore( audioFrames.getFirstSequence() + 1 );
+      streamPlayheadPosition = audioFrames.getFirstSequence();
     }
     int sizeAfterDiscard = audioFrames.size();
     if( sizeAfterDiscard != sizeBeforeDiscard ) {
@@ -232,7 +254,7 @@ public class CallAudioProvider {
     CallLogger.avgDelay = frameDelayStats.getAvg();
     CallLogger.shiftMode = shiftMode;
     if( audioFrames.size() > 0 )
-      CallLogger.largestHeldFrame = audioFrames.lastKey();
+      CallLogger.largestHeldFrame = audioFrames.getLastSequence();
   }
 
   public short[] getFrame() {
@@ -244,7 +266,7 @@ public class CallAudioProvider {
 
     updatePlayRate();
     //model prediction frame delay offset ... is this really a good idea - confirm that it improves our estimates
-    frameDelayStats.setAvg(frameDelayStats.getAvg() + playRate-1 );//include our actions in the buffer model
+    frameDelayStats.setAvg(frameDelayStats.getAvg() + (playRate-1) * framesPulled );//include our actions in the buffer model
 
     if( lastGoodFrame == streamPlayheadPosition ) {
       outputFrameLength = PacketLossConcealer.changeSpeed(rateBuffer, decodeBuffer, decodeBufferLength, playRate);
@@ -252,7 +274,7 @@ public class CallAudioProvider {
       outputFrameLength = PacketLossConcealer.changeSpeed(rateBuffer, decodeBuffer, decodeBufferLength, 1 );
     }
     frameSizeStats.observeValue(outputFrameLength);
-    streamPlayheadPosition++;
+    streamPlayheadPosition += framesPulled;
     packetLogger.logPacket(streamPlayheadPosition, PacketLogger.PLAYHEAD);
 
     delayChooser.updateDesired();
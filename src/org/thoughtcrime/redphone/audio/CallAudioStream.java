@@ -20,8 +20,7 @@ package org.thoughtcrime.redphone.audio;
 import org.thoughtcrime.redphone.codec.AudioCodec;
 import org.thoughtcrime.redphone.monitor.CallMonitor;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
-
-import java.util.List;
+import org.thoughtcrime.redphone.util.RingBuffer;
 
 /**
  * CallAudioStream constructs the audio output processing pipeline that plays an incoming
@@ -36,9 +35,9 @@ public class CallAudioStream {
   private final LatencyMinimizingAudioPlayer audioPlayer;
   private CallAudioProvider audioProvider;
   private CallLogger callAudioLog = new CallLogger();
-  private List<EncodedAudioData> incomingAudio;
+  private RingBuffer<EncodedAudioData> incomingAudio;
   private PacketLogger packetLogger;
-  public CallAudioStream( List<EncodedAudioData> incomingAudio, AudioCodec codec, PacketLogger packetLogger, CallMonitor monitor ) {
+  public CallAudioStream( RingBuffer<EncodedAudioData> incomingAudio, AudioCodec codec, PacketLogger packetLogger, CallMonitor monitor ) {
     audioProvider = new CallAudioProvider(codec, packetLogger, callAudioLog, monitor);
     this.packetLogger = packetLogger;
     audioPlayer = new LatencyMinimizingAudioPlayer(audioProvider, new RobustAudioTrack());
@@ -46,8 +45,8 @@ public class CallAudioStream {
   }
 
   public void go() {
-    while( incomingAudio.size() != 0 ) {
-      EncodedAudioData ead = incomingAudio.remove(0);
+    EncodedAudioData ead;
+    while( (ead = incomingAudio.poll()) != null ) {
       packetLogger.logPacket( ead.sequenceNumber, PacketLogger.PLAY_QUEUE_INSERT,
               incomingAudio.size() );
       audioProvider.addFrame( ead );
@@ -55,6 +54,10 @@ public class CallAudioStream {
     audioPlayer.update();
   }
 
+  public long getMillisUntilRefill() {
+    return audioPlayer.getMillisUntilRefill();
+  }
+
   public void terminate() {
     audioPlayer.terminate();
     audioProvider.terminate();
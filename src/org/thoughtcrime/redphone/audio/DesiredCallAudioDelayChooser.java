@@ -18,14 +18,24 @@
 package org.thoughtcrime.redphone.audio;
 
 import org.thoughtcrime.redphone.ApplicationContext;
+import org.thoughtcrime.redphone.codec.AudioCodec;
+import org.thoughtcrime.redphone.monitor.CallMonitor;
+import org.thoughtcrime.redphone.monitor.CountMetric;
+import org.thoughtcrime.redphone.monitor.HistogramMetric;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
 import org.thoughtcrime.redphone.ui.ApplicationPreferencesActivity;
 import org.thoughtcrime.redphone.util.LeakyIntegrator;
 
 /**
- * Selects the number of packets to buffer to avoid underruns while minimizing latency.
+ * Selects the number of codec frames to buffer to avoid underruns while minimizing latency.
  * The desired buffer level is adjusted smoothly within fixed bounds.
  *
+ * The buffer level comes from a {@link PlayoutDelayEstimator}.  Every available estimator is
+ * fed the same arrivals, and for each one the delay it asks for and the fraction of frames that
+ * would have arrived too late at that delay are reported to the {@link CallMonitor} as
+ * "delay-estimator-" followed by its name, so estimators can be compared on the same calls.
+ * Only the estimator selected in preferences drives playout.
+ *
  * @author Stuart O. Anderson
  */
 public class DesiredCallAudioDelayChooser {
@@ -33,10 +43,11 @@ public class DesiredCallAudioDelayChooser {
   private final boolean minimizeLatency =
           ApplicationPreferencesActivity.isMinimizeLatency(ApplicationContext.getInstance().getContext());
 
-  private final float maxDesFrameDelay = 12;
-  private final float minDesFrameDelay = 0.5f;
+  private final float maxDesFrameDelay = 24;
+  private final float minDesFrameDelay = 1;
 
-  private static final int dropoutThreshold = 10;
+  private static final float quantileLateLossTarget = .03f;
+  private static final long  frameMillis = 1000 / AudioCodec.FRAME_RATE;
 
   private LeakyIntegrator lateCount = new LeakyIntegrator(1000); //how many packets arrived late
   private LeakyIntegrator jitCount  = new LeakyIntegrator(1000);  //how many packets arrived 'just in time'
@@ -49,12 +60,31 @@ public class DesiredCallAudioDelayChooser {
   private LeakyIntegrator lateCountDelay = new LeakyIntegrator(25);
   private LeakyIntegrator jitCountDelay = new LeakyIntegrator(25);
 
+  private final PlayoutDelayEstimator[] estimators;
+  private final EstimatorScore[] scores;
+  private final int activeEstimator;
+
   private float dynDesFrameDelay;
 
-  public DesiredCallAudioDelayChooser( PacketLogger packetLogger) {
+  public DesiredCallAudioDelayChooser( PacketLogger packetLogger, CallMonitor monitor ) {
     dropoutTracker = new DropoutTracker( packetLogger );
     dynDesFrameDelay = ApplicationPreferencesActivity
             .getCallStreamDesBufferLevel(ApplicationContext.getInstance().getContext() );
+
+    estimators = new PlayoutDelayEstimator[] {
+      new DropoutDelayEstimator( dropoutTracker, dynDesFrameDelay ),
+      new QuantileDelayEstimator( quantileLateLossTarget, dynDesFrameDelay )
+    };
+
+    activeEstimator = ApplicationPreferencesActivity
+            .isQuantileDelayEstimator(ApplicationContext.getInstance().getContext()) ? 1 : 0;
+
+    scores = new EstimatorScore[estimators.length];
+    for( int i=0; i < estimators.length; i++ ) {
+      scores[i] = new EstimatorScore( dynDesFrameDelay );
+      monitor.addSampledMetrics( "delay-estimator-" + estimators[i].getName(), scores[i].counts );
+      monitor.addSampledMetrics( "delay-estimator-" + estimators[i].getName(), scores[i].delays );
+    }
   }
 
   public float getDesFrameDelay() {
@@ -62,7 +92,12 @@ public class DesiredCallAudioDelayChooser {
   }
 
   public void notifyArrival( long seqNum ) {
-    dropoutTracker.observeSequenceNumber(seqNum);
+    long msecLate = dropoutTracker.observeSequenceNumber(seqNum);
+
+    for( int i=0; i < estimators.length; i++ ) {
+      estimators[i].observeLateness( msecLate );
+      scores[i].observeArrival( msecLate );
+    }
   }
 
   public void notifyMissing() {
@@ -107,23 +142,49 @@ public class DesiredCallAudioDelayChooser {
     lateCountDelay.observe(0);
     jitCountDelay.observe(0);
 
-    if( minimizeLatency ) {
-      dynDesFrameDelay = 0.5f;
-      return;
-    }
+    for( int i=0; i < estimators.length; i++ ) {
+      float delay = estimators[i].getDesiredFrameDelay();
 
-    //Event Threshold Based Logic
-    float bestThreshold = dropoutTracker.getDepthForThreshold( dropoutThreshold );
-    final float w = 1 - 1/100f;
-    dynDesFrameDelay = dynDesFrameDelay * w + (1-w) * bestThreshold;
+      if( delay > maxDesFrameDelay ) delay = maxDesFrameDelay;
+      if( delay < minDesFrameDelay ) delay = minDesFrameDelay;
 
+      scores[i].observeDelay( delay );
+      if( i == activeEstimator ) dynDesFrameDelay = delay;
+    }
 
-    if( dynDesFrameDelay > maxDesFrameDelay ) dynDesFrameDelay = maxDesFrameDelay;
-    if( dynDesFrameDelay < minDesFrameDelay ) dynDesFrameDelay = minDesFrameDelay;
+    if( minimizeLatency ) {
+      dynDesFrameDelay = minDesFrameDelay;
+    }
   }
 
   public void terminate() {
     ApplicationPreferencesActivity
             .setCallStreamDesBufferLevel(ApplicationContext.getInstance().getContext(),dynDesFrameDelay);
   }
+
+  /**
+   * Scores an estimator by the delay it asked for and how many frames arrived later than it.
+   */
+  private static class EstimatorScore {
+    private final CountMetric     counts = new CountMetric();
+    private final HistogramMetric delays = new HistogramMetric( 0, 24, 25 );
+
+    private float frameDelay;
+
+    public EstimatorScore( float initialFrameDelay ) {
+      this.frameDelay = initialFrameDelay;
+    }
+
+    public void observeArrival( long msecLate ) {
+      counts.increment( "arrived", 1 );
+      if( msecLate > frameDelay * frameMillis ) {
+        counts.increment( "late", 1 );
+      }
+    }
+
+    public void observeDelay( float frameDelay ) {
+      this.frameDelay = frameDelay;
+      delays.addEvent( Math.round( frameDelay ) );
+    }
+  }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.audio;
+
+/**
+ * Chooses the buffer depth that would have kept the number of latency peaks exceeding it in
+ * the last 30 seconds below a threshold, according to the {@link DropoutTracker}, and moves
+ * toward it slowly.
+ */
+public class DropoutDelayEstimator implements PlayoutDelayEstimator {
+  private static final int   dropoutThreshold = 10;
+  private static final float w = 1 - 1/100f;
+
+  private final DropoutTracker dropoutTracker;
+  private float desFrameDelay;
+
+  public DropoutDelayEstimator( DropoutTracker dropoutTracker, float initialFrameDelay ) {
+    this.dropoutTracker = dropoutTracker;
+    this.desFrameDelay  = initialFrameDelay;
+  }
+
+  public String getName() {
+    return "dropout";
+  }
+
+  public void observeLateness( long msecLate ) {
+    //the dropout tracker records latency peaks itself as it measures lateness
+  }
+
+  public float getDesiredFrameDelay() {
+    float bestThreshold = dropoutTracker.getDepthForThreshold( dropoutThreshold );
+    desFrameDelay = desFrameDelay * w + (1-w) * bestThreshold;
+    return desFrameDelay;
+  }
+}
@@ -19,7 +19,7 @@ package org.thoughtcrime.redphone.audio;
 
 import android.os.SystemClock;
 
-import org.thoughtcrime.redphone.network.RtpAudioSender;
+import org.thoughtcrime.redphone.codec.AudioCodec;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
 import org.thoughtcrime.redphone.profiling.PeriodicTimer;
 
@@ -37,20 +37,24 @@ import org.thoughtcrime.redphone.profiling.PeriodicTimer;
  * Peak latencies above a the "threshold of actionability" (300msec) are discarded since we never
  * want to buffer more than 300msec worth of audio packets.
  *
- * We track how many peaks occurred in several latency ranges (expressed as a packet count) and
+ * We track how many peaks occurred in several latency ranges (expressed as a frame count) and
  * provide the ability to answer the question:
  *
- * If we wanted to have only N buffer underflows in the past M seconds, how many packets would need
+ * If we wanted to have only N buffer underflows in the past M seconds, how many frames would need
  * to be stored in the buffer?
  *
+ * Sequence numbers are codec frame indices, so the expected arrival times do not depend on how
+ * many frames the sender bundles into each packet.
+ *
  * @author Stuart O. Anderson
  */
-//TODO this class assumes a codec frame is 20msec - not true for non-speex
 public class DropoutTracker {
   private final static long maxActionableLatency = 300;
+  private static final long lateWindowMillis = 30000;
+  private static final int lateWindowBuckets = 30;
+  private static final long frameMillis = 1000 / AudioCodec.FRAME_RATE;
   private float zeroTimeOffset;
   private static final float u = 1/50f; //adaptivity of zero estimate
-  private static final float binsPerPacket = 2;
 
   private long priorLateness[] = new long[6];
   private EventWindow[] lateBins = new EventWindow[20];
@@ -64,16 +68,16 @@ public class DropoutTracker {
     this.packetLogger = packetLogger;
 
     for( int i=0; i <lateBins.length; i++ ) {
-      lateBins[i] = new EventWindow( 30000 );
+      lateBins[i] = new EventWindow( lateWindowMillis, lateWindowBuckets );
     }
   }
 
   private long getExpectedSequenceNumber( long now ) {
-    return (now - zeroTime)/(20 * RtpAudioSender.audioChunksPerPacket);
+    return (now - zeroTime)/frameMillis;
   }
 
   private long getExpectedTime( long seqNum ) {
-    return zeroTime + seqNum * 20 * RtpAudioSender.audioChunksPerPacket;
+    return zeroTime + seqNum * frameMillis;
   }
 
   //TODO(Stuart Anderson): Use a list or ring buffer here
@@ -96,7 +100,10 @@ public class DropoutTracker {
     return possiblePeakLatency;
   }
 
-  public void observeSequenceNumber( long seqNum ) {
+  /**
+   * @return how late the frame arrived relative to when it was expected, in milliseconds.
+   */
+  public long observeSequenceNumber( long seqNum ) {
     if( !zeroTimeInitialized ) {
       zeroTimeBase = SystemClock.uptimeMillis();
       zeroTimeInitialized = true;
@@ -114,7 +121,7 @@ public class DropoutTracker {
     long peakLatency;
 
     if( (peakLatency = detectPeak() ) > 0) {
-      int lateBin = (int)(peakLatency/(20f * RtpAudioSender.audioChunksPerPacket / binsPerPacket ));
+      int lateBin = (int)(peakLatency/frameMillis);
       if( lateBin < 0 ) lateBin = 0;
       if( lateBin >= lateBins.length ) {
         lateBin = lateBins.length - 1;
@@ -132,20 +139,22 @@ public class DropoutTracker {
     } else {
       zeroTimeOffset += msecLate * u; //if it arrives late, conservatively update the timebase
     }
+
+    return msecLate;
   }
 
-  //How many packets would we have needed to buffer to
+  //How many frames would we have needed to buffer to
   //stay below the desired dropout event count
   public float getDepthForThreshold( int maxEvents ) {
     int eventCount = 0;
     int depth;
-    long now = System.currentTimeMillis();
+    long now = SystemClock.uptimeMillis();
     for( depth = lateBins.length-1; depth >= 0; depth-- ) {
       eventCount += lateBins[depth].countEvents(now);
       if( eventCount > maxEvents ) {
         break;
       }
     }
-    return depth/binsPerPacket;
+    return depth;
   }
 }
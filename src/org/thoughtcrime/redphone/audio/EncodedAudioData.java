@@ -17,22 +17,55 @@
 
 package org.thoughtcrime.redphone.audio;
 
+import org.thoughtcrime.redphone.network.PacketReservoir;
+
+import java.nio.ByteBuffer;
+
 /**
  * Stores encoded (not encrypted) audio data along with sequence information from the encoding
  * stream and the packet stream this data arrived in.
  *
+ * The encoded audio is the slice of {@link #data} starting at {@link #offset} and running for
+ * {@link #length} bytes.  Audio that arrived from the network is a view over a receive buffer
+ * owned by a {@link PacketReservoir}, and must be recycled once it has been decoded or discarded.
+ *
  * @author Stuart O. Anderson
  */
 //TODO(Stuart Anderson): Should know how to decode and encode itself.
 public class EncodedAudioData implements Comparable<EncodedAudioData>{
   public byte[] data;
+  public int offset;
+  public int length;
   public long sequenceNumber;
   public long sourceSequenceNumber;
 
+  public final ByteBuffer receiveBuffer;
+  private final PacketReservoir reservoir;
+
   public EncodedAudioData( byte data[], long sequenceNumber, long sourceSequenceNumber ) {
     this.data = data;
+    this.offset = 0;
+    this.length = data.length;
     this.sequenceNumber = sequenceNumber;
     this.sourceSequenceNumber = sourceSequenceNumber;
+    this.receiveBuffer = null;
+    this.reservoir = null;
+  }
+
+  public EncodedAudioData( ByteBuffer receiveBuffer, PacketReservoir reservoir ) {
+    this.data = receiveBuffer.array();
+    this.receiveBuffer = receiveBuffer;
+    this.reservoir = reservoir;
+  }
+
+  /**
+   * Returns the underlying buffer to the reservoir it was checked out of, if any.
+   * The caller must not touch this object again after recycling it.
+   */
+  public void recycle() {
+    if( reservoir != null ) {
+      reservoir.returnBuffer( this );
+    }
   }
 
   public int compareTo(EncodedAudioData data) {
@@ -17,31 +17,70 @@
 
 package org.thoughtcrime.redphone.audio;
 
-import java.util.PriorityQueue;
-
 /**
  * Tracks events that occur at specific times and provides a count of how
  * many events have occurred in a specific window of time.
  *
+ * Events are counted into a fixed ring of time buckets rather than stored individually, so
+ * adding and counting events never allocates and costs O(1) amortized.  The price is that the
+ * window edge has the resolution of one bucket: an event is counted for between
+ * (bucketCount-1)/bucketCount and the whole of the window length.
+ *
+ * All times passed in must come from the same monotonic clock and must not go backwards by
+ * more than the window length.
+ *
  * @author Stuart O. Anderson
  */
 public class EventWindow {
-  long windowLength;
-  private PriorityQueue<Long> events = new PriorityQueue<Long>();
+  private final long  bucketMillis;
+  private final int[] counts;
 
-  EventWindow( long windowLength ) {
-    this.windowLength = windowLength;
+  private boolean started = false;
+  private long    currentBucket;
+  private int     total;
+
+  EventWindow( long windowLength, int bucketCount ) {
+    this.bucketMillis = Math.max( 1, windowLength / bucketCount );
+    this.counts       = new int[bucketCount];
   }
 
   public void addEvent( long eventTime ) {
-    events.add( eventTime );
+    long bucket = eventTime / bucketMillis;
+    advanceTo( bucket );
+
+    if( bucket <= currentBucket - counts.length ) return;
+
+    counts[index( bucket )]++;
+    total++;
   }
 
-  public int countEvents(long now) {
-    while( !events.isEmpty() && (events.peek()+windowLength < now ) ) {
-      events.remove();
+  public int countEvents( long now ) {
+    advanceTo( now / bucketMillis );
+    return total;
+  }
+
+  private void advanceTo( long bucket ) {
+    if( started && bucket <= currentBucket ) return;
+
+    if( !started || bucket - currentBucket >= counts.length ) {
+      for( int i=0; i < counts.length; i++ ) {
+        counts[i] = 0;
+      }
+      total = 0;
+    } else {
+      for( long b = currentBucket + 1; b <= bucket; b++ ) {
+        int i = index( b );
+        total -= counts[i];
+        counts[i] = 0;
+      }
     }
 
-    return events.size();
+    currentBucket = bucket;
+    started       = true;
+  }
+
+  private int index( long bucket ) {
+    int i = (int)(bucket % counts.length);
+    return i < 0 ? i + counts.length : i;
   }
-}
\ No newline at end of file
+}
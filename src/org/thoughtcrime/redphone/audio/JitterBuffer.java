@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.audio;
+
+/**
+ * Holds received {@link EncodedAudioData} waiting to be played, indexed by sequence number.
+ *
+ * Frames live in a preallocated array of slots, and a frame's slot is its sequence number
+ * modulo the power of two capacity.  The buffer only ever holds sequence numbers within one
+ * capacity of each other, so a slot holds at most one live frame.  Inserting a frame too far
+ * ahead of the oldest one discards the old frames that no longer fit.
+ *
+ * Lookup, insert and the newest sequence number are O(1).  Finding the oldest frame and
+ * discarding old frames walk forward over empty slots, but never past a slot twice, so they
+ * are O(1) amortized over the frames inserted.  Nothing is allocated after construction, and
+ * frames the buffer discards are recycled so their payload buffers return to the pool.
+ */
+public class JitterBuffer {
+  private final EncodedAudioData[] slots;
+  private final int                mask;
+
+  private int  count = 0;
+  private long firstSequence;
+  private long lastSequence;
+
+  public JitterBuffer(int capacity) {
+    int size = 1;
+    while (size < capacity) size <<= 1;
+
+    this.slots = new EncodedAudioData[size];
+    this.mask  = size - 1;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  public EncodedAudioData get(long sequenceNumber) {
+    if (count == 0 || sequenceNumber < firstSequence || sequenceNumber > lastSequence)
+      return null;
+
+    EncodedAudioData ead = slots[index(sequenceNumber)];
+
+    if (ead != null && ead.sequenceNumber == sequenceNumber) return ead;
+    else                                                     return null;
+  }
+
+  /**
+   * @return the frame with the lowest sequence number, or null if the buffer is empty.
+   */
+  public EncodedAudioData getFirst() {
+    if (count == 0) return null;
+    return slots[index(firstSequence)];
+  }
+
+  /**
+   * Only valid when the buffer isn't empty.
+   */
+  public long getFirstSequence() {
+    return firstSequence;
+  }
+
+  /**
+   * Only valid when the buffer isn't empty.
+   */
+  public long getLastSequence() {
+    return lastSequence;
+  }
+
+  /**
+   * Adds a frame to the buffer.
+   *
+   * @return the frame that was displaced by the insert, either a frame previously held with
+   * the same sequence number or the new frame itself if it was too old to hold.  The caller
+   * is responsible for recycling it.
+   */
+  public EncodedAudioData put(EncodedAudioData ead) {
+    long sequenceNumber = ead.sequenceNumber;
+
+    if (count == 0) {
+      firstSequence = lastSequence = sequenceNumber;
+      slots[index(sequenceNumber)] = ead;
+      count = 1;
+      return null;
+    }
+
+    if (sequenceNumber <= lastSequence - slots.length)
+      return ead;
+
+    if (sequenceNumber >= firstSequence + slots.length) {
+      discardBefore(sequenceNumber - slots.length + 1);
+    }
+
+    int              index    = index(sequenceNumber);
+    EncodedAudioData replaced = slots[index];
+
+    slots[index] = ead;
+
+    if (replaced == null) {
+      count++;
+    }
+
+    if (count == 1) {
+      firstSequence = lastSequence = sequenceNumber;
+    } else {
+      if (sequenceNumber < firstSequence) firstSequence = sequenceNumber;
+      if (sequenceNumber > lastSequence)  lastSequence  = sequenceNumber;
+    }
+
+    return replaced;
+  }
+
+  /**
+   * Removes the frame with the given sequence number without recycling it.
+   */
+  public EncodedAudioData remove(long sequenceNumber) {
+    EncodedAudioData ead = get(sequenceNumber);
+    if (ead == null) return null;
+
+    slots[index(sequenceNumber)] = null;
+    count--;
+
+    if (count == 0)                           return ead;
+    if (sequenceNumber == firstSequence)      advanceFirst();
+    else if (sequenceNumber == lastSequence)  retreatLast();
+
+    return ead;
+  }
+
+  /**
+   * Recycles every frame with a sequence number below the given one.
+   *
+   * @return the number of frames discarded.
+   */
+  public int discardBefore(long sequenceNumber) {
+    int discarded = 0;
+
+    while (count > 0 && firstSequence < sequenceNumber) {
+      int index = index(firstSequence);
+
+      slots[index].recycle();
+      slots[index] = null;
+      count--;
+      discarded++;
+
+      if (count > 0) advanceFirst();
+    }
+
+    return discarded;
+  }
+
+  private void advanceFirst() {
+    do {
+      firstSequence++;
+    } while (slots[index(firstSequence)] == null);
+  }
+
+  private void retreatLast() {
+    do {
+      lastSequence--;
+    } while (slots[index(lastSequence)] == null);
+  }
+
+  private int index(long sequenceNumber) {
+    return (int)sequenceNumber & mask;
+  }
+}
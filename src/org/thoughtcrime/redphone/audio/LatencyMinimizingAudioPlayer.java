@@ -22,6 +22,7 @@ import android.os.SystemClock;
 import android.util.Log;
 
 import org.thoughtcrime.redphone.ApplicationContext;
+import org.thoughtcrime.redphone.codec.AudioCodec;
 import org.thoughtcrime.redphone.profiling.PeriodicTimer;
 import org.thoughtcrime.redphone.ui.ApplicationPreferencesActivity;
 import org.thoughtcrime.redphone.util.LeakyIntegrator;
@@ -119,6 +120,16 @@ public class LatencyMinimizingAudioPlayer {
 
   }
 
+  /**
+   * @return how long the sink can keep playing before it drops to the desired buffer level
+   * and needs more audio.
+   */
+  public long getMillisUntilRefill() {
+    int excessSamples = audioPlayer.getBufferRemaining() - dynamicDesiredBufferLevel;
+    if( excessSamples <= 0 ) return 0;
+    return excessSamples * 1000L / AudioCodec.SAMPLE_RATE;
+  }
+
   //pulls audio from the stream to fill up to threshold
   private void getAudio() {
     int framePulls = 0; //this gets us out of the loop if we never manage to get enough audio out of the stream, so we can die gracefully
@@ -32,17 +32,13 @@ import org.thoughtcrime.redphone.monitor.HistogramMetric;
 import org.thoughtcrime.redphone.network.RtpAudioSender;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
 import org.thoughtcrime.redphone.profiling.PeriodicTimer;
-import org.thoughtcrime.redphone.profiling.ProfilingTimer;
+import org.thoughtcrime.redphone.profiling.TimeProfiler;
 import org.thoughtcrime.redphone.ui.ApplicationPreferencesActivity;
-import org.thoughtcrime.redphone.util.Factory;
-import org.thoughtcrime.redphone.util.Pool;
+import org.thoughtcrime.redphone.util.RingBuffer;
 
+import java.io.IOException;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -51,11 +47,19 @@ import java.util.concurrent.atomic.AtomicReference;
  *
  * The microphone reader provides non-blocking access to any data in this queue and handles
  * clearing and restarting the reader in the event of buffer overflows or hardware issues.
+ * If the consumer falls behind the queue drops its oldest chunks, so the backlog never
+ * exceeds {@link #MIC_QUEUE_CAPACITY} frames.
+ *
+ * Chunks are preallocated and circulate between the two threads: full chunks travel to the
+ * encoder through one ring buffer and come back empty through a second one, so neither
+ * direction takes a lock or allocates.
  *
  * @author Stuart O. Anderson
  */
 public class MicrophoneReader {
   public static final String TAG = "MicrophoneReader";
+  private static final int TIMER_READ   = TimeProfiler.registerTimer( "mic:read" );
+  private static final int TIMER_ENCODE = TimeProfiler.registerTimer( "mic:encode" );
   private static final int AUDIO_SOURCE =
     Build.VERSION.SDK_INT >= 11 ? MediaRecorder.AudioSource.VOICE_COMMUNICATION
       : MediaRecorder.AudioSource.DEFAULT;
@@ -69,40 +73,45 @@ public class MicrophoneReader {
       AudioFormat.CHANNEL_CONFIGURATION_MONO,
       AudioFormat.ENCODING_PCM_16BIT, AUDIO_BUFFER_SIZE * 10);
   private byte encodedData[] = new byte[512];
-  private LinkedList<EncodedAudioData> audioQueue;
+  private RingBuffer<EncodedAudioData> audioQueue;
   private AudioCodec codec;
   private boolean micStarted = false;
   private long sequenceNumber = 0;
   PeriodicTimer debugTimer = new PeriodicTimer(5000);
   private int totalSamplesRead;
-  private MicReadThread micThread = new MicReadThread();
+  private final MicReadThread micThread;
   private final boolean singleThread = ApplicationPreferencesActivity.isSingleThread(ApplicationContext.getInstance().getContext());
+  private static final long FRAME_MILLIS = 1000 / AudioCodec.FRAME_RATE;
+  private static final int  MIC_QUEUE_CAPACITY = 32;
+  // Enough for a full queue, plus the chunk being read and the chunk being encoded
+  private static final int  CHUNK_COUNT        = MIC_QUEUE_CAPACITY + 2;
+  private volatile long lastChunkTime;
 
-  private ProfilingTimer readTime = new ProfilingTimer("Mic Read Time");
   private PeriodicTimer debugTextUpdateTimer = new PeriodicTimer(1000);
   private DecimalFormat loadFormat = new DecimalFormat("0.00");
   private PacketLogger packetLogger;
 
-  private final AtomicReference<AudioException> micThreadException;
   private final AtomicReference<Boolean> enableMute;
   private final CountMetric counter;
   private final HistogramMetric waveformStats = new HistogramMetric(Short.MIN_VALUE, Short.MAX_VALUE, 16);
 
-  private List<AudioChunk> micAudioList =
-    Collections.synchronizedList(new ArrayList<AudioChunk>());
-  private Pool<AudioChunk> chunkPool = new Pool<AudioChunk>( new Factory<AudioChunk>() {
-    public AudioChunk getInstance() {
-      return new AudioChunk( new short[AudioCodec.SAMPLES_PER_FRAME], 0);
-    }
-  });
+  private final RingBuffer<AudioChunk> micAudioList =
+    new RingBuffer<AudioChunk>(MIC_QUEUE_CAPACITY, RingBuffer.OverflowPolicy.DROP_OLDEST, 0);
+  private final RingBuffer<AudioChunk> freeChunks =
+    new RingBuffer<AudioChunk>(CHUNK_COUNT, RingBuffer.OverflowPolicy.DROP_OLDEST, 0);
 
-  public MicrophoneReader(LinkedList<EncodedAudioData> outgoingAudio,
+  public MicrophoneReader(RingBuffer<EncodedAudioData> outgoingAudio,
       AudioCodec codec, PacketLogger packetLogger, CallMonitor monitor) {
     this.codec = codec;
     this.packetLogger = packetLogger;
     audioQueue = outgoingAudio;
-    micThreadException = new AtomicReference<AudioException>();
+
+    for (int i = 0; i < CHUNK_COUNT; i++) {
+      freeChunks.offer(newChunk());
+    }
+
     enableMute = new AtomicReference<Boolean>(false);
+    micThread = new MicReadThread(singleThread ? null : monitor);
 
     counter = new CountMetric();
     monitor.addSampledMetrics("mic-reader", counter);
@@ -131,14 +140,11 @@ public class MicrophoneReader {
     }
   }
 
-  public void go() throws AudioException {
+  public void go() throws AudioException, IOException {
     short audioData[];
     AudioChunk chunk;
 
-    AudioException exception = micThreadException.get();
-    if(exception != null) {
-      throw new AudioException(exception);
-    }
+    micThread.checkFailure();
 
     if( singleThread ) {
       micThread.readFromMic();
@@ -147,30 +153,40 @@ public class MicrophoneReader {
       micThread.start();
     }
 
-    if( micAudioList.size() > 50 ) {
-      micAudioList.clear();
-      Log.d( TAG, "cleared mic queue, too much backlog");
-    }
-    while( !micAudioList.isEmpty() &&
-        audioQueue.size() < RtpAudioSender.audioChunksPerPacket) {
-      try {
-        chunk = micAudioList.remove(0);
-        audioData = chunk.getChunk();
-      } catch( IndexOutOfBoundsException e ) {
-        return; //no data
-      }
+    while( audioQueue.size() < RtpAudioSender.MAX_FRAMES_PER_PACKET &&
+        (chunk = micAudioList.poll()) != null ) {
+      audioData = chunk.getChunk();
 
+      TimeProfiler.startBlock( TIMER_ENCODE );
       int encodedDataLen = codec.encode(audioData, encodedData,
           AudioCodec.SAMPLES_PER_FRAME);
-      chunkPool.returnItem(chunk);
+      TimeProfiler.stopBlock( TIMER_ENCODE );
+      long chunkSequence = chunk.sequenceNumber;
+      freeChunks.offer(chunk);
       byte encodedBuffer[] = new byte[encodedDataLen];
 
       System.arraycopy(encodedData, 0, encodedBuffer, 0, encodedDataLen);
-      packetLogger.logPacket( chunk.sequenceNumber, PacketLogger.PACKET_ENCODED );
-      audioQueue.add(new EncodedAudioData(encodedBuffer, chunk.sequenceNumber, chunk.sequenceNumber ));
+      packetLogger.logPacket( chunkSequence, PacketLogger.PACKET_ENCODED );
+      EncodedAudioData evicted =
+        audioQueue.offer(new EncodedAudioData(encodedBuffer, chunkSequence, chunkSequence ));
+      if( evicted != null ) {
+        Log.w( TAG, "outgoing audio queue full, dropped frame " + evicted.sequenceNumber );
+        evicted.recycle();
+      }
     }
   }
 
+  /**
+   * @return how long until the reader thread is expected to queue the next chunk of audio.
+   * In single threaded mode the microphone read blocks in {@link #go()}, so there is never
+   * a reason to wait.
+   */
+  public long getMillisUntilNextChunk() {
+    if( singleThread || !micAudioList.isEmpty() ) return 0;
+    long untilNext = lastChunkTime + FRAME_MILLIS - SystemClock.uptimeMillis();
+    return Math.max( 0, untilNext );
+  }
+
   public void terminate() {
     if( !singleThread ) {
         micThread.terminate();
@@ -181,6 +197,10 @@ public class MicrophoneReader {
     }
   }
 
+  private AudioChunk newChunk() {
+    return new AudioChunk( new short[AudioCodec.SAMPLES_PER_FRAME], 0 );
+  }
+
   private class AudioChunk {
     public long sequenceNumber;
     private short chunk[];
@@ -194,34 +214,45 @@ public class MicrophoneReader {
     }
   }
 
-  private class MicReadThread extends Thread {
-    private boolean terminate;
-    private boolean outOfLoop;
-    public MicReadThread() {
-      super( "Microphone Reader" );
+  /**
+   * The capture stage.  A read blocks until a frame of audio is available, so a read taking
+   * longer than two frames means capture has fallen behind the hardware.
+   */
+  private class MicReadThread extends AudioStage {
+    public MicReadThread(CallMonitor monitor) {
+      super( "capture", 2 * FRAME_MILLIS, monitor );
     }
 
     @Override
-    public void run() {
-      try {
-        while( !terminate ) {
-          readFromMic();
-        }
-      } catch(AudioException e) {
-        micThreadException.set(e);
+    protected long runOnce() throws AudioException {
+      readFromMic();
+      return 0;
+    }
+
+    AudioChunk staticChunk = new AudioChunk( new short[AudioCodec.SAMPLES_PER_FRAME], 0 );
+
+    // A chunk evicted from the full mic queue, reused by the next read.  Only the encoder
+    // may return chunks to the free list, so the capture thread keeps this one itself.
+    private AudioChunk spareChunk;
+
+    private AudioChunk takeChunk() {
+      AudioChunk chunk = spareChunk;
+
+      if (chunk != null) {
+        spareChunk = null;
+        return chunk;
       }
-      outOfLoop = true;
-      synchronized( this ) {
-        notify();
+
+      chunk = freeChunks.poll();
+
+      if (chunk == null) {
+        Log.w(TAG, "free chunk list empty, allocating");
+        chunk = newChunk();
       }
-    }
 
-    public void terminate() {
-      terminate = true;
+      return chunk;
     }
 
-    AudioChunk staticChunk = new AudioChunk( new short[AudioCodec.SAMPLES_PER_FRAME], 0 );
-
     public void readFromMic() throws AudioException {
       /*if (debugTextUpdateTimer.periodically()) {
         double loadEst = 1 - readTime.getAccumTime()
@@ -246,11 +277,11 @@ public class MicrophoneReader {
       }
 
       long readStartTime = SystemClock.uptimeMillis();
-      AudioChunk chunk = chunkPool.getItem();
-      readTime.start();
+      AudioChunk chunk = takeChunk();
+      TimeProfiler.startBlock( TIMER_READ );
       int samplesRead = audioSource.read(chunk.getChunk(), 0,
           AudioCodec.SAMPLES_PER_FRAME);
-      readTime.stop();
+      TimeProfiler.stopBlock( TIMER_READ );
       chunk.sequenceNumber = sequenceNumber++;
 
       packetLogger.logPacket( chunk.sequenceNumber, PacketLogger.PACKET_IN_MIC_QUEUE );
@@ -261,7 +292,13 @@ public class MicrophoneReader {
         muteAudio(chunk);
       }
 
-      micAudioList.add( chunk );
+      AudioChunk evicted = micAudioList.offer( chunk );
+      lastChunkTime = SystemClock.uptimeMillis();
+
+      if( evicted != null ) {
+        spareChunk = evicted;
+        counter.increment("dropped", 1);
+      }
 
       if (samplesRead != AudioCodec.SAMPLES_PER_FRAME) {
         Log.w("RedPhone", "VoiceSender read only "
@@ -292,8 +329,12 @@ public class MicrophoneReader {
     counter.increment("samples", chunk.getChunk().length);
   }
 
+  /**
+   * Discards any queued audio.  Must be called before the first {@link #go()}, while neither
+   * the capture thread nor the encoder is running.
+   */
   public void flush() {
-    micAudioList.clear();
+    micAudioList.drainTo(freeChunks);
   }
 
   public void setMute(boolean updatedMuteSetting) {
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.audio;
+
+/**
+ * Decides how many codec frames of received audio to hold in the jitter buffer.
+ *
+ * Estimators are fed the lateness of every arriving frame, measured by the
+ * {@link DropoutTracker} against its estimate of when the frame should have arrived, and are
+ * asked for their desired delay once per played frame.  Several estimators can be fed the
+ * same arrivals so their choices can be compared while only one of them drives playout.
+ */
+public interface PlayoutDelayEstimator {
+  /**
+   * @return a short name identifying the estimator in call metrics.
+   */
+  String getName();
+
+  void observeLateness( long msecLate );
+
+  /**
+   * @return the desired playout delay, in codec frames.
+   */
+  float getDesiredFrameDelay();
+}
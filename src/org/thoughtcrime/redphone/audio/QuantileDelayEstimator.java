@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.audio;
+
+import org.thoughtcrime.redphone.codec.AudioCodec;
+
+/**
+ * Buffers just enough audio that a target fraction of frames arrive too late to be played.
+ *
+ * Frame lateness is tracked in two exponentially decaying histograms, one that forgets within
+ * a couple of seconds and one that remembers roughly the last twenty.  The desired delay is the
+ * larger of the two histograms' lateness quantiles at one minus the target late-loss rate.  A
+ * jump in jitter therefore shows up in the fast histogram after a handful of late frames, while
+ * the delay only comes back down once the slow histogram agrees that the network has calmed.
+ *
+ * Decay is applied lazily by growing the weight of each new observation instead of shrinking
+ * every bin, so observing a frame is O(1) and nothing is allocated after construction.
+ */
+public class QuantileDelayEstimator implements PlayoutDelayEstimator {
+  private static final long  frameMillis  = 1000 / AudioCodec.FRAME_RATE;
+  private static final int   binMillis    = 5;
+  private static final int   bins         = 80;
+  private static final int   fastSamples  = 100;
+  private static final int   slowSamples  = 1000;
+  private static final float minObservations = 20;
+
+  private final float quantile;
+  private final float initialFrameDelay;
+
+  private final DecayingHistogram fast = new DecayingHistogram( fastSamples );
+  private final DecayingHistogram slow = new DecayingHistogram( slowSamples );
+
+  /**
+   * @param lateLossTarget the fraction of frames it is acceptable to lose to lateness.
+   * @param initialFrameDelay the delay to use until enough frames have been observed.
+   */
+  public QuantileDelayEstimator( float lateLossTarget, float initialFrameDelay ) {
+    this.quantile          = 1 - lateLossTarget;
+    this.initialFrameDelay = initialFrameDelay;
+  }
+
+  public String getName() {
+    return "quantile";
+  }
+
+  public void observeLateness( long msecLate ) {
+    int bin = (int)(msecLate / binMillis);
+    if( bin < 0     ) bin = 0;
+    if( bin >= bins ) bin = bins - 1;
+
+    fast.add( bin );
+    slow.add( bin );
+  }
+
+  public float getDesiredFrameDelay() {
+    if( slow.getCount() < minObservations ) {
+      return initialFrameDelay;
+    }
+
+    int msec = Math.max( fast.quantileBin( quantile ), slow.quantileBin( quantile ) ) * binMillis;
+    return (float)msec / frameMillis;
+  }
+
+  private static class DecayingHistogram {
+    private static final float renormalizeThreshold = 1e6f;
+
+    private final float[] weights = new float[bins];
+    private final float   growth;
+
+    private float nextWeight  = 1;
+    private float totalWeight = 0;
+    private int   count       = 0;
+
+    public DecayingHistogram( int decayTimeInSamples ) {
+      this.growth = (float)(1 / (1 - 1.0/decayTimeInSamples));
+    }
+
+    public void add( int bin ) {
+      weights[bin] += nextWeight;
+      totalWeight  += nextWeight;
+      nextWeight   *= growth;
+      count++;
+
+      if( nextWeight > renormalizeThreshold ) {
+        for( int i=0; i < weights.length; i++ ) {
+          weights[i] /= nextWeight;
+        }
+        totalWeight /= nextWeight;
+        nextWeight   = 1;
+      }
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * @return the upper edge of the first bin at which the cumulative weight reaches the quantile.
+     */
+    public int quantileBin( float quantile ) {
+      float target     = totalWeight * quantile;
+      float cumulative = 0;
+
+      for( int i=0; i < weights.length; i++ ) {
+        cumulative += weights[i];
+        if( cumulative >= target ) return i + 1;
+      }
+
+      return weights.length;
+    }
+  }
+}
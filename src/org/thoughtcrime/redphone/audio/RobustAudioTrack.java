@@ -29,6 +29,7 @@ import org.thoughtcrime.redphone.ApplicationContext;
 import org.thoughtcrime.redphone.R;
 import org.thoughtcrime.redphone.Release;
 import org.thoughtcrime.redphone.codec.AudioCodec;
+import org.thoughtcrime.redphone.profiling.TimeProfiler;
 import org.thoughtcrime.redphone.ui.ApplicationPreferencesActivity;
 import org.thoughtcrime.redphone.util.Util;
 
@@ -42,6 +43,8 @@ import org.thoughtcrime.redphone.util.Util;
  * @author Stuart O. Anderson
  */
 public class RobustAudioTrack  {
+  private static final int TIMER_WRITE = TimeProfiler.registerTimer( "track:write" );
+
   private final int deadMsecThreshold = 1000;
   private final static int AUDIO_BUFFER_SIZE = 16000 + AudioTrack.getMinBufferSize(
       AudioCodec.SAMPLE_RATE, AudioFormat.CHANNEL_CONFIGURATION_MONO,
@@ -97,7 +100,9 @@ public class RobustAudioTrack  {
   public void writeChunk(short chunk[], int chunkLen ) {
     if( chunkLen == 0 ) return;
     long writeStart = SystemClock.uptimeMillis();
+    TimeProfiler.startBlock( TIMER_WRITE );
     int written = audioPlayer.write(chunk, 0, chunkLen);
+    TimeProfiler.stopBlock( TIMER_WRITE );
     bufferedSamples += written;
     long writeStop = SystemClock.uptimeMillis();
     if (writeStop - writeStart > 10) {
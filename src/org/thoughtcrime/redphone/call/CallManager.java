@@ -27,6 +27,7 @@ import android.util.Log;
 import org.thoughtcrime.redphone.audio.AudioException;
 import org.thoughtcrime.redphone.audio.CallAudioManager;
 import org.thoughtcrime.redphone.crypto.SecureRtpSocket;
+import org.thoughtcrime.redphone.crypto.zrtp.KeyPairPool;
 import org.thoughtcrime.redphone.crypto.zrtp.MasterSecret;
 import org.thoughtcrime.redphone.crypto.zrtp.NegotiationFailedException;
 import org.thoughtcrime.redphone.crypto.zrtp.RecipientUnavailableException;
@@ -91,6 +92,7 @@ public abstract class CallManager extends Thread {
 
   private void initMonitor() {
      lifecycleMonitor = monitor.addEventStream("call-setup");
+     monitor.addSampledMetrics("zrtp-keypair-pool", KeyPairPool.getInstance().getMetrics());
   }
 
   @Override
@@ -114,7 +116,8 @@ public abstract class CallManager extends Thread {
       }
 
       if (!terminated) {
-        setSecureSocketKeys(zrtpSocket.getMasterSecret());
+        setSecureSocketKeys(zrtpSocket.getMasterSecret(), zrtpSocket.isAeadNegotiated());
+        secureSocket.setMacLength(zrtpSocket.getSrtpMacLength());
         sasInfo = zrtpSocket.getSasInfo();
         callStateListener.notifyCallConnected(sasInfo);
       }
@@ -156,6 +159,8 @@ public abstract class CallManager extends Thread {
 
     if (zrtpSocket != null)
       zrtpSocket.close();
+
+    KeyPairPool.getInstance().refill();
   }
 
   public SessionDescriptor getSessionDescriptor() {
@@ -176,7 +181,7 @@ public abstract class CallManager extends Thread {
     this.signalManager = new SignalManager(callStateListener, signalingSocket, sessionDescriptor);
   }
 
-  protected abstract void setSecureSocketKeys(MasterSecret masterSecret);
+  protected abstract void setSecureSocketKeys(MasterSecret masterSecret, boolean aead);
 
   private void printInitDebug() {
     Context c = context;
@@ -120,7 +120,13 @@ public class InitiatingCallManager extends CallManager {
   }
 
   @Override
-  protected void setSecureSocketKeys(MasterSecret masterSecret) {
+  protected void setSecureSocketKeys(MasterSecret masterSecret, boolean aead) {
+    if (aead) {
+      secureSocket.setAeadKeys(masterSecret.getResponderAeadKey(), masterSecret.getResponderAeadSalt(),
+                               masterSecret.getInitiatorAeadKey(), masterSecret.getInitiatorAeadSalt());
+      return;
+    }
+
     secureSocket.setKeys(masterSecret.getResponderSrtpKey(), masterSecret
         .getResponderMacKey(), masterSecret.getResponderSrtpSailt(),
         masterSecret.getInitiatorSrtpKey(), masterSecret
@@ -144,7 +144,13 @@ public class ResponderCallManager extends CallManager {
   }
 
   @Override
-  protected void setSecureSocketKeys(MasterSecret masterSecret) {
+  protected void setSecureSocketKeys(MasterSecret masterSecret, boolean aead) {
+    if (aead) {
+      secureSocket.setAeadKeys(masterSecret.getInitiatorAeadKey(), masterSecret.getInitiatorAeadSalt(),
+                               masterSecret.getResponderAeadKey(), masterSecret.getResponderAeadSalt());
+      return;
+    }
+
     secureSocket.setKeys(masterSecret.getInitiatorSrtpKey(), masterSecret.getInitiatorMacKey(),
                          masterSecret.getInitiatorSrtpSalt(), masterSecret.getResponderSrtpKey(),
                          masterSecret.getResponderMacKey(), masterSecret.getResponderSrtpSailt());
@@ -33,7 +33,12 @@ public abstract class AudioCodec {
   public static int SAMPLES_PER_FRAME = SAMPLE_RATE/FRAME_RATE;
 
   //returns the number of raw samples written to rawData
-  public abstract int decode( byte [] encodedData, short [] rawData, int encodedBytes );
+  public int decode( byte [] encodedData, short [] rawData, int encodedBytes ) {
+    return decode( encodedData, 0, rawData, encodedBytes );
+  }
+
+  //decodes encodedBytes starting at encodedOffset, returns the number of raw samples written to rawData
+  public abstract int decode( byte [] encodedData, int encodedOffset, short [] rawData, int encodedBytes );
 
   //returns the number of encoded bytes written to encodedData
   public abstract int encode( short [] rawData, byte [] encodedData, int rawSamples );
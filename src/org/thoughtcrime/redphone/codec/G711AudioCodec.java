@@ -58,10 +58,10 @@ public class G711AudioCodec extends AudioCodec {
       4092, 8316, 16764 };
 
   @Override
-  public int decode(byte[] encodedData, short[] rawData, int encLen ) {
+  public int decode(byte[] encodedData, int encOffset, short[] rawData, int encLen ) {
     int nBytes = encodedPacketSize();
     for (int i = 0; i < nBytes; i++) {
-      rawData[i] = ulaw2linear(encodedData[i]);
+      rawData[i] = ulaw2linear(encodedData[encOffset + i]);
     }
     return nBytes;
   }
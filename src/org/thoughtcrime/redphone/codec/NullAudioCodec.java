@@ -29,9 +29,9 @@ import org.thoughtcrime.redphone.util.Conversions;
 public class NullAudioCodec extends AudioCodec {
 
   @Override
-  public int decode(byte[] encodedData, short[] rawData, int encLen) {
+  public int decode(byte[] encodedData, int encOffset, short[] rawData, int encLen) {
     for (int i = 0; i < AudioCodec.SAMPLES_PER_FRAME; i++) {
-       rawData[i] = Conversions.byteArrayToShort(encodedData, i * 2);
+       rawData[i] = Conversions.byteArrayToShort(encodedData, encOffset + i * 2);
     }
     return encodedPacketSize();
 
@@ -55,6 +55,8 @@ public class SpeexCodec extends AudioCodec {
     }
   }
 
+  private byte[] sliceBuffer = new byte[0];
+
   public SpeexCodec() {
     loadThread.start();
   }
@@ -68,6 +70,22 @@ public class SpeexCodec extends AudioCodec {
     closeSpeex();
   }
 
+  @Override
+  public int decode(byte[] encodedData, int encOffset, short[] rawData, int encLen) {
+    if (encodedData == null || encOffset == 0) {
+      return decode(encodedData, rawData, encLen);
+    }
+
+    // The native decoder reads from the start of the array, so slices
+    // that begin further in are copied down into a reused buffer first.
+    if (sliceBuffer.length < encLen) {
+      sliceBuffer = new byte[encLen];
+    }
+
+    System.arraycopy(encodedData, encOffset, sliceBuffer, 0, encLen);
+    return decode(sliceBuffer, rawData, encLen);
+  }
+
   @Override
   public native int decode(byte[] encodedData, short[] rawData, int encLen);
 
@@ -22,15 +22,20 @@ import org.thoughtcrime.redphone.network.RtpPacket;
 /**
  * A class representing an SRTP packet.
  *
+ * The packet ends with an authentication tag, which is a full {@link #MAC_SIZE}
+ * byte HMAC-SHA1 unless a shorter tag has been negotiated for the call.
+ *
  * @author Moxie Marlinspike
  *
  */
 
 public class SecureRtpPacket extends RtpPacket {
 
-  private static final int MAC_SIZE = 20;
+  public static final int MAC_SIZE           = 20;
+  public static final int TRUNCATED_MAC_SIZE = 10;
 
   private long logicalSequence;
+  private int  macLength = MAC_SIZE;
 
   public SecureRtpPacket(int payloadLength) {
     super(payloadLength + MAC_SIZE);
@@ -40,31 +45,57 @@ public class SecureRtpPacket extends RtpPacket {
     super(packet.getPacket(), packet.getPacketLength());
   }
 
+  public SecureRtpPacket(byte[] data, int packetLength) {
+    super(data, packetLength);
+  }
+
   public byte[] getMac() {
-    byte[] mac = new byte[MAC_SIZE];
-    System.arraycopy(data, packetLength - MAC_SIZE, mac, 0, mac.length);
+    byte[] mac = new byte[macLength];
+    System.arraycopy(data, getMacOffset(), mac, 0, mac.length);
     return mac;
   }
 
   public void setMac(byte[] mac) {
-    System.arraycopy(mac, 0, this.data, packetLength - MAC_SIZE, mac.length);
+    System.arraycopy(mac, 0, this.data, getMacOffset(), macLength);
+  }
+
+  public int getMacOffset() {
+    return packetLength - macLength;
+  }
+
+  public int getMacLength() {
+    return macLength;
+  }
+
+  /**
+   * Changes the length of the trailing authentication tag, leaving the
+   * payload as it is.
+   */
+  public void setMacLength(int macLength) {
+    this.packetLength += macLength - this.macLength;
+    this.macLength     = macLength;
   }
 
   @Override
   public void setPayload(byte[] data, int length) {
     super.setPayload(data, length);
-    super.packetLength += MAC_SIZE;
+    super.packetLength += macLength;
   }
 
   @Override
   public byte[] getPayload() {
-    int payloadLength = packetLength - HEADER_LENGTH - MAC_SIZE;
+    int payloadLength = packetLength - HEADER_LENGTH - macLength;
     byte[] payload    = new byte[payloadLength];
     System.arraycopy(data, HEADER_LENGTH, payload, 0, payloadLength);
 
     return payload;
   }
 
+  @Override
+  public int getPayloadLength() {
+    return packetLength - HEADER_LENGTH - macLength;
+  }
+
   public long getLogicalSequence() {
     return logicalSequence;
   }
@@ -78,7 +109,7 @@ public class SecureRtpPacket extends RtpPacket {
   }
 
   public int getDataToMacLength() {
-    return packetLength - MAC_SIZE;
+    return packetLength - macLength;
   }
 
 
@@ -32,15 +32,40 @@ import java.io.IOException;
  * Every outgoing packet is encrypted/authenticated, and every incoming
  * packet is verified/decrypted.
  *
+ * The keystream for the next few packets in each direction can be prepared
+ * ahead of time by calling {@link #prefetchOutgoingKeystream()} from the
+ * sending thread and {@link #prefetchIncomingKeystream()} from the receiving
+ * thread while they would otherwise be idle.
+ *
+ * Packets carry a full length HMAC-SHA1 tag unless both sides agreed on a
+ * truncated tag during the handshake, see {@link #setMacLength(int)}.  When
+ * both sides negotiated AES-GCM the keys are set with
+ * {@link #setAeadKeys(byte[], byte[], byte[], byte[])}, and each packet is
+ * sealed or opened in a single pass instead.
+ *
  * @author Moxie Marlinspike
  *
  */
 
 public class SecureRtpSocket {
 
+  private static final int TIMER_SEND_SEQUENCE   = TimeProfiler.registerTimer("SRPS:send:updateSeq");
+  private static final int TIMER_SEND_ENCRYPT    = TimeProfiler.registerTimer("SRPS:send:encrypt");
+  private static final int TIMER_SEND_MAC        = TimeProfiler.registerTimer("SRPS:send:mac");
+  private static final int TIMER_SEND_SEAL       = TimeProfiler.registerTimer("SRPS:send:seal");
+  private static final int TIMER_SEND_SOCKET     = TimeProfiler.registerTimer("SRPS:send:send");
+  private static final int TIMER_RECEIVE_SOCKET  = TimeProfiler.registerTimer("SRPS:recv:receive");
+  private static final int TIMER_RECEIVE_VERIFY  = TimeProfiler.registerTimer("SRPS:recv:verifyMac");
+  private static final int TIMER_RECEIVE_DECRYPT = TimeProfiler.registerTimer("SRPS:recv:decrypt");
+  private static final int TIMER_RECEIVE_OPEN    = TimeProfiler.registerTimer("SRPS:recv:open");
+
+  private static final int OUTGOING_PREFETCH_PACKETS = 4;
+  private static final int INCOMING_PREFETCH_PACKETS = 8;
+
   private SecureStream incomingContext;
   private SecureStream outgoingContext;
   private final RtpSocket socket;
+  private int macLength = SecureRtpPacket.MAC_SIZE;
 
   public SecureRtpSocket(RtpSocket socket) {
     this.socket = socket;
@@ -58,6 +83,21 @@ public class SecureRtpSocket {
     this.outgoingContext = new SecureStream(outgoingCipherKey, outgoingMacKey, outgoingSalt);
   }
 
+  public void setAeadKeys(byte[] incomingKey, byte[] incomingSalt,
+                          byte[] outgoingKey, byte[] outgoingSalt)
+  {
+    this.incomingContext = new SecureStream(incomingKey, incomingSalt);
+    this.outgoingContext = new SecureStream(outgoingKey, outgoingSalt);
+  }
+
+  /**
+   * Sets the length of the authentication tag on every SRTP packet sent and
+   * received from now on.  Must be called before the audio starts.
+   */
+  public void setMacLength(int macLength) {
+    this.macLength = macLength;
+  }
+
   private void initializeStreamContexts() {
     byte[] incomingCipherKey = new byte[16];
     byte[] outgoingCipherKey = new byte[16];
@@ -93,43 +133,83 @@ public class SecureRtpSocket {
     socket.setTimeout(timeoutMillis);
   }
 
-  public void send(SecureRtpPacket packet) throws IOException {
-    TimeProfiler.startBlock("SRPS:send:updateSeq" );
-    outgoingContext.updateSequence(packet);
-    TimeProfiler.stopBlock("SRPS:send:updateSeq" );
-    TimeProfiler.startBlock("SRPS:send:encrypt" );
-    outgoingContext.encrypt(packet);
-    TimeProfiler.stopBlock("SRPS:send:encrypt" );
-    TimeProfiler.startBlock("SRPS:send:mac" );
-    outgoingContext.mac(packet);
-    TimeProfiler.stopBlock("SRPS:send:mac" );
-    TimeProfiler.startBlock("SRPS:send:send" );
-    socket.send(packet);
-    TimeProfiler.stopBlock("SRPS:send:send" );
+  public boolean waitForReadable(long timeoutMillis) throws IOException {
+    return socket.waitForReadable(timeoutMillis);
   }
 
-  public SecureRtpPacket receive() throws IOException {
-    TimeProfiler.startBlock( "SecureRedphoneSocket::receive" );
-    RtpPacket barePacket;
-    barePacket = socket.receive();
-    TimeProfiler.stopBlock( "SecureRedphoneSocket::receive" );
-
-    if (barePacket == null)
-      return null;
+  public int prefetchOutgoingKeystream() {
+    return outgoingContext.prefetchKeystream(OUTGOING_PREFETCH_PACKETS);
+  }
 
-    SecureRtpPacket packet = new SecureRtpPacket(barePacket);
+  public int prefetchIncomingKeystream() {
+    return incomingContext.prefetchKeystream(INCOMING_PREFETCH_PACKETS);
+  }
 
-    TimeProfiler.startBlock( "VerfiyRcvMac" );
-    if (incomingContext.verifyMac(packet)) {
-      TimeProfiler.stopBlock( "VerfiyRcvMac" );
-      incomingContext.updateSequence(packet);
-      TimeProfiler.startBlock( "RecvDecrypt" );
-      incomingContext.decrypt(packet);
-      TimeProfiler.stopBlock( "RecvDecrypt" );
-      return packet;
+  public void send(SecureRtpPacket packet) throws IOException {
+    packet.setMacLength(macLength);
+    TimeProfiler.startBlock(TIMER_SEND_SEQUENCE);
+    outgoingContext.updateSequence(packet);
+    TimeProfiler.stopBlock(TIMER_SEND_SEQUENCE);
+
+    if (outgoingContext.isAead()) {
+      TimeProfiler.startBlock(TIMER_SEND_SEAL);
+      outgoingContext.seal(packet);
+      TimeProfiler.stopBlock(TIMER_SEND_SEAL);
+    } else {
+      TimeProfiler.startBlock(TIMER_SEND_ENCRYPT);
+      outgoingContext.encrypt(packet);
+      TimeProfiler.stopBlock(TIMER_SEND_ENCRYPT);
+      TimeProfiler.startBlock(TIMER_SEND_MAC);
+      outgoingContext.mac(packet);
+      TimeProfiler.stopBlock(TIMER_SEND_MAC);
     }
 
-    Log.w("SecureRedPhoneSocket", "Bad mac on packet...");
-    return null;
+    TimeProfiler.startBlock(TIMER_SEND_SOCKET);
+    socket.send(packet);
+    TimeProfiler.stopBlock(TIMER_SEND_SOCKET);
+  }
+
+  /**
+   * Receives, authenticates and decrypts a packet in place, using the backing
+   * buffer of the provided packet.  Packets that fail authentication are dropped
+   * and the next pending packet, if any, is read in their place.
+   *
+   * @return true if a valid packet was read into the provided packet.
+   */
+  public boolean receive(SecureRtpPacket packet) throws IOException {
+    packet.setMacLength(macLength);
+
+    while (true) {
+      TimeProfiler.startBlock(TIMER_RECEIVE_SOCKET);
+      boolean received = socket.receive(packet);
+      TimeProfiler.stopBlock(TIMER_RECEIVE_SOCKET);
+
+      if (!received)
+        return false;
+
+      if (incomingContext.isAead()) {
+        TimeProfiler.startBlock(TIMER_RECEIVE_OPEN);
+        boolean authentic = incomingContext.open(packet);
+        TimeProfiler.stopBlock(TIMER_RECEIVE_OPEN);
+
+        if (authentic)
+          return true;
+
+        Log.w("SecureRedPhoneSocket", "Bad tag on packet...");
+        continue;
+      }
+
+      TimeProfiler.startBlock(TIMER_RECEIVE_VERIFY);
+      if (incomingContext.verifyMac(packet)) {
+        TimeProfiler.stopBlock(TIMER_RECEIVE_VERIFY);
+        incomingContext.updateSequence(packet);
+        TimeProfiler.startBlock(TIMER_RECEIVE_DECRYPT);
+        incomingContext.decrypt(packet);
+        TimeProfiler.stopBlock(TIMER_RECEIVE_DECRYPT);
+        return true;
+      }
+
+      Log.w("SecureRedPhoneSocket", "Bad mac on packet...");
+    }
   }
 }
@@ -22,6 +22,10 @@ package org.thoughtcrime.redphone.crypto;
  * connection.  There are typically two streams per connection, one for incoming
  * and one for outgoing data.
  *
+ * A stream either encrypts with a {@link StreamCipher} and authenticates with
+ * a {@link StreamMac} in two passes, or does both in one pass with a
+ * {@link StreamAead}, depending on what was negotiated for the call.
+ *
  * @author Moxie Marlinspike
  *
  */
@@ -31,6 +35,7 @@ public class SecureStream {
   private SequenceCounter sequenceCounter;
   private StreamCipher streamCipher;
   private StreamMac streamMac;
+  private StreamAead streamAead;
 
   public SecureStream(byte[] cipherKey, byte[] macKey, byte[] salt) {
     this.sequenceCounter = new SequenceCounter();
@@ -38,6 +43,15 @@ public class SecureStream {
     this.streamMac       = new StreamMac(macKey);
   }
 
+  public SecureStream(byte[] aeadKey, byte[] aeadSalt) {
+    this.sequenceCounter = new SequenceCounter();
+    this.streamAead      = new StreamAead(aeadKey, aeadSalt);
+  }
+
+  public boolean isAead() {
+    return streamAead != null;
+  }
+
   public void encrypt(SecureRtpPacket packet) {
     streamCipher.encrypt(packet);
   }
@@ -58,4 +72,27 @@ public class SecureStream {
     sequenceCounter.updateSequence(packet);
   }
 
+  public void seal(SecureRtpPacket packet) {
+    streamAead.seal(packet);
+  }
+
+  /**
+   * Authenticates and decrypts an incoming packet.  The sequence counter only
+   * advances once the packet has been found authentic.
+   */
+  public boolean open(SecureRtpPacket packet) {
+    sequenceCounter.estimateSequence(packet);
+
+    if (!streamAead.open(packet))
+      return false;
+
+    sequenceCounter.acceptSequence(packet);
+    return true;
+  }
+
+  public int prefetchKeystream(int packets) {
+    if (isAead()) return 0;
+    return streamCipher.prefetch(packets);
+  }
+
 }
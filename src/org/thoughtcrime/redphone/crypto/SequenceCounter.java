@@ -36,4 +36,17 @@ public class SequenceCounter {
   public void updateSequence(SecureRtpPacket packet) {
     packet.setLogicalSequence(convertNext((short)packet.getSequenceNumber()));
   }
+
+  /**
+   * Sets the packet's logical sequence without advancing the counter, for packets
+   * that haven't been authenticated yet.  See {@link #acceptSequence(SecureRtpPacket)}.
+   */
+  public void estimateSequence(SecureRtpPacket packet) {
+    short smallestDeltaToCongruentId = (short)((short)packet.getSequenceNumber() - curLongId);
+    packet.setLogicalSequence(curLongId + smallestDeltaToCongruentId);
+  }
+
+  public void acceptSequence(SecureRtpPacket packet) {
+    curLongId = packet.getLogicalSequence();
+  }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.crypto;
+
+import org.spongycastle.crypto.engines.AESFastEngine;
+import org.spongycastle.crypto.modes.gcm.GCMMultiplier;
+import org.spongycastle.crypto.modes.gcm.Tables8kGCMMultiplier;
+import org.spongycastle.crypto.params.KeyParameter;
+
+/**
+ * A StreamAead encrypts and authenticates a stream of SRTP packets in a
+ * single pass with AES-GCM, as an alternative to a {@link StreamCipher}
+ * and {@link StreamMac} pair.
+ *
+ * The RTP header is authenticated as associated data, and the payload is
+ * encrypted in place and followed by a {@link #TAG_LENGTH} byte tag.  As in
+ * RFC 7714, the 96 bit nonce is the salt XORed with the SSRC and the
+ * packet's logical sequence number.
+ *
+ * GCM is assembled here from a block cipher and a GHASH multiplier that are
+ * keyed once per stream, rather than with GCMBlockCipher, which re-keys AES
+ * and rebuilds its multiplication tables each time it is given a new nonce.
+ */
+
+public class StreamAead {
+
+  public  static final int TAG_LENGTH    = 16;
+  public  static final int SALT_LENGTH   = 12;
+  private static final int NONCE_LENGTH  = 12;
+  private static final int HEADER_LENGTH = 12;
+  private static final int BLOCK_SIZE    = 16;
+
+  private final AESFastEngine cipher     = new AESFastEngine();
+  private final GCMMultiplier multiplier = new Tables8kGCMMultiplier();
+  private final byte[]        salt;
+
+  private final byte[] counter   = new byte[BLOCK_SIZE];
+  private final byte[] keystream = new byte[BLOCK_SIZE];
+  private final byte[] hash      = new byte[BLOCK_SIZE];
+  private final byte[] tagMask   = new byte[BLOCK_SIZE];
+
+  public StreamAead(byte[] key, byte[] salt) {
+    if (salt.length != SALT_LENGTH)
+      throw new IllegalArgumentException("Bad salt length: " + salt.length);
+
+    this.salt = salt;
+
+    byte[] hashKey = new byte[BLOCK_SIZE];
+    cipher.init(true, new KeyParameter(key));
+    cipher.processBlock(hashKey, 0, hashKey, 0);
+    multiplier.init(hashKey);
+  }
+
+  public void seal(SecureRtpPacket packet) {
+    byte[] data   = packet.getPacket();
+    int    offset = packet.getPayloadOffset();
+    int    length = packet.getPayloadLength();
+
+    initialize(packet);
+    transform(true, data, offset, length);
+    computeTag(length);
+
+    System.arraycopy(hash, 0, data, offset + length, TAG_LENGTH);
+  }
+
+  /**
+   * Authenticates and decrypts a packet in place.
+   *
+   * @return true if the packet is authentic, false if it was forged or damaged,
+   * in which case its payload is garbage.
+   */
+  public boolean open(SecureRtpPacket packet) {
+    byte[] data   = packet.getPacket();
+    int    offset = packet.getPayloadOffset();
+    int    length = packet.getPayloadLength();
+
+    if (length < 0 || packet.getMacLength() != TAG_LENGTH)
+      return false;
+
+    initialize(packet);
+    transform(false, data, offset, length);
+    computeTag(length);
+
+    int difference = 0;
+
+    for (int i = 0; i < TAG_LENGTH; i++)
+      difference |= hash[i] ^ data[offset + length + i];
+
+    return difference == 0;
+  }
+
+  private void initialize(SecureRtpPacket packet) {
+    long ssrc            = packet.getSSRC();
+    long logicalSequence = packet.getLogicalSequence();
+
+    System.arraycopy(salt, 0, counter, 0, NONCE_LENGTH);
+
+    counter[2]  ^= (byte)(ssrc >> 24);
+    counter[3]  ^= (byte)(ssrc >> 16);
+    counter[4]  ^= (byte)(ssrc >> 8);
+    counter[5]  ^= (byte)(ssrc);
+    counter[6]  ^= (byte)(logicalSequence >> 40);
+    counter[7]  ^= (byte)(logicalSequence >> 32);
+    counter[8]  ^= (byte)(logicalSequence >> 24);
+    counter[9]  ^= (byte)(logicalSequence >> 16);
+    counter[10] ^= (byte)(logicalSequence >> 8);
+    counter[11] ^= (byte)(logicalSequence);
+    counter[12]  = 0;
+    counter[13]  = 0;
+    counter[14]  = 0;
+    counter[15]  = 1;
+
+    cipher.processBlock(counter, 0, tagMask, 0);
+
+    for (int i = 0; i < BLOCK_SIZE; i++)
+      hash[i] = 0;
+
+    absorb(packet.getPacket(), 0, HEADER_LENGTH);
+  }
+
+  private void transform(boolean forEncryption, byte[] data, int offset, int length) {
+    for (int blockOffset = 0; blockOffset < length; blockOffset += BLOCK_SIZE) {
+      int blockLength = Math.min(BLOCK_SIZE, length - blockOffset);
+      int position    = offset + blockOffset;
+
+      incrementCounter();
+      cipher.processBlock(counter, 0, keystream, 0);
+
+      if (!forEncryption)
+        absorb(data, position, blockLength);
+
+      for (int i = 0; i < blockLength; i++)
+        data[position + i] ^= keystream[i];
+
+      if (forEncryption)
+        absorb(data, position, blockLength);
+    }
+  }
+
+  private void computeTag(int length) {
+    long headerBits  = HEADER_LENGTH * 8L;
+    long payloadBits = length * 8L;
+
+    for (int i = 0; i < 8; i++) {
+      hash[i]     ^= (byte)(headerBits  >> (56 - 8 * i));
+      hash[8 + i] ^= (byte)(payloadBits >> (56 - 8 * i));
+    }
+
+    multiplier.multiplyH(hash);
+
+    for (int i = 0; i < BLOCK_SIZE; i++)
+      hash[i] ^= tagMask[i];
+  }
+
+  private void absorb(byte[] data, int offset, int length) {
+    for (int i = 0; i < length; i++)
+      hash[i] ^= data[offset + i];
+
+    multiplier.multiplyH(hash);
+  }
+
+  private void incrementCounter() {
+    for (int i = BLOCK_SIZE - 1; i >= NONCE_LENGTH; i--) {
+      if (++counter[i] != 0)
+        break;
+    }
+  }
+
+}
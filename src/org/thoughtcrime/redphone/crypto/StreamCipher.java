@@ -17,121 +17,218 @@
 
 package org.thoughtcrime.redphone.crypto;
 
-import org.thoughtcrime.redphone.profiling.ProfilingTimer;
 import org.thoughtcrime.redphone.profiling.TimeProfiler;
 
-import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
  * A StreamCipher handles the block cipher operations for
  * a stream of SRTP data.
  *
+ * Payloads are encrypted with AES in counter mode, starting from a counter
+ * derived from the salt, the SSRC and the packet's logical sequence number.
+ * The keystream is generated by running the counter blocks through a single
+ * AES/ECB cipher that is initialized once, and is XORed into the packet's
+ * backing array in place, so no per-packet objects are allocated.  The output
+ * is identical to initializing AES/CTR/NoPadding with the same counter.
+ *
+ * Since the counter only depends on the SSRC and sequence number, the keystream
+ * for the packets that will follow the last one seen can be generated before
+ * they exist.  {@link #prefetch(int)} fills a small ring of keystreams during
+ * idle time, and a packet whose keystream is waiting there is encrypted or
+ * decrypted with nothing more than an XOR.  Prefetching must happen on the
+ * thread that uses the cipher.
+ *
  * @author Moxie Marlinspike
  *
  */
 
 public class StreamCipher {
+  private static final int TIMER_ENCRYPT  = TimeProfiler.registerTimer("SC:encrypt");
+  private static final int TIMER_DECRYPT  = TimeProfiler.registerTimer("SC:decrypt");
+  private static final int TIMER_PREFETCH = TimeProfiler.registerTimer("SC:prefetch");
+
+  private static final int BLOCK_SIZE            = 16;
+  private static final int INITIAL_BUFFER_LENGTH = 2048;
+  private static final int PREFETCH_SLOTS        = 16;
+  private static final int PREFETCH_LENGTH       = 256;
+
   private final Cipher cipher;
-  private final Key secret;
   private final byte[] salt;
+  private final byte[] counter = new byte[BLOCK_SIZE];
+
+  private byte[] counterBlocks = new byte[INITIAL_BUFFER_LENGTH];
+  private byte[] keystream     = new byte[INITIAL_BUFFER_LENGTH];
+
+  private final byte[][]  prefetched         = new byte[PREFETCH_SLOTS][PREFETCH_LENGTH];
+  private final long[]    prefetchedSequence = new long[PREFETCH_SLOTS];
+  private final long[]    prefetchedSsrc     = new long[PREFETCH_SLOTS];
+  private final boolean[] prefetchedValid    = new boolean[PREFETCH_SLOTS];
+
+  private boolean sequenceKnown = false;
+  private long    lastSsrc;
+  private long    lastSequence;
 
   public StreamCipher(byte[] secret, byte[] salt) {
     try {
-      this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      this.secret = new SecretKeySpec(secret, 0, secret.length, "AES");
+      Key key     = new SecretKeySpec(secret, 0, secret.length, "AES");
+      this.cipher = Cipher.getInstance("AES/ECB/NoPadding");
       this.salt   = salt;
+      this.cipher.init(Cipher.ENCRYPT_MODE, key);
     } catch (NoSuchPaddingException nspe) {
       throw new IllegalArgumentException(nspe);
     } catch (NoSuchAlgorithmException e) {
       throw new IllegalArgumentException(e);
+    } catch (InvalidKeyException e) {
+      throw new IllegalArgumentException("Invaid Key?");
     }
-
   }
 
   public void encrypt(SecureRtpPacket packet) {
-    try {
-      TimeProfiler.startBlock("SC:enc:gCypher" );
-      Cipher cipher = getCipher(Cipher.ENCRYPT_MODE, packet);
-      TimeProfiler.stopBlock("SC:enc:gCypher" );
-      TimeProfiler.startBlock("SC:enc:setPayLoad" );
-      packet.setPayload(cipher.doFinal(packet.getPayload()));
-      TimeProfiler.stopBlock("SC:enc:setPayLoad" );
-    } catch (IllegalBlockSizeException e) {
-      throw new IllegalArgumentException(e);
-    } catch (BadPaddingException e) {
-      throw new IllegalArgumentException(e);
-    }
+    TimeProfiler.startBlock(TIMER_ENCRYPT);
+    transform(packet);
+    TimeProfiler.stopBlock(TIMER_ENCRYPT);
   }
 
   public void decrypt(SecureRtpPacket packet) {
-    try {
-      TimeProfiler.startBlock("SC:dec:gCypher" );
-      Cipher cipher = getCipher(Cipher.DECRYPT_MODE, packet);
-      TimeProfiler.stopBlock("SC:dec:gCypher" );
-      TimeProfiler.startBlock("SC:dec:setPayl" );
-      packet.setPayload(cipher.doFinal(packet.getPayload()));
-      TimeProfiler.stopBlock("SC:dec:setPayl" );
-    } catch (IllegalBlockSizeException e) {
-      throw new IllegalArgumentException(e);
-    } catch (BadPaddingException e) {
-      throw new IllegalArgumentException(e);
+    TimeProfiler.startBlock(TIMER_DECRYPT);
+    transform(packet);
+    TimeProfiler.stopBlock(TIMER_DECRYPT);
+  }
+
+  /**
+   * Generates the keystream for the packets following the highest sequence number seen so
+   * far, unless it is already waiting.
+   *
+   * @param packets how many sequence numbers ahead to prepare, at most the size of the ring.
+   * @return the number of keystreams generated.
+   */
+  public int prefetch(int packets) {
+    if (!sequenceKnown) return 0;
+
+    int generated = 0;
+
+    TimeProfiler.startBlock(TIMER_PREFETCH);
+
+    for (long sequence = lastSequence + 1;
+         sequence <= lastSequence + Math.min(packets, PREFETCH_SLOTS);
+         sequence++)
+    {
+      int slot = slot(sequence);
+
+      if (isPrefetched(slot, lastSsrc, sequence))
+        continue;
+
+      setCounterForSequence(lastSsrc, sequence);
+      generateKeystream(PREFETCH_LENGTH, prefetched[slot]);
+
+      prefetchedSequence[slot] = sequence;
+      prefetchedSsrc[slot]     = lastSsrc;
+      prefetchedValid[slot]    = true;
+      generated++;
     }
+
+    TimeProfiler.stopBlock(TIMER_PREFETCH);
+
+    return generated;
   }
 
+  private void transform(SecureRtpPacket packet) {
+    byte[] data     = packet.getPacket();
+    int    offset   = packet.getPayloadOffset();
+    int    length   = packet.getPayloadLength();
+    long   ssrc     = packet.getSSRC();
+    long   sequence = packet.getLogicalSequence();
+    int    slot     = slot(sequence);
+    byte[] stream;
+
+    if (length <= PREFETCH_LENGTH && isPrefetched(slot, ssrc, sequence)) {
+      stream                = prefetched[slot];
+      prefetchedValid[slot] = false;
+    } else {
+      setCounterForSequence(ssrc, sequence);
+      generateKeystream(length, keystream);
+      stream = keystream;
+    }
 
-  private byte[] getIvForSequence(SecureRtpPacket packet) {
-    long logicalSequence = packet.getLogicalSequence();
-    long ssrc            = packet.getSSRC();
-    byte[] iv            = new byte[16];
+    for (int i = 0; i < length; i++) {
+      data[offset + i] ^= stream[i];
+    }
 
-    System.arraycopy(this.salt, 0, iv, 0, this.salt.length);
+    if (!sequenceKnown || ssrc != lastSsrc || sequence > lastSequence) {
+      lastSsrc      = ssrc;
+      lastSequence  = sequence;
+      sequenceKnown = true;
+    }
+  }
 
-    iv[6]   ^= (byte)(ssrc >> 8);
-    iv[7]   ^= (byte)(ssrc);
-    iv[8]   ^= (byte)(logicalSequence >> 40);
-    iv[9]   ^= (byte)(logicalSequence >> 32);
-    iv[10]  ^= (byte)(logicalSequence >> 24);
-    iv[11]  ^= (byte)(logicalSequence >> 16);
-    iv[12]  ^= (byte)(logicalSequence >> 8);
-    iv[13]  ^= (byte)(logicalSequence);
+  private boolean isPrefetched(int slot, long ssrc, long sequence) {
+    return prefetchedValid[slot]               &&
+           prefetchedSequence[slot] == sequence &&
+           prefetchedSsrc[slot]     == ssrc;
+  }
 
-    return iv;
+  private int slot(long sequence) {
+    return (int)sequence & (PREFETCH_SLOTS - 1);
   }
 
-  ProfilingTimer cgiT = new ProfilingTimer( "getCipher::getInstance" );
-  ProfilingTimer ivbT = new ProfilingTimer( "getCipher::getIvForSequence");
-  ProfilingTimer ivpT = new ProfilingTimer( "getCipher::IvParameterSpec" );
-  ProfilingTimer cinT = new ProfilingTimer( "getCipher::init");
+  private void setCounterForSequence(long ssrc, long logicalSequence) {
+    for (int i = 0; i < counter.length; i++) {
+      counter[i] = 0;
+    }
+
+    System.arraycopy(this.salt, 0, counter, 0, this.salt.length);
+
+    counter[6]   ^= (byte)(ssrc >> 8);
+    counter[7]   ^= (byte)(ssrc);
+    counter[8]   ^= (byte)(logicalSequence >> 40);
+    counter[9]   ^= (byte)(logicalSequence >> 32);
+    counter[10]  ^= (byte)(logicalSequence >> 24);
+    counter[11]  ^= (byte)(logicalSequence >> 16);
+    counter[12]  ^= (byte)(logicalSequence >> 8);
+    counter[13]  ^= (byte)(logicalSequence);
+  }
+
+  /**
+   * Fills the output with at least length bytes of keystream, starting at the current counter.
+   * The output must be long enough to hold length rounded up to a whole block, except for the
+   * reusable keystream buffer which grows as needed.
+   */
+  private void generateKeystream(int length, byte[] output) {
+    int blocksLength = ((length + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+
+    if (blocksLength > counterBlocks.length) {
+      counterBlocks = new byte[blocksLength];
+    }
+
+    if (output == keystream && blocksLength > keystream.length) {
+      keystream = new byte[blocksLength];
+      output    = keystream;
+    }
+
+    for (int offset = 0; offset < blocksLength; offset += BLOCK_SIZE) {
+      System.arraycopy(counter, 0, counterBlocks, offset, BLOCK_SIZE);
+      incrementCounter();
+    }
 
-  private Cipher getCipher(int mode, SecureRtpPacket packet)  {
     try {
-      ivbT.start();
-      byte[] ivBytes     = getIvForSequence(packet);
-      ivbT.stop();
-      ivpT.start();
-      IvParameterSpec iv = new IvParameterSpec(ivBytes);
-      ivpT.stop();
-      cinT.start();
-      cipher.init(mode, secret, iv);
-      cinT.stop();
-
-      return cipher;
-    } catch (InvalidKeyException e) {
-      throw new IllegalArgumentException("Invaid Key?");
-    } catch (InvalidAlgorithmParameterException e) {
-      throw new IllegalArgumentException("Bad IV?");
+      cipher.update(counterBlocks, 0, blocksLength, output, 0);
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
     }
   }
 
+  private void incrementCounter() {
+    for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+      if (++counter[i] != 0) break;
+    }
+  }
 
 }
@@ -19,28 +19,35 @@ package org.thoughtcrime.redphone.crypto;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
  * A StreamMac handles the authentication (Hmac) operations
  * for a stream of SRTP packets.
  *
+ * The HMAC is computed into a buffer that is reused for every packet, and
+ * written to or compared against the packet's tag in place, so no per-packet
+ * objects are allocated.  Only as many bytes as the packet's tag length are
+ * used, which allows truncated tags.  Tags are compared in constant time.
+ *
  * @author Moxie Marlinspike
  *
  */
 
 public class StreamMac {
 
-  private final Mac mac;
+  private final Mac    mac;
+  private final byte[] macBuffer;
 
   public StreamMac(byte[] macKey) {
     try {
       SecretKeySpec key = new SecretKeySpec(macKey, "HmacSHA1");
       this.mac          = Mac.getInstance("HmacSHA1");
       this.mac.init(key);
+      this.macBuffer    = new byte[mac.getMacLength()];
     } catch (NoSuchAlgorithmException nsae) {
       throw new IllegalArgumentException(nsae);
     } catch (InvalidKeyException e) {
@@ -49,20 +56,39 @@ public class StreamMac {
   }
 
   public boolean verifyPacket(SecureRtpPacket packet) {
-    byte[] myMacBytes    = getMacForPacket(packet);
-    byte[] theirMacBytes = packet.getMac();
+    if (packet.getPayloadLength() < 0)
+      return false;
+
+    calculateMac(packet);
+
+    byte[] data       = packet.getPacket();
+    int    macOffset  = packet.getMacOffset();
+    int    macLength  = packet.getMacLength();
+    int    difference = 0;
+
+    for (int i = 0; i < macLength; i++) {
+      difference |= macBuffer[i] ^ data[macOffset + i];
+    }
 
-    return Arrays.equals(myMacBytes, theirMacBytes);
+    return difference == 0;
   }
 
   public void macPacket(SecureRtpPacket packet) {
-    byte[] macBytes = getMacForPacket(packet);
-    packet.setMac(macBytes);
+    calculateMac(packet);
+    System.arraycopy(macBuffer, 0, packet.getPacket(), packet.getMacOffset(), packet.getMacLength());
   }
 
-  private byte[] getMacForPacket(SecureRtpPacket packet) {
-      mac.update(packet.getDataToMac(), 0, packet.getDataToMacLength());
-      return mac.doFinal();
+  private void calculateMac(SecureRtpPacket packet) {
+    if (packet.getMacLength() > macBuffer.length)
+      throw new IllegalArgumentException("Tag longer than MAC: " + packet.getMacLength());
+
+    mac.update(packet.getDataToMac(), 0, packet.getDataToMacLength());
+
+    try {
+      mac.doFinal(macBuffer, 0);
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
+    }
   }
 
 }
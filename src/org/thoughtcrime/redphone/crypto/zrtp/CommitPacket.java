@@ -21,19 +21,30 @@ import org.thoughtcrime.redphone.network.RtpPacket;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Arrays;
 
 /**
  * ZRTP handshake 'Commit' packet.
  *
+ * A DH Commit carries 'hvi', the initiator's commitment to its DHPart2.  A
+ * Preshared Commit instead carries a fresh nonce and the 'keyID' derived
+ * from the initiator's retained secret, and is 8 bytes shorter.
+ *
+ * http://tools.ietf.org/html/rfc6189#section-5.4
+ *
  * @author Moxie Marlinspike
  *
  */
 
 public class CommitPacket extends HandshakePacket {
 
-  public  static final String TYPE          = "Commit  ";
-  private static final int    COMMIT_LENGTH = 116;
+  public  static final String TYPE                    = "Commit  ";
+  private static final int    COMMIT_LENGTH           = 116;
+  private static final int    PRESHARED_COMMIT_LENGTH = 108;
+
+  private static final int    NONCE_LENGTH            = 16;
+  public  static final int    KEY_ID_LENGTH           = 8;
 
   private static final int LENGTH_OFFSET    = MESSAGE_BASE + 2;
   private static final int HASH_OFFSET      = MESSAGE_BASE + 12;
@@ -46,6 +57,12 @@ public class CommitPacket extends HandshakePacket {
   private static final int HVI_OFFSET       = MESSAGE_BASE + 76;
   private static final int MAC_OFFSET       = MESSAGE_BASE + 108;
 
+  private static final int NONCE_OFFSET         = MESSAGE_BASE + 76;
+  private static final int KEY_ID_OFFSET        = MESSAGE_BASE + 92;
+  private static final int PRESHARED_MAC_OFFSET = MESSAGE_BASE + 100;
+
+  private static final byte[] PRESHARED_SPEC = HelloPacket.KEY_AGREEMENT_PRESHARED.getBytes();
+
   private static final byte[] HASH_SPEC      = {'S', '2', '5', '6'};
   private static final byte[] CIPHER_SPEC    = {'A', 'E', 'S', '1'};
   private static final byte[] AUTH_SPEC      = {'H', 'S', '8', '0'};
@@ -71,6 +88,29 @@ public class CommitPacket extends HandshakePacket {
     setMac(hashChain.getH1(), MAC_OFFSET, COMMIT_LENGTH - 8);
   }
 
+  public CommitPacket(HashChain hashChain, byte[] zid, byte[] keyId) {
+    super(TYPE, PRESHARED_COMMIT_LENGTH);
+    setHash(hashChain.getH2());
+    setZID(zid);
+    setSpec(PRESHARED_SPEC);
+    setNonce();
+    System.arraycopy(keyId, 0, this.data, KEY_ID_OFFSET, KEY_ID_LENGTH);
+    setMac(hashChain.getH1(), PRESHARED_MAC_OFFSET, PRESHARED_COMMIT_LENGTH - 8);
+  }
+
+  public boolean isPreshared() {
+    return Arrays.equals(getKeyAgreementType(), PRESHARED_SPEC);
+  }
+
+  public byte[] getKeyId() throws InvalidPacketException {
+    if (this.getPacketLength() < PRESHARED_MAC_OFFSET + 8)
+      throw new InvalidPacketException("Commit packet too short.");
+
+    byte[] keyId = new byte[KEY_ID_LENGTH];
+    System.arraycopy(this.data, KEY_ID_OFFSET, keyId, 0, keyId.length);
+    return keyId;
+  }
+
   public byte[] getHvi() {
     byte[] hvi = new byte[32];
     System.arraycopy(this.data, HVI_OFFSET, hvi, 0, hvi.length);
@@ -92,7 +132,8 @@ public class CommitPacket extends HandshakePacket {
   }
 
   public void verifyMac(byte[] key) throws InvalidPacketException {
-    super.verifyMac(key, MAC_OFFSET, COMMIT_LENGTH - 8, getHash());
+    if (isPreshared()) super.verifyMac(key, PRESHARED_MAC_OFFSET, PRESHARED_COMMIT_LENGTH - 8, getHash());
+    else               super.verifyMac(key, MAC_OFFSET, COMMIT_LENGTH - 8, getHash());
   }
 
   private void setHash(byte[] hash) {
@@ -123,6 +164,16 @@ public class CommitPacket extends HandshakePacket {
     }
   }
 
+  private void setNonce() {
+    try {
+      byte[] nonce = new byte[NONCE_LENGTH];
+      SecureRandom.getInstance("SHA1PRNG").nextBytes(nonce);
+      System.arraycopy(nonce, 0, this.data, NONCE_OFFSET, nonce.length);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
   private void setHvi(byte[] hvi) {
     System.arraycopy(hvi, 0, this.data, HVI_OFFSET, hvi.length);
   }
@@ -34,7 +34,7 @@ import java.security.SecureRandom;
 public abstract class DHPacket extends HandshakePacket {
 
   /**
-   * We switch on these two KA types in several places below. This
+   * We switch on these KA types in several places below. This
    * is really unfortunate, particularly because we have distinct
    * sub-classes for the various KA types, so it stands to reason that
    * we should be able to isolate KA functionality to each KA type.
@@ -47,9 +47,11 @@ public abstract class DHPacket extends HandshakePacket {
 
   protected static final int DH3K_AGREEMENT_TYPE = 1;
   protected static final int EC25_AGREEMENT_TYPE = 2;
+  protected static final int X255_AGREEMENT_TYPE = 3;
 
   protected static final int DH3K_DH_LENGTH = 468;
   protected static final int EC25_DH_LENGTH = 148;
+  protected static final int X255_DH_LENGTH = 116;
 
   private static final int LENGTH_OFFSET   = MESSAGE_BASE + 2;
   private static final int HASH_OFFSET     = MESSAGE_BASE + 12;
@@ -60,6 +62,7 @@ public abstract class DHPacket extends HandshakePacket {
   private static final int PVR_OFFSET      = MESSAGE_BASE + 76;
   private static final int DH3K_MAC_OFFSET = PVR_OFFSET + 384;
   private static final int EC25_MAC_OFFSET = PVR_OFFSET + 64;
+  private static final int X255_MAC_OFFSET = PVR_OFFSET + 32;
 
   private final int agreementType;
 
@@ -74,7 +77,7 @@ public abstract class DHPacket extends HandshakePacket {
   }
 
   public DHPacket(String typeTag, int agreementType, HashChain hashChain, byte[] pvr, RetainedSecretsDerivatives retainedSecrets) {
-    super(typeTag, agreementType == DH3K_AGREEMENT_TYPE ? DH3K_DH_LENGTH : EC25_DH_LENGTH);
+    super(typeTag, getDHLength(agreementType));
 
     setHash(hashChain.getH1());
     setState(retainedSecrets);
@@ -87,6 +90,9 @@ public abstract class DHPacket extends HandshakePacket {
     case EC25_AGREEMENT_TYPE:
       setMac(hashChain.getH0(), EC25_MAC_OFFSET, EC25_DH_LENGTH - 8);
       break;
+    case X255_AGREEMENT_TYPE:
+      setMac(hashChain.getH0(), X255_MAC_OFFSET, X255_DH_LENGTH - 8);
+      break;
     default:
       throw new AssertionError("Bad agreement type: " + agreementType);
     }
@@ -104,6 +110,10 @@ public abstract class DHPacket extends HandshakePacket {
       byte[] ec25_pvr = new byte[64];
       System.arraycopy(this.data, PVR_OFFSET, ec25_pvr, 0, ec25_pvr.length);
       return ec25_pvr;
+    case X255_AGREEMENT_TYPE:
+      byte[] x255_pvr = new byte[32];
+      System.arraycopy(this.data, PVR_OFFSET, x255_pvr, 0, x255_pvr.length);
+      return x255_pvr;
     default:
       throw new AssertionError("Bad agreement type: " + agreementType);
     }
@@ -135,11 +145,23 @@ public abstract class DHPacket extends HandshakePacket {
     case EC25_AGREEMENT_TYPE:
       super.verifyMac(key, EC25_MAC_OFFSET, EC25_DH_LENGTH-8, getHash());
       return;
+    case X255_AGREEMENT_TYPE:
+      super.verifyMac(key, X255_MAC_OFFSET, X255_DH_LENGTH-8, getHash());
+      return;
     default:
       throw new AssertionError("Bad agreement type: " + agreementType);
     }
   }
 
+  private static int getDHLength(int agreementType) {
+    switch (agreementType) {
+    case DH3K_AGREEMENT_TYPE: return DH3K_DH_LENGTH;
+    case EC25_AGREEMENT_TYPE: return EC25_DH_LENGTH;
+    case X255_AGREEMENT_TYPE: return X255_DH_LENGTH;
+    default:                  throw new AssertionError("Bad agreement type: " + agreementType);
+    }
+  }
+
   private void setHash(byte[] hash) {
     System.arraycopy(hash, 0, this.data, HASH_OFFSET, hash.length);
   }
@@ -20,17 +20,22 @@ package org.thoughtcrime.redphone.crypto.zrtp;
 import android.util.Log;
 
 import org.spongycastle.jce.ECNamedCurveTable;
+import org.spongycastle.jce.interfaces.ECPublicKey;
 import org.spongycastle.jce.spec.ECParameterSpec;
 import org.spongycastle.jce.spec.ECPublicKeySpec;
 import org.spongycastle.math.ec.ECPoint;
 import org.thoughtcrime.redphone.util.Conversions;
 
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PublicKey;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
 import java.security.spec.InvalidKeySpecException;
 
 import javax.crypto.KeyAgreement;
@@ -44,6 +49,41 @@ import javax.crypto.KeyAgreement;
 
 public class EC25SecretCalculator extends SecretCalculator {
 
+  static {
+    Security.addProvider(new org.spongycastle.jce.provider.BouncyCastleProvider());
+  }
+
+  @Override
+  public KeyPair generateKeyPair() {
+    try {
+      KeyPairGenerator kg       = KeyPairGenerator.getInstance("ECDH", "SC");
+      ECGenParameterSpec ecSpec = new ECGenParameterSpec("secp256r1");
+      kg.initialize(ecSpec);
+
+      return kg.generateKeyPair();
+    } catch (InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new AssertionError(nsae);
+    } catch (NoSuchProviderException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override
+  public byte[] getPublicKeyBytes(KeyPair keyPair) {
+    ECPublicKey publicKey = (ECPublicKey)keyPair.getPublic();
+    ECPoint q             = publicKey.getQ();
+
+    byte[] x = new byte[32];
+    byte[] y = new byte[32];
+
+    Conversions.bigIntegerToByteArray(x, q.getX().toBigInteger());
+    Conversions.bigIntegerToByteArray(y, q.getY().toBigInteger());
+
+    return Conversions.combine(x, y);
+  }
+
   @Override
   public byte[] calculateKeyAgreement(KeyPair localKey, byte[] publicKeyBytes) {
     Log.w("EC25SecretCalculator", "Calculating EC25 Secret...");
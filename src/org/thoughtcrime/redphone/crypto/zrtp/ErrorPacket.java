@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.crypto.zrtp;
+
+import org.thoughtcrime.redphone.network.RtpPacket;
+import org.thoughtcrime.redphone.util.Conversions;
+
+/**
+ * ZRTP 'Error' handshake packet.
+ *
+ * http://tools.ietf.org/html/rfc6189#section-5.9
+ *
+ * The only error we send is {@link #NO_SHARED_SECRET}, when a Preshared
+ * commit can't be keyed from our retained secret and the initiator needs
+ * to commit to a full key agreement instead.
+ */
+
+public class ErrorPacket extends HandshakePacket {
+
+  public  static final String TYPE             = "Error   ";
+  public  static final int    NO_SHARED_SECRET = 0x56;
+
+  private static final int ERROR_LENGTH      = 16;
+  private static final int ERROR_CODE_OFFSET = MESSAGE_BASE + 12;
+
+  public ErrorPacket(RtpPacket packet) {
+    super(packet);
+  }
+
+  public ErrorPacket(int errorCode) {
+    super(TYPE, ERROR_LENGTH);
+    Conversions.longTo4ByteArray(this.data, ERROR_CODE_OFFSET, errorCode);
+  }
+
+  public int getErrorCode() throws InvalidPacketException {
+    if (this.getPacketLength() < ERROR_CODE_OFFSET + 4)
+      throw new InvalidPacketException("Error packet too short.");
+
+    return (int)Conversions.byteArray4ToLong(this.data, ERROR_CODE_OFFSET);
+  }
+}
@@ -38,6 +38,9 @@ import javax.crypto.spec.SecretKeySpec;
  * Base ZRTP handshake packet, from which all
  * handshake packets derive.
  *
+ * Received packets are identified by {@link #getMessageType()}, which maps
+ * the eight byte type block to one of the MESSAGE_ constants without
+ * decoding it to a String.
  *
  * @author Moxie Marlinspike
  *
@@ -58,6 +61,30 @@ public class HandshakePacket extends RtpPacket {
 
   private static final int ZRTP_HEADERS_AND_FOOTER_LENGTH = 16;
 
+  public static final int MESSAGE_UNKNOWN       = -1;
+  public static final int MESSAGE_HELLO         = 0;
+  public static final int MESSAGE_HELLO_ACK     = 1;
+  public static final int MESSAGE_COMMIT        = 2;
+  public static final int MESSAGE_DH_PART_ONE   = 3;
+  public static final int MESSAGE_DH_PART_TWO   = 4;
+  public static final int MESSAGE_CONFIRM_ONE   = 5;
+  public static final int MESSAGE_CONFIRM_TWO   = 6;
+  public static final int MESSAGE_CONFIRM_ACK   = 7;
+  public static final int MESSAGE_ERROR         = 8;
+
+  // Indexed by MESSAGE_ constant.
+  private static final long[] MESSAGE_TYPE_BLOCKS = {
+    getTypeBlock(HelloPacket.TYPE),
+    getTypeBlock(HelloAckPacket.TYPE),
+    getTypeBlock(CommitPacket.TYPE),
+    getTypeBlock(DHPartOnePacket.TYPE),
+    getTypeBlock(DHPartTwoPacket.TYPE),
+    getTypeBlock(ConfirmOnePacket.TYPE),
+    getTypeBlock(ConfirmTwoPacket.TYPE),
+    getTypeBlock(ConfAckPacket.TYPE),
+    getTypeBlock(ErrorPacket.TYPE)
+  };
+
   public HandshakePacket(RtpPacket packet) {
     super(packet.getPacket(), packet.getPacketLength());
   }
@@ -179,6 +206,32 @@ public class HandshakePacket extends RtpPacket {
     }
   }
 
+  /**
+   * @return the MESSAGE_ constant for this packet's type, or {@link #MESSAGE_UNKNOWN}.
+   */
+  public int getMessageType() {
+    if (this.getPacketLength() < TYPE_OFFSET + 8)
+      return MESSAGE_UNKNOWN;
+
+    long typeBlock = Conversions.byteArrayToLong(this.data, TYPE_OFFSET);
+
+    for (int i=0;i<MESSAGE_TYPE_BLOCKS.length;i++) {
+      if (MESSAGE_TYPE_BLOCKS[i] == typeBlock)
+        return i;
+    }
+
+    return MESSAGE_UNKNOWN;
+  }
+
+  private static long getTypeBlock(String type) {
+    long block = 0;
+
+    for (int i=0;i<8;i++)
+      block = (block << 8) | (type.charAt(i) & 0xff);
+
+    return block;
+  }
+
   private void setMagic() {
     Conversions.shortToByteArray(this.data, MAGIC_OFFSET, MAGIC_VALUE);
   }
@@ -63,4 +63,15 @@ public class HashChain {
     return this.h3;
   }
 
+  /**
+   * @return the next link up a hash chain from the given preimage.
+   */
+  public static byte[] hash(byte[] preimage) {
+    try {
+      return MessageDigest.getInstance("SHA256").digest(preimage);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
 }
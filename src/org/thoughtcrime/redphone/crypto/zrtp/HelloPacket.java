@@ -28,15 +28,27 @@ import java.util.Set;
  *
  * http://tools.ietf.org/html/rfc6189#section-5.2
  *
+ * RedPhone clients don't advertise the hash, key agreement or SAS types they
+ * support, which are implied by their client version.  The only options sent
+ * are {@link #CIPHER_AES_GCM}, which offers single pass AES-GCM media
+ * encryption, {@link #AUTH_TAG_HS80}, which offers truncated 80 bit SRTP
+ * authentication tags, {@link #KEY_AGREEMENT_X255}, which offers X25519 key
+ * agreement, and {@link #KEY_AGREEMENT_PRESHARED}, which offers keying a call
+ * from a retained secret instead of a key agreement.
+ *
  * @author Moxie Marlinspike
  *
  */
 
 public class HelloPacket extends HandshakePacket {
-  public  static final String TYPE = "Hello   ";
+  public  static final String TYPE           = "Hello   ";
+  public  static final String CIPHER_AES_GCM = "AGCM";
+  public  static final String AUTH_TAG_HS80  = "HS80";
+
+  public  static final String KEY_AGREEMENT_X255      = "X255";
+  public  static final String KEY_AGREEMENT_PRESHARED = "Prsh";
 
-  private static final int HELLO_MIN_LENGTH       = 88;
-  private static final int OPTIONAL_VALUES_LENGTH = 0;
+  private static final int HELLO_MIN_LENGTH = 88;
 
   private static final int MAGIC_LENGTH   = 2;
   private static final int LENGTH_LENGTH  = 2;
@@ -71,16 +83,23 @@ public class HelloPacket extends HandshakePacket {
     super(packet, deepCopy);
   }
 
-  public HelloPacket(HashChain hashChain, byte[] zid) {
-    super(TYPE, HELLO_MIN_LENGTH + OPTIONAL_VALUES_LENGTH);
+  public HelloPacket(HashChain hashChain, byte[] zid,
+                     String[] cipherOptions, String[] authTagOptions,
+                     String[] keyAgreementOptions)
+  {
+    super(TYPE, HELLO_MIN_LENGTH + ((cipherOptions.length + authTagOptions.length +
+                                     keyAgreementOptions.length) * 4));
     setZrtpVersion();
     setClientId();
     setH3(hashChain.getH3());
     setZID(zid);
     setFlags();
+    setCipherOptions(cipherOptions);
+    setAuthTagOptions(authTagOptions);
+    setKeyAgreementOptions(keyAgreementOptions);
     setMac(hashChain.getH2(),
-           OPTIONS_OFFSET + OPTIONAL_VALUES_LENGTH,
-           HELLO_MIN_LENGTH + OPTIONAL_VALUES_LENGTH - MAC_LENGTH);
+           OPTIONS_OFFSET + getOptionsLength(),
+           getMessageLength() - MAC_LENGTH);
   }
 
   public int getLength() {
@@ -134,14 +153,82 @@ public class HelloPacket extends HandshakePacket {
     this.data[CC_OFFSET] |= ((count & 0x0F) << 4);
   }
 
+  private void setCipherOptions(String[] cipherOptions) {
+    int cipherOptionsOffset = OPTIONS_OFFSET + (getHashOptionCount() * 4);
+
+    for (int i=0;i<cipherOptions.length;i++) {
+      cipherOptions[i].getBytes(0, 4, this.data, cipherOptionsOffset + (i * 4));
+    }
+
+    setCipherOptionCount(cipherOptions.length);
+  }
+
+  public Set<String> getCipherOptions() {
+    Set<String> cipherOptions = new HashSet<String>();
+    int cipherOptionsOffset   = OPTIONS_OFFSET + (getHashOptionCount() * 4);
+
+    for (int i=0;i<getCipherOptionCount();i++) {
+      cipherOptions.add(new String(this.data, cipherOptionsOffset + (i * 4), 4));
+    }
+
+    return cipherOptions;
+  }
+
   private int getAuthTagOptionCount() {
     return this.data[AC_OFFSET] & 0x0F;
   }
 
+  private void setAuthTagOptionCount(int count) {
+    this.data[AC_OFFSET] |= (count & 0x0F);
+  }
+
+  private void setAuthTagOptions(String[] authTagOptions) {
+    int authTagOptionsOffset = OPTIONS_OFFSET               +
+                               (getHashOptionCount()   * 4) +
+                               (getCipherOptionCount() * 4);
+
+    for (int i=0;i<authTagOptions.length;i++) {
+      authTagOptions[i].getBytes(0, 4, this.data, authTagOptionsOffset + (i * 4));
+    }
+
+    setAuthTagOptionCount(authTagOptions.length);
+  }
+
+  public Set<String> getAuthTagOptions() {
+    Set<String> authTagOptions = new HashSet<String>();
+
+    int authTagOptionsOffset = OPTIONS_OFFSET               +
+                               (getHashOptionCount()   * 4) +
+                               (getCipherOptionCount() * 4);
+
+    for (int i=0;i<getAuthTagOptionCount();i++) {
+      authTagOptions.add(new String(this.data, authTagOptionsOffset + (i * 4), 4));
+    }
+
+    return authTagOptions;
+  }
+
   private int getKeyAgreementOptionCount() {
     return (this.data[KC_OFFSET] & 0xFF) >> 4;
   }
 
+  private void setKeyAgreementOptionCount(int count) {
+    this.data[KC_OFFSET] |= ((count & 0x0F) << 4);
+  }
+
+  private void setKeyAgreementOptions(String[] keyAgreementOptions) {
+    int keyAgreementOptionsOffset = OPTIONS_OFFSET                +
+                                    (getHashOptionCount()    * 4) +
+                                    (getCipherOptionCount()  * 4) +
+                                    (getAuthTagOptionCount() * 4);
+
+    for (int i=0;i<keyAgreementOptions.length;i++) {
+      keyAgreementOptions[i].getBytes(0, 4, this.data, keyAgreementOptionsOffset + (i * 4));
+    }
+
+    setKeyAgreementOptionCount(keyAgreementOptions.length);
+  }
+
   public Set<String> getKeyAgreementOptions() {
     Set<String> keyAgreementOptions = new HashSet<String>();
 
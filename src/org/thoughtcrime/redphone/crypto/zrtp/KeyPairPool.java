@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.crypto.zrtp;
+
+import android.os.Process;
+import android.util.Log;
+
+import org.thoughtcrime.redphone.monitor.CountMetric;
+
+import java.security.KeyPair;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates ephemeral ZRTP key pairs ahead of time, so that a call doesn't
+ * wait on key generation before the handshake can start.
+ *
+ * The pool holds at most one key pair per agreement type, and only refills
+ * the type the last handshake selected.  Every key pair is handed out once
+ * and then forgotten.  When the pool is empty, the key pair is generated on
+ * the calling thread.
+ */
+
+public class KeyPairPool {
+
+  private static final KeyPairPool instance = new KeyPairPool();
+
+  public static KeyPairPool getInstance() {
+    return instance;
+  }
+
+  private final Map<Integer, KeyPair> keyPairs = new HashMap<Integer, KeyPair>();
+  private final CountMetric           counts   = new CountMetric();
+
+  private int     nextKeyAgreementType = ZRTPSocket.KA_TYPE_X255;
+  private boolean refilling            = false;
+
+  private KeyPairPool() {}
+
+  /**
+   * Removes and returns the pooled key pair for an agreement type, generating
+   * a fresh one if none is pooled.
+   */
+  public KeyPair take(int keyAgreementType) {
+    KeyPair keyPair;
+
+    synchronized (this) {
+      keyPair              = keyPairs.remove(keyAgreementType);
+      nextKeyAgreementType = keyAgreementType;
+    }
+
+    if (keyPair != null) {
+      counts.increment("hit", 1);
+      return keyPair;
+    }
+
+    counts.increment("miss", 1);
+    return generate(keyAgreementType);
+  }
+
+  /**
+   * Generates a key pair for the most recently selected agreement type on a
+   * low-priority thread, unless one is already pooled or being generated.
+   */
+  public void refill() {
+    final int keyAgreementType;
+
+    synchronized (this) {
+      if (refilling || keyPairs.containsKey(nextKeyAgreementType))
+        return;
+
+      refilling        = true;
+      keyAgreementType = nextKeyAgreementType;
+    }
+
+    new Thread("KeyPairPool refill") {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+
+        KeyPair keyPair = null;
+
+        try {
+          keyPair = generate(keyAgreementType);
+        } catch (RuntimeException e) {
+          Log.w("KeyPairPool", e);
+        }
+
+        synchronized (KeyPairPool.this) {
+          if (keyPair != null)
+            keyPairs.put(keyAgreementType, keyPair);
+
+          refilling = false;
+        }
+      }
+    }.start();
+  }
+
+  /**
+   * @return the hit and miss counts since the last sample.
+   */
+  public CountMetric getMetrics() {
+    return counts;
+  }
+
+  private static KeyPair generate(int keyAgreementType) {
+    return ZRTPSocket.createSecretCalculator(keyAgreementType).generateKeyPair();
+  }
+
+}
@@ -28,6 +28,10 @@ import javax.crypto.spec.SecretKeySpec;
 /**
  * Class that represents the ZRTP master secret.
  *
+ * Each key is derived from the shared secret the first time it's asked for,
+ * so that the handshake only pays for the keys it needs before its next packet
+ * goes out.  Instances aren't thread safe.
+ *
  * @author Moxie Marlinspike
  *
  */
@@ -39,11 +43,16 @@ public class MasterSecret {
   private byte[] totalHash;
   private byte[] counter;
   private byte[] sharedSecret;
+  private Mac    kdf;
 
   private byte[] srtpKeyI;
   private byte[] srtpKeyR;
   private byte[] srtpSaltI;
   private byte[] srtpSaltR;
+  private byte[] aeadKeyI;
+  private byte[] aeadKeyR;
+  private byte[] aeadSaltI;
+  private byte[] aeadSaltR;
   private byte[] macI;
   private byte[] macR;
   private byte[] zrtpKeyI;
@@ -57,77 +66,122 @@ public class MasterSecret {
     this.totalHash    = totalHash;
     this.sharedSecret = sharedSecret;
     this.counter      = Conversions.intToByteArray(1);
-
-    this.srtpKeyI  = calculateKDF("Initiator SRTP master key", 16);
-    this.srtpKeyR  = calculateKDF("Responder SRTP master key", 16);
-    this.srtpSaltI = calculateKDF("Initiator SRTP master salt", 14);
-    this.srtpSaltR = calculateKDF("Responder SRTP master salt", 14);
-
-    this.macI      = calculateKDF("Initiator HMAC key", 20);
-    this.macR      = calculateKDF("Responder HMAC key", 20);
-
-    this.zrtpKeyI  = calculateKDF("Initiator ZRTP key", 16);
-    this.zrtpKeyR  = calculateKDF("Responder ZRTP key", 16);
-
-    this.sas       = calculateKDF("SAS", 4);
-
-    this.rs1       = calculateKDF("retained secret", 32);
   }
 
   public byte[] getSAS() {
+    if (this.sas == null)
+      this.sas = calculateKDF("SAS", 4);
+
     return this.sas;
   }
 
   public byte[] getInitiatorSrtpKey() {
+    if (this.srtpKeyI == null)
+      this.srtpKeyI = calculateKDF("Initiator SRTP master key", 16);
+
     return this.srtpKeyI;
   }
 
   public byte[] getResponderSrtpKey() {
+    if (this.srtpKeyR == null)
+      this.srtpKeyR = calculateKDF("Responder SRTP master key", 16);
+
     return this.srtpKeyR;
   }
 
   public byte[] getInitiatorSrtpSalt() {
+    if (this.srtpSaltI == null)
+      this.srtpSaltI = calculateKDF("Initiator SRTP master salt", 14);
+
     return this.srtpSaltI;
   }
 
   public byte[] getResponderSrtpSailt() {
+    if (this.srtpSaltR == null)
+      this.srtpSaltR = calculateKDF("Responder SRTP master salt", 14);
+
     return this.srtpSaltR;
   }
 
+  public byte[] getInitiatorAeadKey() {
+    if (this.aeadKeyI == null)
+      this.aeadKeyI = calculateKDF("Initiator SRTP AES-GCM key", 16);
+
+    return this.aeadKeyI;
+  }
+
+  public byte[] getResponderAeadKey() {
+    if (this.aeadKeyR == null)
+      this.aeadKeyR = calculateKDF("Responder SRTP AES-GCM key", 16);
+
+    return this.aeadKeyR;
+  }
+
+  public byte[] getInitiatorAeadSalt() {
+    if (this.aeadSaltI == null)
+      this.aeadSaltI = calculateKDF("Initiator SRTP AES-GCM salt", 12);
+
+    return this.aeadSaltI;
+  }
+
+  public byte[] getResponderAeadSalt() {
+    if (this.aeadSaltR == null)
+      this.aeadSaltR = calculateKDF("Responder SRTP AES-GCM salt", 12);
+
+    return this.aeadSaltR;
+  }
+
   public byte[] getInitiatorMacKey() {
+    if (this.macI == null)
+      this.macI = calculateKDF("Initiator HMAC key", 20);
+
     return this.macI;
   }
 
   public byte[] getResponderMacKey() {
+    if (this.macR == null)
+      this.macR = calculateKDF("Responder HMAC key", 20);
+
     return this.macR;
   }
 
   public byte[] getInitiatorZrtpKey() {
+    if (this.zrtpKeyI == null)
+      this.zrtpKeyI = calculateKDF("Initiator ZRTP key", 16);
+
     return this.zrtpKeyI;
   }
 
   public byte[] getResponderZrtpKey() {
+    if (this.zrtpKeyR == null)
+      this.zrtpKeyR = calculateKDF("Responder ZRTP key", 16);
+
     return this.zrtpKeyR;
   }
 
   public byte[] getRetainedSecret() {
-    return rs1;
+    if (this.rs1 == null)
+      this.rs1 = calculateKDF("retained secret", 32);
+
+    return this.rs1;
   }
 
   private byte[] calculateKDF(String label, int truncatedLength) {
     try {
-      Mac mac = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(this.sharedSecret, "HmacSHA256"));
-
-      mac.update(counter);
-      mac.update(label.getBytes());
-      mac.update((byte)0x00);
-      mac.update(zidi);
-      mac.update(zidr);
-      mac.update(totalHash);
-      mac.update(Conversions.intToByteArray(truncatedLength));
-
-      byte[] digest = mac.doFinal();
+      if (kdf == null) {
+        kdf = Mac.getInstance("HmacSHA256");
+        kdf.init(new SecretKeySpec(this.sharedSecret, "HmacSHA256"));
+      }
+
+      kdf.update(counter);
+      kdf.update(label.getBytes());
+      kdf.update((byte)0x00);
+      kdf.update(zidi);
+      kdf.update(zidr);
+      kdf.update(totalHash);
+      kdf.update(Conversions.intToByteArray(truncatedLength));
+
+      byte[] digest = kdf.doFinal();
 
       if (digest.length == truncatedLength)
         return digest;
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.crypto.zrtp;
+
+import org.thoughtcrime.redphone.util.Conversions;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Calculates the shared secret for a Preshared mode handshake, which is
+ * keyed from the retained secret 'rs1' both sides cached at the end of
+ * their last call, instead of from a key agreement.
+ *
+ * Both sides derive a 'keyID' from their rs1, which the initiator sends in
+ * its Commit so that the responder can tell whether their secrets match.
+ * Freshness comes from the responder's Hello and the initiator's Commit,
+ * which are hashed into the total hash.
+ *
+ * https://tools.ietf.org/html/rfc6189#section-4.4.2
+ */
+
+public class PresharedSecretCalculator {
+
+  private final byte[] presharedKey;
+
+  public PresharedSecretCalculator(byte[] rs1) {
+    this.presharedKey = calculatePresharedKey(rs1);
+  }
+
+  public byte[] getKeyId() {
+    byte[] digest = calculateMac(presharedKey, HelloPacket.KEY_AGREEMENT_PRESHARED.getBytes());
+    byte[] keyId  = new byte[CommitPacket.KEY_ID_LENGTH];
+
+    System.arraycopy(digest, 0, keyId, 0, keyId.length);
+    return keyId;
+  }
+
+  public byte[] calculateTotalHash(HelloPacket responderHello, CommitPacket commit)
+      throws InvalidPacketException
+  {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(responderHello.getMessageBytes());
+      md.update(commit.getMessageBytes());
+      return md.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  public byte[] calculateSharedSecret(byte[] totalHash, byte[] zidi, byte[] zidr) {
+    byte[] counter = Conversions.intToByteArray(1);
+    byte[] label   = "ZRTP PSK".getBytes();
+    byte[] length  = Conversions.intToByteArray(32);
+
+    return calculateMac(presharedKey, counter, label, new byte[1],
+                        zidi, zidr, totalHash, length);
+  }
+
+  private byte[] calculatePresharedKey(byte[] rs1) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(Conversions.intToByteArray(rs1.length));
+      md.update(rs1);
+      md.update(Conversions.intToByteArray(0));
+      md.update(Conversions.intToByteArray(0));
+      return md.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private byte[] calculateMac(byte[] key, byte[]... parts) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+
+      for (byte[] part : parts)
+        mac.update(part);
+
+      return mac.doFinal();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvalidKeyException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+}
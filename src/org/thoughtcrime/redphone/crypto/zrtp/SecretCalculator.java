@@ -26,7 +26,7 @@ import java.security.NoSuchAlgorithmException;
 /**
  * Calculates a shared secret based on the DH parts.
  *
- * The various supported KA types (DH3K, EC25) are handled
+ * The various supported KA types (DH3K, EC25, X255) are handled
  * in their respective subclasses.
  *
  * @author Moxie Marlinspike
@@ -79,6 +79,13 @@ public abstract class SecretCalculator {
     }
   }
 
+  public abstract KeyPair generateKeyPair();
+
+  /**
+   * @return the public half of a key pair, encoded as a DH part's pvi or pvr.
+   */
+  public abstract byte[] getPublicKeyBytes(KeyPair keyPair);
+
   public abstract byte[] calculateKeyAgreement(KeyPair localKey, byte[] publicKeyBytes);
 
 }
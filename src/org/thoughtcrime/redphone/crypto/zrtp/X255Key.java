@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.crypto.zrtp;
+
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * A raw 32 byte Curve25519 key, so that X255 key pairs can travel
+ * through the same java.security.KeyPair plumbing as the JCE ones.
+ */
+
+public abstract class X255Key implements Key {
+
+  private static final long serialVersionUID = 1L;
+
+  private final byte[] key;
+
+  private X255Key(byte[] key) {
+    this.key = key;
+  }
+
+  public String getAlgorithm() {
+    return "X25519";
+  }
+
+  public String getFormat() {
+    return "RAW";
+  }
+
+  public byte[] getEncoded() {
+    return key.clone();
+  }
+
+  public static class Public extends X255Key implements PublicKey {
+    private static final long serialVersionUID = 1L;
+
+    public Public(byte[] key) {
+      super(key);
+    }
+  }
+
+  public static class Private extends X255Key implements PrivateKey {
+    private static final long serialVersionUID = 1L;
+
+    public Private(byte[] key) {
+      super(key);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.crypto.zrtp;
+
+import android.util.Log;
+
+import org.whispersystems.curve25519.Curve25519;
+import org.whispersystems.curve25519.Curve25519KeyPair;
+
+import java.security.KeyPair;
+
+/**
+ * An instance of SecretCalculator that will do KA for X255 (X25519).
+ */
+
+public class X255SecretCalculator extends SecretCalculator {
+
+  // The native implementation when it's available, otherwise the constant-time Java one.
+  private static final Curve25519 curve25519 = Curve25519.getInstance(Curve25519.BEST);
+
+  @Override
+  public KeyPair generateKeyPair() {
+    Curve25519KeyPair keyPair = curve25519.generateKeyPair();
+
+    return new KeyPair(new X255Key.Public(keyPair.getPublicKey()),
+                       new X255Key.Private(keyPair.getPrivateKey()));
+  }
+
+  @Override
+  public byte[] getPublicKeyBytes(KeyPair keyPair) {
+    return keyPair.getPublic().getEncoded();
+  }
+
+  @Override
+  public byte[] calculateKeyAgreement(KeyPair localKey, byte[] publicKeyBytes) {
+    Log.w("X255SecretCalculator", "Calculating X255 Secret...");
+
+    byte[] privateKey = localKey.getPrivate().getEncoded();
+
+    // Clamp as in RFC 7748 section 5, which curve25519-java leaves to key generation.
+    privateKey[0]  &= (byte)248;
+    privateKey[31] &= (byte)127;
+    privateKey[31] |= (byte)64;
+
+    byte[] secret = curve25519.calculateAgreement(publicKeyBytes, privateKey);
+
+    // A small-order public key forces an all-zero result, RFC 7748 section 6.1.
+    int bits = 0;
+
+    for (int i=0;i<secret.length;i++) {
+      bits |= secret[i];
+    }
+
+    if (bits == 0)
+      throw new IllegalArgumentException("Degenerate X255 public key!");
+
+    return secret;
+  }
+}
@@ -35,6 +35,9 @@ import java.security.NoSuchAlgorithmException;
  * The "initiator" side of a ZRTP handshake.  This side just hangs out and waits
  * for the "responder" to send a hello packet, then proceeds through the ZRTP handshake.
  *
+ * After the HelloAck it commits to Preshared mode when it can, and falls back to a DH
+ * commit if the responder answers with an Error.
+ *
  * @author Moxie Marlinspike
  *
  */
@@ -51,6 +54,7 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
   private ConfirmOnePacket confirmPacket;
 
   private RetainedSecretsCalculator retainedSecretsCalculator;
+  private PresharedSecretCalculator presharedCalculator;
 
   public ZRTPInitiatorSocket(Context context, SecureRtpSocket socket,
                              byte[] localZid, String foreignNumber)
@@ -65,13 +69,22 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
 
   @Override
   protected void handleConfirmAck(HandshakePacket packet) {
+    if (presharedCalculator != null) {
+      long expiration = System.currentTimeMillis() + (confirmPacket.getCacheTime() * 1000L);
+
+      cacheRetainedSecret(remoteNumber, foreignHello.getZID(), masterSecret.getRetainedSecret(),
+                          expiration, true, true);
+      setState(HANDSHAKE_COMPLETE);
+      return;
+    }
+
     boolean continuity = retainedSecretsCalculator.hasContinuity(foreignDH.getDerivativeSecretOne(),
                                                                  foreignDH.getDerivativeSecretTwo());
     byte[] foreignZid  = foreignHello.getZID();
     byte[] rs1         = masterSecret.getRetainedSecret();
     long expiration    = System.currentTimeMillis() + (confirmPacket.getCacheTime() * 1000L);
 
-    cacheRetainedSecret(remoteNumber, foreignZid, rs1, expiration, continuity);
+    cacheRetainedSecret(remoteNumber, foreignZid, rs1, expiration, continuity, false);
     setState(HANDSHAKE_COMPLETE);
   }
 
@@ -83,7 +96,9 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
     confirmPacket.decrypt(masterSecret.getResponderZrtpKey());
 
     byte[] preimage = confirmPacket.getPreimage();
-    foreignDH.verifyMac(preimage);
+
+    if (presharedCalculator != null) foreignHello.verifyMac(HashChain.hash(HashChain.hash(preimage)));
+    else                             foreignDH.verifyMac(preimage);
 
     setState(EXPECTING_CONFIRM_ACK);
     sendFreshPacket(new ConfirmTwoPacket(masterSecret.getInitiatorMacKey(),
@@ -103,6 +118,10 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
     SecretCalculator calculator;
 
     switch (getKeyAgreementType()) {
+    case KA_TYPE_X255:
+      foreignDH  = new X255DHPartOnePacket(packet, true);
+      calculator = new X255SecretCalculator();
+      break;
     case KA_TYPE_EC25:
       foreignDH  = new EC25DHPartOnePacket(packet, true);
       calculator = new EC25SecretCalculator();
@@ -123,6 +142,11 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
 
     foreignHello.verifyMac(h2);
 
+    // DHPart2 was built with our commit, so send it before working out the secret it's
+    // answered with.  We won't need the secret until Confirm1 arrives.
+    setState(EXPECTING_CONFIRM_ONE);
+    sendFreshPacket(localDH);
+
     byte[] dhResult     = calculator.calculateKeyAgreement(getKeyPair(), foreignDH.getPvr());
 
     byte[] totalHash    = calculator.calculateTotalHash(foreignHello, commitPacket,
@@ -138,17 +162,54 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
     this.masterSecret   = new MasterSecret(sharedSecret, totalHash, localHello.getZID(),
                                            foreignHello.getZID());
 
-    setState(EXPECTING_CONFIRM_ONE);
-    sendFreshPacket(localDH);
+    restartRetransmitTimer();
   }
 
   @Override
   protected void handleHelloAck(HandshakePacket packet) throws InvalidPacketException {
-    RetainedSecrets retainedSecrets        = getRetainedSecrets(remoteNumber, foreignHello.getZID());
+    RetainedSecrets retainedSecrets = getRetainedSecrets(remoteNumber, foreignHello.getZID());
+
+    if (isPresharedAvailable(retainedSecrets)) {
+      presharedCalculator = new PresharedSecretCalculator(retainedSecrets.getRetainedSecretOne());
+      commitPacket        = new CommitPacket(hashChain, localZid, presharedCalculator.getKeyId());
+
+      setState(EXPECTING_PRESHARED_CONFIRM);
+      sendFreshPacket(commitPacket);
+
+      byte[] totalHash    = presharedCalculator.calculateTotalHash(foreignHello, commitPacket);
+      byte[] sharedSecret = presharedCalculator.calculateSharedSecret(totalHash, localHello.getZID(),
+                                                                      foreignHello.getZID());
+
+      this.masterSecret   = new MasterSecret(sharedSecret, totalHash, localHello.getZID(),
+                                             foreignHello.getZID());
+    } else {
+      sendDHCommit(retainedSecrets);
+    }
+  }
+
+  @Override
+  protected void handleError(HandshakePacket packet) throws InvalidPacketException {
+    int errorCode = new ErrorPacket(packet).getErrorCode();
+
+    if (errorCode != ErrorPacket.NO_SHARED_SECRET)
+      throw new InvalidPacketException("Received error: " + errorCode);
+
+    Log.w("ZRTPInitiatorSocket", "Responder has no matching shared secret, committing to DH...");
+
+    presharedCalculator = null;
+    masterSecret        = null;
+
+    sendDHCommit(getRetainedSecrets(remoteNumber, foreignHello.getZID()));
+  }
+
+  private void sendDHCommit(RetainedSecrets retainedSecrets) throws InvalidPacketException {
     retainedSecretsCalculator              = new InitiatorRetainedSecretsCalculator(retainedSecrets);
     RetainedSecretsDerivatives derivatives = retainedSecretsCalculator.getRetainedSecretsDerivatives();
 
     switch (getKeyAgreementType()) {
+    case KA_TYPE_X255:
+      localDH = new X255DHPartTwoPacket(hashChain, getPublicKey(), derivatives);
+      break;
     case KA_TYPE_EC25:
       localDH = new EC25DHPartTwoPacket(hashChain, getPublicKey(), derivatives);
       break;
@@ -166,7 +227,7 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
   @Override
   protected void handleHello(HandshakePacket packet) throws InvalidPacketException {
     foreignHello = new HelloPacket(packet, true);
-    localHello   = new HelloPacket(hashChain, localZid);
+    localHello   = createLocalHello();
 
     setState(EXPECTING_HELLO_ACK);
     sendFreshPacket(localHello);
@@ -193,8 +254,10 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
 
     RedPhoneClientId foreignClientId = new RedPhoneClientId(foreignHello.getClientId());
 
-    if (foreignClientId.isImplicitDh3kVersion() ||
-        foreignHello.getKeyAgreementOptions().contains("EC25"))
+    if (foreignHello.getKeyAgreementOptions().contains(HelloPacket.KEY_AGREEMENT_X255)) {
+      return KA_TYPE_X255;
+    } else if (foreignClientId.isImplicitDh3kVersion() ||
+               foreignHello.getKeyAgreementOptions().contains("EC25"))
     {
       return KA_TYPE_EC25;
     } else {
@@ -202,6 +265,11 @@ public class ZRTPInitiatorSocket extends ZRTPSocket {
     }
   }
 
+  @Override
+  protected HelloPacket getLocalHello() {
+    return localHello;
+  }
+
   @Override
   protected HelloPacket getForeignHello() {
     return foreignHello;
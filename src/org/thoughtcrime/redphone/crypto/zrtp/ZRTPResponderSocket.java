@@ -18,6 +18,7 @@
 package org.thoughtcrime.redphone.crypto.zrtp;
 
 import android.content.Context;
+import android.util.Log;
 
 import org.thoughtcrime.redphone.crypto.SecureRtpSocket;
 import org.thoughtcrime.redphone.crypto.zrtp.retained.ResponderRetainedSecretsCalculator;
@@ -25,6 +26,8 @@ import org.thoughtcrime.redphone.crypto.zrtp.retained.RetainedSecrets;
 import org.thoughtcrime.redphone.crypto.zrtp.retained.RetainedSecretsCalculator;
 import org.thoughtcrime.redphone.crypto.zrtp.retained.RetainedSecretsDerivatives;
 
+import java.util.Arrays;
+
 /**
  * The "responder" side of a ZRTP handshake.  We've received a signal from the
  * initiator, and they're waiting for us to kick off the handshake with a hello
@@ -43,12 +46,13 @@ public class ZRTPResponderSocket extends ZRTPSocket {
   private DHPartTwoPacket foreignDH;
 
   private RetainedSecretsCalculator retainedSecretsCalculator;
+  private boolean preshared;
 
   public ZRTPResponderSocket(Context context, SecureRtpSocket socket,
                              byte[] localZid, String foreignNumber)
   {
     super(context, socket, localZid, foreignNumber, EXPECTING_HELLO);
-    this.localHello = new HelloPacket(hashChain, localZid);
+    this.localHello = createLocalHello();
   }
 
   @Override
@@ -63,11 +67,49 @@ public class ZRTPResponderSocket extends ZRTPSocket {
   protected void handleCommit(HandshakePacket packet) throws InvalidPacketException {
     foreignCommit = new CommitPacket(packet, true);
 
-    RetainedSecrets retainedSecrets        = getRetainedSecrets(remoteNumber, foreignHello.getZID());
+    RetainedSecrets retainedSecrets = getRetainedSecrets(remoteNumber, foreignHello.getZID());
+
+    if (foreignCommit.isPreshared()) handlePresharedCommit(retainedSecrets);
+    else                             handleDHCommit(retainedSecrets);
+  }
+
+  private void handlePresharedCommit(RetainedSecrets retainedSecrets) throws InvalidPacketException {
+    foreignHello.verifyMac(foreignCommit.getHash());
+
+    if (!isPresharedAvailable(retainedSecrets)) {
+      Log.w("ZRTPResponderSocket", "Preshared mode unavailable, requesting DH...");
+      sendFreshPacket(new ErrorPacket(ErrorPacket.NO_SHARED_SECRET));
+      return;
+    }
+
+    PresharedSecretCalculator calculator = new PresharedSecretCalculator(retainedSecrets.getRetainedSecretOne());
+
+    if (!Arrays.equals(calculator.getKeyId(), foreignCommit.getKeyId())) {
+      Log.w("ZRTPResponderSocket", "Preshared key ID mismatch, requesting DH...");
+      sendFreshPacket(new ErrorPacket(ErrorPacket.NO_SHARED_SECRET));
+      return;
+    }
+
+    byte[] totalHash    = calculator.calculateTotalHash(localHello, foreignCommit);
+    byte[] sharedSecret = calculator.calculateSharedSecret(totalHash, foreignHello.getZID(),
+                                                           localHello.getZID());
+
+    this.masterSecret   = new MasterSecret(sharedSecret, totalHash, foreignHello.getZID(),
+                                           localHello.getZID());
+    this.preshared      = true;
+
+    setState(EXPECTING_CONFIRM_TWO);
+    sendFreshPacket(new ConfirmOnePacket(masterSecret.getResponderMacKey(),
+                                         masterSecret.getResponderZrtpKey(),
+                                         this.hashChain, isLegacyConfirmConnection()));
+  }
+
+  private void handleDHCommit(RetainedSecrets retainedSecrets) throws InvalidPacketException {
     retainedSecretsCalculator              = new ResponderRetainedSecretsCalculator(retainedSecrets);
     RetainedSecretsDerivatives derivatives = retainedSecretsCalculator.getRetainedSecretsDerivatives();
 
     switch (getKeyAgreementType()) {
+    case KA_TYPE_X255: localDH = new X255DHPartOnePacket(hashChain, getPublicKey(), derivatives); break;
     case KA_TYPE_EC25: localDH = new EC25DHPartOnePacket(hashChain, getPublicKey(), derivatives); break;
     case KA_TYPE_DH3K: localDH = new DH3KDHPartOnePacket(hashChain, getPublicKey(), derivatives); break;
     }
@@ -83,6 +125,10 @@ public class ZRTPResponderSocket extends ZRTPSocket {
     SecretCalculator calculator;
 
     switch (getKeyAgreementType()) {
+    case KA_TYPE_X255:
+      foreignDH  = new X255DHPartTwoPacket(packet, true);
+      calculator = new X255SecretCalculator();
+      break;
     case KA_TYPE_EC25:
       foreignDH  = new EC25DHPartTwoPacket(packet, true);
       calculator = new EC25SecretCalculator();
@@ -127,18 +173,28 @@ public class ZRTPResponderSocket extends ZRTPSocket {
     confirmPacket.decrypt(masterSecret.getInitiatorZrtpKey());
 
     byte[] preimage = confirmPacket.getPreimage();
-    foreignDH.verifyMac(preimage);
+
+    if (preshared) foreignCommit.verifyMac(HashChain.hash(preimage));
+    else           foreignDH.verifyMac(preimage);
 
     setState(HANDSHAKE_COMPLETE);
     sendFreshPacket(new ConfAckPacket());
 
+    if (preshared) {
+      long expiration = System.currentTimeMillis() + (confirmPacket.getCacheTime() * 1000L);
+
+      cacheRetainedSecret(remoteNumber, foreignHello.getZID(), masterSecret.getRetainedSecret(),
+                          expiration, true, true);
+      return;
+    }
+
     boolean continuity = retainedSecretsCalculator.hasContinuity(foreignDH.getDerivativeSecretOne(),
                                                                  foreignDH.getDerivativeSecretTwo());
     byte[] foreignZid  = foreignHello.getZID();
     byte[] rs1         = masterSecret.getRetainedSecret();
     long expiration    = System.currentTimeMillis() + (confirmPacket.getCacheTime() * 1000L);
 
-    cacheRetainedSecret(remoteNumber, foreignZid, rs1, expiration, continuity);
+    cacheRetainedSecret(remoteNumber, foreignZid, rs1, expiration, continuity, false);
   }
 
   @Override
@@ -156,6 +212,11 @@ public class ZRTPResponderSocket extends ZRTPSocket {
     throw new AssertionError("Invalid state!");
   }
 
+  @Override
+  protected void handleError(HandshakePacket packet) {
+    throw new AssertionError("Invalid state!");
+  }
+
   @Override
   public void negotiateStart() throws NegotiationFailedException {
     sendFreshPacket(localHello);
@@ -169,13 +230,20 @@ public class ZRTPResponderSocket extends ZRTPSocket {
 
     String keyAgreementSpec = new String(foreignCommit.getKeyAgreementType());
 
-    if (keyAgreementSpec.equals("EC25")) {
+    if (keyAgreementSpec.equals(HelloPacket.KEY_AGREEMENT_X255)) {
+      return KA_TYPE_X255;
+    } else if (keyAgreementSpec.equals("EC25")) {
       return KA_TYPE_EC25;
     } else {
       return KA_TYPE_DH3K;
     }
   }
 
+  @Override
+  protected HelloPacket getLocalHello() {
+    return localHello;
+  }
+
   @Override
   protected HelloPacket getForeignHello() {
     return foreignHello;
@@ -18,30 +18,22 @@
 package org.thoughtcrime.redphone.crypto.zrtp;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 
-import org.spongycastle.jce.interfaces.ECPublicKey;
-import org.spongycastle.math.ec.ECPoint;
 import org.thoughtcrime.redphone.Release;
+import org.thoughtcrime.redphone.crypto.SecureRtpPacket;
 import org.thoughtcrime.redphone.crypto.SecureRtpSocket;
+import org.thoughtcrime.redphone.crypto.StreamAead;
 import org.thoughtcrime.redphone.crypto.zrtp.retained.RetainedSecrets;
 import org.thoughtcrime.redphone.database.RetainedSecretsDatabase;
 import org.thoughtcrime.redphone.database.DatabaseFactory;
-import org.thoughtcrime.redphone.util.Conversions;
+import org.thoughtcrime.redphone.ui.ApplicationPreferencesActivity;
 
 import java.io.IOException;
-import java.math.BigInteger;
-import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.Security;
-import java.security.spec.ECGenParameterSpec;
-
-import javax.crypto.interfaces.DHPublicKey;
-import javax.crypto.spec.DHParameterSpec;
 
 /**
  * The base ZRTP socket implementation.
@@ -50,6 +42,22 @@ import javax.crypto.spec.DHParameterSpec;
  * parts in the ZRTP handshake.
  *
  * This is fundamentally just a simple state machine which iterates through the ZRTP handshake.
+ * Each state accepts a fixed set of message types, and the handshake thread sleeps on the socket
+ * until a packet arrives or it's time to retransmit.  The retransmit interval starts at
+ * {@link #RETRANSMIT_INTERVAL_MILLIS}, and is replaced by a multiple of the round trip time
+ * once the first Hello or HelloAck we sent has been answered without being retransmitted.
+ * Packets already waiting in the socket are always read before retransmitting, so a reply
+ * that arrived while we computed a key agreement doesn't trigger a spurious retransmit.
+ *
+ * Each side's Hello offers AES-GCM media encryption and truncated SRTP authentication tags
+ * when the user has enabled them, and the call uses each only if both Hellos offer it.  AES-GCM
+ * takes precedence, and brings its own tag.
+ *
+ * When both Hellos offer Preshared mode and the initiator still has a retained secret for the
+ * responder, the initiator commits to keying the call from that secret and the DH exchange is
+ * skipped.  If the responder's secret doesn't match, it replies with an Error and the initiator
+ * commits to a full key agreement instead.  Either side forces a full key agreement after
+ * {@link #MAX_CONSECUTIVE_PRESHARED_CALLS} Preshared calls in a row with the same endpoint.
  *
  * @author Moxie Marlinspike
  *
@@ -60,31 +68,54 @@ public abstract class ZRTPSocket {
     Security.addProvider(new org.spongycastle.jce.provider.BouncyCastleProvider());
   }
 
-  public static final BigInteger PRIME     = new BigInteger("FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F14374FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7EDEE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF0598DA48361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB9ED529077096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3BE39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF6955817183995497CEA956AE515D2261898FA051015728E5A8AAAC42DAD33170D04507A33A85521ABDF1CBA64ECFB850458DBEF0A8AEA71575D060C7DB3970F85A6E1E4C7ABF5AE8CDB0933D71E8C94E04A25619DCEE3D2261AD2EE6BF12FFA06D98A0864D87602733EC86A64521F2B18177B200CBBE117577A615D6C770988C0BAD946E208E24FA074E5AB3143DB5BFCE0FD108E4B82D120A93AD2CAFFFFFFFFFFFFFFFF", 16);
-  public static final BigInteger GENERATOR = new BigInteger("02", 16);
-
-  private static final int RETRANSMIT_INTERVAL_MILLIS = 150;
-  private static final int MAX_RETRANSMIT_COUNT       = 45;
-
-  protected static final int EXPECTING_HELLO            = 0;
-  protected static final int EXPECTING_HELLO_ACK        = 1;
-  protected static final int EXPECTING_COMMIT           = 2;
-  protected static final int EXPECTING_DH_1             = 3;
-  protected static final int EXPECTING_DH_2             = 4;
-  protected static final int EXPECTING_CONFIRM_ONE      = 5;
-  protected static final int EXPECTING_CONFIRM_TWO      = 9;
-  protected static final int HANDSHAKE_COMPLETE         = 6;
-  protected static final int EXPECTING_CONFIRM_ACK      = 7;
-  protected static final int TERMINATED                 = 8;
+  private static final int RETRANSMIT_INTERVAL_MILLIS     = 150;
+  private static final int MIN_RETRANSMIT_INTERVAL_MILLIS = 50;
+  private static final int MAX_RETRANSMIT_INTERVAL_MILLIS = 1500;
+  private static final int RETRANSMIT_RTT_MULTIPLE        = 2;
+  private static final int MAX_RETRANSMIT_COUNT           = 45;
+
+  private static final int MAX_CONSECUTIVE_PRESHARED_CALLS = 9;
+
+  protected static final int EXPECTING_HELLO             = 0;
+  protected static final int EXPECTING_HELLO_ACK         = 1;
+  protected static final int EXPECTING_COMMIT            = 2;
+  protected static final int EXPECTING_DH_1              = 3;
+  protected static final int EXPECTING_DH_2              = 4;
+  protected static final int EXPECTING_CONFIRM_ONE       = 5;
+  protected static final int EXPECTING_CONFIRM_TWO       = 9;
+  protected static final int HANDSHAKE_COMPLETE          = 6;
+  protected static final int EXPECTING_CONFIRM_ACK       = 7;
+  protected static final int TERMINATED                  = 8;
+  protected static final int EXPECTING_PRESHARED_CONFIRM = 10;
+
+  // Indexed by state, a bit mask of the message types each state accepts.
+  private static final int[] ACCEPTED_MESSAGES = {
+    1 << HandshakePacket.MESSAGE_HELLO,       // EXPECTING_HELLO
+    1 << HandshakePacket.MESSAGE_HELLO_ACK,   // EXPECTING_HELLO_ACK
+    1 << HandshakePacket.MESSAGE_COMMIT,      // EXPECTING_COMMIT
+    1 << HandshakePacket.MESSAGE_DH_PART_ONE, // EXPECTING_DH_1
+    1 << HandshakePacket.MESSAGE_DH_PART_TWO, // EXPECTING_DH_2
+    1 << HandshakePacket.MESSAGE_CONFIRM_ONE, // EXPECTING_CONFIRM_ONE
+    0,                                        // HANDSHAKE_COMPLETE
+    1 << HandshakePacket.MESSAGE_CONFIRM_ACK, // EXPECTING_CONFIRM_ACK
+    0,                                        // TERMINATED
+    1 << HandshakePacket.MESSAGE_CONFIRM_TWO, // EXPECTING_CONFIRM_TWO
+    1 << HandshakePacket.MESSAGE_CONFIRM_ONE |
+    1 << HandshakePacket.MESSAGE_ERROR        // EXPECTING_PRESHARED_CONFIRM
+  };
 
   protected static final int KA_TYPE_DH3K = 100;
   protected static final int KA_TYPE_EC25 = 200;
+  protected static final int KA_TYPE_X255 = 300;
 
-  private long transmitStartTime  = 0;
-  private int  retransmitInterval = RETRANSMIT_INTERVAL_MILLIS;
-  private int  retransmitCount    = 0;
-  private int  sequence           = 0;
-  private int  state;
+  private long    transmitStartTime         = 0;
+  private int     initialRetransmitInterval = RETRANSMIT_INTERVAL_MILLIS;
+  private int     retransmitInterval        = RETRANSMIT_INTERVAL_MILLIS;
+  private int     retransmitCount           = 0;
+  private int     sequence                  = 0;
+  private boolean measuringRoundTrip        = false;
+  private boolean roundTripMeasured         = false;
+  private int     state;
 
   private   final Context context;
   private   final SecureRtpSocket socket;
@@ -92,8 +123,7 @@ public abstract class ZRTPSocket {
   protected final String remoteNumber;
 
   private HandshakePacket lastPacket;
-  private KeyPair dh3kKeyPair;
-  private KeyPair ec25KeyPair;
+  private KeyPair keyPair;
 
   protected HashChain hashChain;
   protected MasterSecret masterSecret;
@@ -106,11 +136,9 @@ public abstract class ZRTPSocket {
     this.remoteNumber      = remoteNumber;
     this.socket            = socket;
     this.state             = initialState;
-    this.dh3kKeyPair       = initializeDH3kKeys();
-    this.ec25KeyPair       = initializeEC25Keys();
     this.hashChain         = new HashChain();
 
-    this.socket.setTimeout(RETRANSMIT_INTERVAL_MILLIS);
+    this.socket.setTimeout(0);
   }
 
   protected abstract void handleHello(HandshakePacket packet) throws InvalidPacketException;
@@ -120,49 +148,75 @@ public abstract class ZRTPSocket {
   protected abstract void handleConfirmTwo(HandshakePacket packet) throws InvalidPacketException;
   protected abstract void handleHelloAck(HandshakePacket packet) throws InvalidPacketException;
   protected abstract void handleConfirmAck(HandshakePacket packet) throws InvalidPacketException;
+  protected abstract void handleError(HandshakePacket packet) throws InvalidPacketException;
 
   protected abstract int getKeyAgreementType();
+  protected abstract HelloPacket getLocalHello();
   protected abstract HelloPacket getForeignHello();
 
-  protected byte[] getPublicKey() {
-    switch (getKeyAgreementType()) {
-    case KA_TYPE_EC25: return getPublicEC25Key();
-    case KA_TYPE_DH3K: return getPublicDH3kKey();
-    default:           throw new AssertionError("Unknown KA type: " + getKeyAgreementType());
+  protected HelloPacket createLocalHello() {
+    String[] cipherOptions;
+    String[] authTagOptions;
+    String[] keyAgreementOptions;
+
+    if (ApplicationPreferencesActivity.isAeadMediaEncryption(context)) {
+      cipherOptions = new String[] {HelloPacket.CIPHER_AES_GCM};
+    } else {
+      cipherOptions = new String[0];
     }
-  }
 
-  protected KeyPair getKeyPair() {
-    switch (getKeyAgreementType()) {
-    case KA_TYPE_EC25: return ec25KeyPair;
-    case KA_TYPE_DH3K: return dh3kKeyPair;
-    default:           throw new AssertionError("Unknown KA type: " + getKeyAgreementType());
+    if (ApplicationPreferencesActivity.isTruncatedAuthTag(context)) {
+      authTagOptions = new String[] {HelloPacket.AUTH_TAG_HS80};
+    } else {
+      authTagOptions = new String[0];
+    }
+
+    if (ApplicationPreferencesActivity.isPresharedReconnect(context)) {
+      keyAgreementOptions = new String[] {HelloPacket.KEY_AGREEMENT_X255,
+                                          HelloPacket.KEY_AGREEMENT_PRESHARED};
+    } else {
+      keyAgreementOptions = new String[] {HelloPacket.KEY_AGREEMENT_X255};
     }
+
+    return new HelloPacket(hashChain, localZid, cipherOptions, authTagOptions, keyAgreementOptions);
   }
 
-  private byte[] getPublicDH3kKey() {
-    if (Release.DEBUG)
-      Log.w("ZRTPSocket", "Sending public key: " + ((DHPublicKey)dh3kKeyPair.getPublic()).getY());
+  /**
+   * @return true if this call can be keyed in Preshared mode from our retained secrets,
+   * as far as we can tell before comparing them with the other side's.
+   */
+  protected boolean isPresharedAvailable(RetainedSecrets retainedSecrets) {
+    return getLocalHello().getKeyAgreementOptions().contains(HelloPacket.KEY_AGREEMENT_PRESHARED)   &&
+           getForeignHello().getKeyAgreementOptions().contains(HelloPacket.KEY_AGREEMENT_PRESHARED) &&
+           retainedSecrets.getRetainedSecretOne() != null                                          &&
+           retainedSecrets.getPresharedCount() < MAX_CONSECUTIVE_PRESHARED_CALLS;
+  }
 
-    byte[] temp = new byte[384];
-    Conversions.bigIntegerToByteArray(temp, ((DHPublicKey)dh3kKeyPair.getPublic()).getY());
-    return temp;
+  protected static SecretCalculator createSecretCalculator(int keyAgreementType) {
+    switch (keyAgreementType) {
+    case KA_TYPE_X255: return new X255SecretCalculator();
+    case KA_TYPE_EC25: return new EC25SecretCalculator();
+    case KA_TYPE_DH3K: return new DH3KSecretCalculator();
+    default:           throw new AssertionError("Unknown KA type: " + keyAgreementType);
+    }
   }
 
-  private byte[] getPublicEC25Key() {
+  protected byte[] getPublicKey() {
     if (Release.DEBUG)
-      Log.w("ZRTPSocket", "Sending public key: " + ec25KeyPair.getPublic());
-
-    ECPublicKey publicKey = (ECPublicKey)ec25KeyPair.getPublic();
-    ECPoint q             = publicKey.getQ();
+      Log.w("ZRTPSocket", "Sending public key: " + getKeyPair().getPublic());
 
-    byte[] x = new byte[32];
-    byte[] y = new byte[32];
+    return createSecretCalculator(getKeyAgreementType()).getPublicKeyBytes(getKeyPair());
+  }
 
-    Conversions.bigIntegerToByteArray(x, q.getX().toBigInteger());
-    Conversions.bigIntegerToByteArray(y, q.getY().toBigInteger());
+  /**
+   * @return this handshake's ephemeral key pair, taken from the {@link KeyPairPool}
+   * once the agreement type is known.
+   */
+  protected KeyPair getKeyPair() {
+    if (keyPair == null)
+      keyPair = KeyPairPool.getInstance().take(getKeyAgreementType());
 
-    return Conversions.combine(x, y);
+    return keyPair;
   }
 
   protected RetainedSecrets getRetainedSecrets(String number, byte[] zid) {
@@ -171,10 +225,10 @@ public abstract class ZRTPSocket {
   }
 
   protected void cacheRetainedSecret(String number, byte[] zid, byte[] rs1,
-                                     long expiration, boolean continuity)
+                                     long expiration, boolean continuity, boolean preshared)
   {
     RetainedSecretsDatabase database = DatabaseFactory.getRetainedSecretsDatabase(context);
-    database.setRetainedSecret(number, zid, rs1, expiration, continuity);
+    database.setRetainedSecret(number, zid, rs1, expiration, continuity, preshared);
   }
 
 
@@ -195,16 +249,29 @@ public abstract class ZRTPSocket {
   }
 
   protected void sendFreshPacket(HandshakePacket packet) {
+    int messageType = packet.getMessageType();
+
     retransmitCount    = 0;
-    retransmitInterval = RETRANSMIT_INTERVAL_MILLIS;
+    retransmitInterval = initialRetransmitInterval;
+    measuringRoundTrip = !roundTripMeasured &&
+                         (messageType == HandshakePacket.MESSAGE_HELLO ||
+                          messageType == HandshakePacket.MESSAGE_HELLO_ACK);
     sendPacket(packet);
   }
 
+  /**
+   * Restarts the retransmit clock for the packet last sent, so that time spent computing
+   * after sending it isn't counted as time spent waiting for the reply.
+   */
+  protected void restartRetransmitTimer() {
+    transmitStartTime = SystemClock.uptimeMillis();
+  }
+
   private void sendPacket(HandshakePacket packet) {
     if (Release.DEBUG)
       Log.w("ZRTPSocket", "Sending Packet: " + packet);
 
-    transmitStartTime = System.currentTimeMillis();
+    transmitStartTime = SystemClock.uptimeMillis();
     this.lastPacket   = packet;
 
     if (packet != null) {
@@ -226,49 +293,95 @@ public abstract class ZRTPSocket {
       }
     }
 
-    retransmitInterval = Math.min(retransmitInterval*2, 1500);
+    Log.w("ZRTPSocket", "Retransmitting after: " + retransmitInterval);
+
+    retransmitInterval = Math.min(retransmitInterval*2, MAX_RETRANSMIT_INTERVAL_MILLIS);
+    measuringRoundTrip = false;
 
     sendPacket(lastPacket);
   }
 
-  private KeyPair initializeDH3kKeys() {
-    try {
-      KeyPairGenerator kg    = KeyPairGenerator.getInstance("DH");
-      DHParameterSpec dhSpec = new DHParameterSpec(PRIME, GENERATOR);
-      kg.initialize(dhSpec);
-
-      return kg.generateKeyPair();
-    } catch (InvalidAlgorithmParameterException e) {
-      throw new IllegalArgumentException(e);
-    } catch (NoSuchAlgorithmException e) {
-      throw new IllegalArgumentException(e);
-    }
+  private long getMillisUntilRetransmit() {
+    return transmitStartTime + retransmitInterval - SystemClock.uptimeMillis();
   }
 
-  private KeyPair initializeEC25Keys() {
-    try {
-      KeyPairGenerator kg       = KeyPairGenerator.getInstance("ECDH", "SC");
-      ECGenParameterSpec ecSpec = new ECGenParameterSpec("secp256r1");
-      kg.initialize(ecSpec);
-
-      return kg.generateKeyPair();
-    } catch (InvalidAlgorithmParameterException e) {
-      throw new AssertionError(e);
-    } catch (NoSuchAlgorithmException nsae) {
-      throw new AssertionError(nsae);
-    } catch (NoSuchProviderException e) {
-      throw new AssertionError(e);
+  private void updateRoundTripTime() {
+    if (!measuringRoundTrip)
+      return;
+
+    long roundTripMillis = SystemClock.uptimeMillis() - transmitStartTime;
+
+    initialRetransmitInterval = (int)Math.max(MIN_RETRANSMIT_INTERVAL_MILLIS,
+                                              Math.min(MAX_RETRANSMIT_INTERVAL_MILLIS,
+                                                       roundTripMillis * RETRANSMIT_RTT_MULTIPLE));
+    measuringRoundTrip        = false;
+    roundTripMeasured         = true;
+
+    Log.w("ZRTPSocket", "Handshake RTT: " + roundTripMillis +
+                        ", retransmit interval: " + initialRetransmitInterval);
+  }
+
+  private void handlePacket(int messageType, HandshakePacket packet) throws InvalidPacketException {
+    switch (messageType) {
+    case HandshakePacket.MESSAGE_HELLO:       handleHello(packet);      break;
+    case HandshakePacket.MESSAGE_HELLO_ACK:   handleHelloAck(packet);   break;
+    case HandshakePacket.MESSAGE_COMMIT:      handleCommit(packet);     break;
+    case HandshakePacket.MESSAGE_DH_PART_ONE: handleDH(packet);         break;
+    case HandshakePacket.MESSAGE_DH_PART_TWO: handleDH(packet);         break;
+    case HandshakePacket.MESSAGE_CONFIRM_ONE: handleConfirmOne(packet); break;
+    case HandshakePacket.MESSAGE_CONFIRM_TWO: handleConfirmTwo(packet); break;
+    case HandshakePacket.MESSAGE_CONFIRM_ACK: handleConfirmAck(packet); break;
+    case HandshakePacket.MESSAGE_ERROR:       handleError(packet);      break;
+    default: throw new AssertionError("Unknown message type: " + messageType);
     }
   }
 
-  private boolean isRetransmitTime() {
-    return (System.currentTimeMillis() - transmitStartTime >= retransmitInterval);
+  private boolean isNegotiating(boolean untilHello) {
+    if (untilHello) return state == EXPECTING_HELLO;
+    else            return state != HANDSHAKE_COMPLETE && state != TERMINATED;
   }
 
-  private void resendPacketIfTimeout() throws NegotiationFailedException {
-    if (isRetransmitTime()) {
-      Log.w("ZRTPSocket", "Retransmitting after: " + retransmitInterval);
-      resendPacket();
+  /**
+   * Runs the handshake until the state leaves EXPECTING_HELLO, if untilHello is set, or until
+   * the handshake completes or is terminated otherwise.
+   */
+  private void negotiate(boolean untilHello) throws NegotiationFailedException {
+    try {
+      while (isNegotiating(untilHello)) {
+        long millisUntilRetransmit = Math.max(0, getMillisUntilRetransmit());
+
+        // Handle anything that arrived while we were busy, such as the reply that came in
+        // while we computed a key agreement, before deciding our last packet was lost.
+        if (!socket.waitForReadable(millisUntilRetransmit)) {
+          if (getMillisUntilRetransmit() <= 0)
+            resendPacket();
+
+          continue;
+        }
+
+        HandshakePacket packet;
+
+        while (isNegotiating(untilHello) && (packet = socket.receiveHandshakePacket()) != null) {
+          int messageType = packet.getMessageType();
+
+          if (Release.DEBUG)
+            Log.w("ZRTPSocket", "Received packet: " + messageType);
+
+          if (messageType != HandshakePacket.MESSAGE_UNKNOWN &&
+              (ACCEPTED_MESSAGES[state] & (1 << messageType)) != 0)
+          {
+            updateRoundTripTime();
+            handlePacket(messageType, packet);
+          }
+        }
+      }
+    } catch (InvalidPacketException ipe) {
+      Log.w("ZRTPSocket", ipe);
+      throw new NegotiationFailedException(ipe);
+    } catch (IOException ioe) {
+      Log.w("ZRTPSocket", ioe);
+      if (state != TERMINATED)
+        throw new NegotiationFailedException(ioe);
     }
   }
 
@@ -276,6 +389,30 @@ public abstract class ZRTPSocket {
     return this.masterSecret;
   }
 
+  /**
+   * @return true if both sides agreed on AES-GCM media encryption.
+   */
+  public boolean isAeadNegotiated() {
+    return getLocalHello().getCipherOptions().contains(HelloPacket.CIPHER_AES_GCM) &&
+           getForeignHello().getCipherOptions().contains(HelloPacket.CIPHER_AES_GCM);
+  }
+
+  /**
+   * @return the length of the SRTP authentication tag both sides agreed on.
+   */
+  public int getSrtpMacLength() {
+    if (isAeadNegotiated())
+      return StreamAead.TAG_LENGTH;
+
+    if (getLocalHello().getAuthTagOptions().contains(HelloPacket.AUTH_TAG_HS80) &&
+        getForeignHello().getAuthTagOptions().contains(HelloPacket.AUTH_TAG_HS80))
+    {
+      return SecureRtpPacket.TRUNCATED_MAC_SIZE;
+    }
+
+    return SecureRtpPacket.MAC_SIZE;
+  }
+
   public SASInfo getSasInfo() {
     RetainedSecretsDatabase database    = DatabaseFactory.getRetainedSecretsDatabase(context);
     String                  sasText     = SASCalculator.calculateSAS(masterSecret.getSAS());
@@ -294,57 +431,11 @@ public abstract class ZRTPSocket {
   }
 
   public void negotiateStart() throws NegotiationFailedException {
-    try {
-      while (state == EXPECTING_HELLO) {
-        HandshakePacket packet = socket.receiveHandshakePacket();
-
-        if (packet == null) {
-          resendPacketIfTimeout();
-        } else if (packet.getType().equals(HelloPacket.TYPE) && (state == EXPECTING_HELLO)) {
-          handleHello(packet);
-        } else if (isRetransmitTime()) {
-          resendPacket();
-        }
-      }
-    } catch (IOException ioe) {
-      Log.w("ZRTPSocket", ioe);
-      if (state != TERMINATED)
-        throw new NegotiationFailedException(ioe);
-    } catch (InvalidPacketException ipe) {
-      Log.w("ZRTPSocket", ipe);
-      throw new NegotiationFailedException(ipe);
-    }
+    negotiate(true);
   }
 
   public void negotiateFinish() throws NegotiationFailedException {
-    try {
-      while (state != HANDSHAKE_COMPLETE && state != TERMINATED) {
-
-        HandshakePacket packet = socket.receiveHandshakePacket();
-
-        if( packet != null ) {
-          Log.w("ZRTPSocket", "Received packet: " + (packet != null ? packet.getType() : "null"));
-        }
-
-        if      (packet == null)                                                                       resendPacketIfTimeout();
-        else if ((packet.getType().equals(HelloPacket.TYPE))      && (state == EXPECTING_HELLO))       handleHello(packet);
-        else if ((packet.getType().equals(HelloAckPacket.TYPE))   && (state == EXPECTING_HELLO_ACK))   handleHelloAck(packet);
-        else if ((packet.getType().equals(CommitPacket.TYPE))     && (state == EXPECTING_COMMIT))      handleCommit(packet);
-        else if ((packet.getType().equals(DHPartOnePacket.TYPE))  && (state == EXPECTING_DH_1))        handleDH(packet);
-        else if ((packet.getType().equals(DHPartTwoPacket.TYPE))  && (state == EXPECTING_DH_2))        handleDH(packet);
-        else if ((packet.getType().equals(ConfirmOnePacket.TYPE)) && (state == EXPECTING_CONFIRM_ONE)) handleConfirmOne(packet);
-        else if ((packet.getType().equals(ConfirmTwoPacket.TYPE)) && (state == EXPECTING_CONFIRM_TWO)) handleConfirmTwo(packet);
-        else if ((packet.getType().equals(ConfAckPacket.TYPE))    && (state == EXPECTING_CONFIRM_ACK)) handleConfirmAck(packet);
-        else if (isRetransmitTime())                                                                   resendPacket();
-      }
-    } catch (InvalidPacketException ipe) {
-      Log.w("ZRTPSocket", ipe);
-      throw new NegotiationFailedException(ipe);
-    } catch (IOException ioe) {
-      Log.w("ZRTPSocket", ioe);
-      if (state != TERMINATED)
-        throw new NegotiationFailedException(ioe);
-    }
+    negotiate(false);
 
     if (state != TERMINATED)
       this.socket.setTimeout(1);
@@ -4,10 +4,16 @@ public class RetainedSecrets {
 
   private final byte[] rs1;
   private final byte[] rs2;
+  private final int    presharedCount;
 
   public RetainedSecrets(byte[] rs1, byte[] rs2) {
-    this.rs1 = rs1;
-    this.rs2 = rs2;
+    this(rs1, rs2, 0);
+  }
+
+  public RetainedSecrets(byte[] rs1, byte[] rs2, int presharedCount) {
+    this.rs1            = rs1;
+    this.rs2            = rs2;
+    this.presharedCount = presharedCount;
   }
 
   public byte[] getRetainedSecretOne() {
@@ -17,4 +23,12 @@ public class RetainedSecrets {
   public byte[] getRetainedSecretTwo() {
     return rs2;
   }
+
+  /**
+   * @return the number of consecutive calls with this endpoint that were keyed
+   * from rs1 in Preshared mode, rather than with a full key agreement.
+   */
+  public int getPresharedCount() {
+    return presharedCount;
+  }
 }
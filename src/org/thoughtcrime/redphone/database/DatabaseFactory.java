@@ -28,7 +28,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 public class DatabaseFactory {
 
   private static final String DATABASE_NAME    = "database.db";
-  private static final int    DATABASE_VERSION = 1;
+  private static final int    DATABASE_VERSION = 2;
 
   private static DatabaseFactory instance;
 
@@ -65,7 +65,7 @@ public class DatabaseFactory {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-
+      RetainedSecretsDatabase.onUpgrade(db, oldVersion, newVersion);
     }
   }
 }
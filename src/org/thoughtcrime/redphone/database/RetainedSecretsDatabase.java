@@ -33,7 +33,8 @@ import java.io.IOException;
 
 /**
  * Manages the cache of retained secrets (rs1 and rs2) for each
- * (ZID, phone number) endpoint tuple.
+ * (ZID, phone number) endpoint tuple, along with how many consecutive
+ * calls to that endpoint were keyed in Preshared mode.
  */
 public class RetainedSecretsDatabase {
 
@@ -45,10 +46,15 @@ public class RetainedSecretsDatabase {
   private static final String RS1        = "rs1";
   private static final String RS2        = "rs2";
   private static final String VERIFIED   = "verified";
+  private static final String PRESHARED  = "preshared_count";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME +
       " (" + ID + " integer PRIMARY KEY, " + NUMBER + " TEXT, " + ZID + " TEXT, " +
-      EXPIRES + " INTEGER, " + RS1 + " TEXT, " + RS2 + " TEXT, " + VERIFIED + " INTEGER);";
+      EXPIRES + " INTEGER, " + RS1 + " TEXT, " + RS2 + " TEXT, " + VERIFIED + " INTEGER, " +
+      PRESHARED + " INTEGER DEFAULT 0);";
+
+  public static final String ADD_PRESHARED_COLUMN = "ALTER TABLE " + TABLE_NAME +
+      " ADD COLUMN " + PRESHARED + " INTEGER DEFAULT 0;";
 
   public static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS cached_secrets_zid_number_index ON " +
       TABLE_NAME + " (" + NUMBER +"," + ZID + ");";
@@ -96,7 +102,9 @@ public class RetainedSecretsDatabase {
     }
   }
 
-  public void setRetainedSecret(String number, byte[] zid, byte[] rs1, long expiration, boolean continuity) {
+  public void setRetainedSecret(String number, byte[] zid, byte[] rs1, long expiration,
+                                boolean continuity, boolean preshared)
+  {
     if (System.currentTimeMillis() >= expiration)
       return;
 
@@ -120,6 +128,9 @@ public class RetainedSecretsDatabase {
         values.put(EXPIRES, expiration);
         if (!continuity) values.put(VERIFIED, 0);
 
+        if (preshared) values.put(PRESHARED, cursor.getInt(cursor.getColumnIndexOrThrow(PRESHARED)) + 1);
+        else           values.put(PRESHARED, 0);
+
         database.update(TABLE_NAME, values, ID + " = ?", new String[] {id+""});
       } else {
         ContentValues values = new ContentValues();
@@ -129,6 +140,7 @@ public class RetainedSecretsDatabase {
         values.put(NUMBER, encodedNumber);
         values.put(VERIFIED, false);
         values.put(EXPIRES, expiration);
+        values.put(PRESHARED, 0);
 
         database.insert(TABLE_NAME, null, values);
       }
@@ -166,7 +178,9 @@ public class RetainedSecretsDatabase {
           if (!Util.isEmpty(encodedR1)) rs1 = Base64.decode(encodedR1);
           if (!Util.isEmpty(encodedR2)) rs2 = Base64.decode(encodedR2);
 
-          return new RetainedSecrets(rs1, rs2);
+          int presharedCount = cursor.getInt(cursor.getColumnIndexOrThrow(PRESHARED));
+
+          return new RetainedSecrets(rs1, rs2, presharedCount);
         } catch (IOException e) {
           Log.w("RetainedSecretsDatabase", e);
         }
@@ -183,4 +197,10 @@ public class RetainedSecretsDatabase {
     db.execSQL(CREATE_TABLE);
     db.execSQL(CREATE_INDEX);
   }
+
+  public static void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    if (oldVersion < 2) {
+      db.execSQL(ADD_PRESHARED_COLUMN);
+    }
+  }
 }
@@ -11,6 +11,7 @@ import org.thoughtcrime.redphone.Constants;
 import org.thoughtcrime.redphone.RedPhoneService;
 import org.thoughtcrime.redphone.crypto.EncryptedSignalMessage;
 import org.thoughtcrime.redphone.crypto.InvalidEncryptedSignalException;
+import org.thoughtcrime.redphone.crypto.zrtp.KeyPairPool;
 import org.thoughtcrime.redphone.signaling.SessionDescriptor;
 import org.thoughtcrime.redphone.signaling.signals.CompressedInitiateSignalProtocol.CompressedInitiateSignal;
 import org.thoughtcrime.redphone.sms.IncomingCallDetails;
@@ -44,6 +45,8 @@ public class GCMIntentService extends GCMBaseIntentService {
     IncomingCallDetails callDetails = getIncomingCallDetails(context, data);
 
     if (callDetails != null) {
+      KeyPairPool.getInstance().refill();
+
       intent.setClass(context, RedPhoneService.class);
       intent.setAction(RedPhoneService.ACTION_INCOMING_CALL);
       intent.putExtra(Constants.REMOTE_NUMBER, callDetails.getInitiator());
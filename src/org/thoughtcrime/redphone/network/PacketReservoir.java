@@ -19,43 +19,51 @@ package org.thoughtcrime.redphone.network;
 
 import android.util.Log;
 
-import java.net.DatagramPacket;
-import java.util.LinkedList;
+import org.thoughtcrime.redphone.audio.EncodedAudioData;
+import org.thoughtcrime.redphone.util.Factory;
+import org.thoughtcrime.redphone.util.Pool;
+
+import java.nio.ByteBuffer;
 
 /**
- * Keeps a pool of byte arrays that are used to construct DatagramPackets.  Recycles buffers
- * that are no longer in use
+ * Keeps a pool of fixed size receive buffers, each wrapped in the {@link EncodedAudioData} that
+ * will eventually describe the audio it carries.  Incoming packets are read directly into these
+ * buffers and the decoded payload is referenced in place, so once the pool has grown to cover
+ * the jitter buffer depth no further allocations are needed on the receive path.
+ *
+ * Buffers are returned by calling {@link EncodedAudioData#recycle()}.
  *
  * @author Stuart O. Anderson
  */
- //TODO(Stuart Anderson): Refactor to use {@link org.thoughtcrime.redphone.util.Pool}
- //TODO(Stuart Anderson): Test if removing this results in a noticeable performance loss.
-
 public class PacketReservoir {
-  private int bufferSize;
+  private final int bufferSize;
+  private final Pool<EncodedAudioData> buffers;
   private int totalAllocatedBuffers = 0;
-  private LinkedList<byte []> buffers = new LinkedList<byte[]>();
-  public PacketReservoir( int bufferSize ) {
+
+  public PacketReservoir( final int bufferSize ) {
     this.bufferSize = bufferSize;
+    this.buffers    = new Pool<EncodedAudioData>( new Factory<EncodedAudioData>() {
+      public EncodedAudioData getInstance() {
+        totalAllocatedBuffers++;
+        Log.d("PacketReservoir", "enlarging packet reservoir, new size = " + totalAllocatedBuffers );
+        return new EncodedAudioData( ByteBuffer.allocate(bufferSize), PacketReservoir.this );
+      }
+    });
   }
 
-  public synchronized DatagramPacket getPacket() {
-    if( buffers.size() != 0 ) {
-      return new DatagramPacket( buffers.removeFirst(), bufferSize );
-    }
-
-    totalAllocatedBuffers++;
-    Log.d("PacketReservoir", "enlarging packet reservoir, new size = " + totalAllocatedBuffers );
-    byte [] newBuffer = new byte [bufferSize];
-    return new DatagramPacket( newBuffer, bufferSize );
+  public EncodedAudioData getBuffer() {
+    return buffers.getItem();
   }
 
-  public synchronized void returnPacket( DatagramPacket packet ) {
-    byte [] returnedBuffer = packet.getData();
-    if( returnedBuffer.length != bufferSize ) {
-      Log.e( "PacketReservoir", "returned a mis-sized buffer: " + returnedBuffer.length );
+  public void returnBuffer( EncodedAudioData buffer ) {
+    if( buffer.data.length != bufferSize ) {
+      Log.e( "PacketReservoir", "returned a mis-sized buffer: " + buffer.data.length );
       return;
     }
-    buffers.add( returnedBuffer );
+    buffers.returnItem( buffer );
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
   }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.network;
+
+import android.util.Log;
+
+import org.thoughtcrime.redphone.monitor.CallMonitor;
+import org.thoughtcrime.redphone.monitor.SampledMetrics;
+import org.thoughtcrime.redphone.profiling.PeriodicTimer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses how many codec frames the {@link RtpAudioSender} bundles into each packet, and
+ * whether each packet should carry a redundant copy of the previous one.
+ *
+ * On a clean path small packets keep latency down, while on a lossy or jittery path
+ * larger packets cut the per-packet header and MAC overhead and the number of packets
+ * exposed to loss.  Once the remote peer has sent a {@link ReceiverReport} its view of our
+ * loss is used directly, before then the loss we measure on the stream we receive serves
+ * as a proxy for the path our packets take in the other direction.  Jitter is always taken
+ * from the stream we receive.
+ *
+ * Redundancy roughly doubles the audio bitrate, so it is switched on once loss exceeds
+ * {@link #REDUNDANCY_ON_LOSS} and only switched off again when loss drops below
+ * {@link #REDUNDANCY_OFF_LOSS}.  It is never used with peers that don't stamp RTP timestamps,
+ * since they predate redundant payloads.
+ *
+ * Peers that don't stamp RTP timestamps derive frame indices by assuming two frames per
+ * packet, so with them the packet size stays at {@link RtpAudioSender#DEFAULT_FRAMES_PER_PACKET}.
+ *
+ * A new packetization is only adopted after it has been recommended for two consecutive
+ * periods, so a single noisy period doesn't make the packet size oscillate.
+ */
+public class PacketizationController implements SampledMetrics {
+  private static final long UPDATE_PERIOD_MILLIS = 2000;
+
+  private static final float LOW_LOSS     = 0.01f;
+  private static final float HIGH_LOSS    = 0.05f;
+  private static final float EXTREME_LOSS = 0.10f;
+
+  private static final float REDUNDANCY_ON_LOSS  = 0.03f;
+  private static final float REDUNDANCY_OFF_LOSS = 0.01f;
+
+  private static final int LOW_JITTER_MILLIS     = 20;
+  private static final int HIGH_JITTER_MILLIS    = 60;
+  private static final int EXTREME_JITTER_MILLIS = 100;
+
+  private final RtpAudioSender      sender;
+  private final ReceptionStatistics statistics;
+  private final ReceiverReporter    reporter;
+  private final PeriodicTimer       timer = new PeriodicTimer(UPDATE_PERIOD_MILLIS);
+
+  private long lastExpected = 0;
+  private long lastReceived = 0;
+  private int  pendingFramesPerPacket;
+  private int  changes = 0;
+
+  private volatile float lastLoss;
+  private volatile int   lastJitterMillis;
+
+  public PacketizationController(RtpAudioSender sender, ReceptionStatistics statistics,
+                                 ReceiverReporter reporter, CallMonitor monitor) {
+    this.sender                 = sender;
+    this.statistics             = statistics;
+    this.reporter               = reporter;
+    this.pendingFramesPerPacket = sender.getFramesPerPacket();
+
+    monitor.addSampledMetrics("packetization", this);
+  }
+
+  public void update() {
+    if( !timer.periodically() ) return;
+
+    long expected = statistics.getPacketsExpected();
+    long received = statistics.getPacketsReceived();
+
+    long intervalExpected = expected - lastExpected;
+    long intervalReceived = received - lastReceived;
+    lastExpected          = expected;
+    lastReceived          = received;
+
+    if( intervalExpected <= 0 ) return;
+
+    float loss       = Math.max( 0, (intervalExpected - intervalReceived) / (float)intervalExpected );
+    int jitterMillis = statistics.getJitterMillis();
+
+    if( reporter.hasRemoteReport() ) {
+      loss = reporter.getRemoteFractionLost();
+    }
+
+    lastLoss         = loss;
+    lastJitterMillis = jitterMillis;
+
+    updateRedundancy( loss );
+
+    int recommended = statistics.isTimestamped() ? chooseFramesPerPacket( loss, jitterMillis )
+                                                 : RtpAudioSender.DEFAULT_FRAMES_PER_PACKET;
+
+    if( recommended == sender.getFramesPerPacket() ) {
+      pendingFramesPerPacket = recommended;
+      return;
+    }
+
+    if( recommended != pendingFramesPerPacket ) {
+      pendingFramesPerPacket = recommended;
+      return;
+    }
+
+    Log.d( "PacketizationController", "Changing frames per packet " + sender.getFramesPerPacket() +
+           " -> " + recommended + " (loss=" + loss + " jitter=" + jitterMillis + "ms)" );
+    sender.setFramesPerPacket( recommended );
+    changes++;
+  }
+
+  private void updateRedundancy(float loss) {
+    boolean enabled = sender.isRedundancyEnabled();
+
+    if( !enabled && loss > REDUNDANCY_ON_LOSS && statistics.isTimestamped() ) {
+      Log.d( "PacketizationController", "Enabling redundancy (loss=" + loss + ")" );
+      sender.setRedundancyEnabled( true );
+    } else if( enabled && loss < REDUNDANCY_OFF_LOSS ) {
+      Log.d( "PacketizationController", "Disabling redundancy (loss=" + loss + ")" );
+      sender.setRedundancyEnabled( false );
+    }
+  }
+
+  static int chooseFramesPerPacket(float loss, int jitterMillis) {
+    if( loss > EXTREME_LOSS || jitterMillis > EXTREME_JITTER_MILLIS ) return 4;
+    if( loss > HIGH_LOSS    || jitterMillis > HIGH_JITTER_MILLIS    ) return 3;
+    if( loss < LOW_LOSS     && jitterMillis < LOW_JITTER_MILLIS     ) return 1;
+    return 2;
+  }
+
+  @Override
+  public Map<String, Object> sample() {
+    Map<String, Object> result = new HashMap<String, Object>(5);
+    result.put("frames-per-packet", sender.getFramesPerPacket());
+    result.put("redundancy", sender.isRedundancyEnabled());
+    result.put("loss", lastLoss);
+    result.put("jitter-millis", lastJitterMillis);
+    result.put("changes", changes);
+    return result;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.network;
+
+import org.thoughtcrime.redphone.util.Conversions;
+
+/**
+ * A receiver report describing how well one side of the call is receiving the other's stream.
+ *
+ * The fields follow the RFC 3550 report block, and the report travels as the payload of an
+ * ordinary encrypted and authenticated RTP packet with payload type {@link #PAYLOAD_TYPE}.
+ * Since both sides send receiver reports but no sender reports, each report also carries
+ * the time at which it was sent.  The peer echoes that time back as the last report
+ * timestamp along with the delay since it received the report, letting the original sender
+ * work out the round trip time.  All times are in milliseconds of the sender's own clock.
+ *
+ * <pre>
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                     SSRC of reported source                   |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * | fraction lost |       cumulative number of packets lost       |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |           extended highest sequence number received           |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                      interarrival jitter                      |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                         last report (LSR)                     |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                   delay since last report (DLSR)              |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                          report time                          |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * </pre>
+ */
+public class ReceiverReport {
+  public static final int PAYLOAD_TYPE = 97;
+  public static final int LENGTH       = 28;
+
+  private static final int SSRC_OFFSET            = 0;
+  private static final int FRACTION_LOST_OFFSET   = 4;
+  private static final int CUMULATIVE_LOST_OFFSET = 5;
+  private static final int HIGHEST_SEQ_OFFSET     = 8;
+  private static final int JITTER_OFFSET          = 12;
+  private static final int LSR_OFFSET             = 16;
+  private static final int DLSR_OFFSET            = 20;
+  private static final int REPORT_TIME_OFFSET     = 24;
+
+  private static final int MAX_CUMULATIVE_LOST =  0x7FFFFF;
+  private static final int MIN_CUMULATIVE_LOST = -0x800000;
+
+  public long ssrc;
+  public int  fractionLost;
+  public int  cumulativeLost;
+  public long highestSequence;
+  public long jitter;
+  public long lastReportTime;
+  public long delaySinceLastReport;
+  public long reportTime;
+
+  public int serialize(byte[] buffer, int offset) {
+    int lost = Math.max( MIN_CUMULATIVE_LOST, Math.min( MAX_CUMULATIVE_LOST, cumulativeLost ) );
+
+    Conversions.longTo4ByteArray(buffer, offset + SSRC_OFFSET, ssrc);
+    buffer[offset + FRACTION_LOST_OFFSET] = (byte)fractionLost;
+    Conversions.mediumToByteArray(buffer, offset + CUMULATIVE_LOST_OFFSET, lost);
+    Conversions.longTo4ByteArray(buffer, offset + HIGHEST_SEQ_OFFSET, highestSequence);
+    Conversions.longTo4ByteArray(buffer, offset + JITTER_OFFSET, jitter);
+    Conversions.longTo4ByteArray(buffer, offset + LSR_OFFSET, lastReportTime);
+    Conversions.longTo4ByteArray(buffer, offset + DLSR_OFFSET, delaySinceLastReport);
+    Conversions.longTo4ByteArray(buffer, offset + REPORT_TIME_OFFSET, reportTime);
+
+    return LENGTH;
+  }
+
+  /**
+   * @return true if the buffer held a complete report.
+   */
+  public boolean parse(byte[] buffer, int offset, int length) {
+    if (length < LENGTH)
+      return false;
+
+    ssrc                 = Conversions.byteArray4ToLong(buffer, offset + SSRC_OFFSET);
+    fractionLost         = buffer[offset + FRACTION_LOST_OFFSET] & 0xFF;
+    cumulativeLost       = (Conversions.byteArrayToMedium(buffer, offset + CUMULATIVE_LOST_OFFSET) << 8) >> 8;
+    highestSequence      = Conversions.byteArray4ToLong(buffer, offset + HIGHEST_SEQ_OFFSET);
+    jitter               = Conversions.byteArray4ToLong(buffer, offset + JITTER_OFFSET);
+    lastReportTime       = Conversions.byteArray4ToLong(buffer, offset + LSR_OFFSET);
+    delaySinceLastReport = Conversions.byteArray4ToLong(buffer, offset + DLSR_OFFSET);
+    reportTime           = Conversions.byteArray4ToLong(buffer, offset + REPORT_TIME_OFFSET);
+
+    return true;
+  }
+
+  /**
+   * @return the fraction of packets lost as a value between 0 and 1.
+   */
+  public float getFractionLost() {
+    return fractionLost / 256f;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.thoughtcrime.redphone.monitor.CallMonitor;
+import org.thoughtcrime.redphone.monitor.SampledMetrics;
+import org.thoughtcrime.redphone.profiling.PeriodicTimer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Periodically sends a {@link ReceiverReport} describing our reception of the remote stream,
+ * and keeps the most recent report received from the remote peer.  Together these give both
+ * ends of the call a view of path quality in each direction, plus the round trip time.
+ *
+ * Reports are only sent once the remote peer has been seen stamping RTP timestamps on its
+ * packets, since older clients would otherwise try to play the report as audio.
+ */
+public class ReceiverReporter implements SampledMetrics {
+  private static final long REPORT_INTERVAL_MILLIS = 5000;
+  private static final long MAX_ROUND_TRIP_MILLIS  = 10000;
+
+  private final RtpAudioSender      sender;
+  private final ReceptionStatistics statistics;
+  private final PeriodicTimer       timer        = new PeriodicTimer(REPORT_INTERVAL_MILLIS);
+  private final ReceiverReport      localReport  = new ReceiverReport();
+  private final ReceiverReport      remoteReport = new ReceiverReport();
+
+  private long lastRemoteReportTime    = 0;
+  private long lastRemoteReportArrival = 0;
+  private long roundTripMillis         = -1;
+  private int  reportsSent             = 0;
+  private int  reportsReceived         = 0;
+
+  public ReceiverReporter(RtpAudioSender sender, ReceptionStatistics statistics, CallMonitor monitor) {
+    this.sender     = sender;
+    this.statistics = statistics;
+
+    monitor.addSampledMetrics("receiver-reports", this);
+  }
+
+  public void update() throws IOException {
+    if( !statistics.isTimestamped() || !timer.periodically() ) return;
+
+    synchronized (this) {
+      long now = SystemClock.uptimeMillis();
+
+      localReport.ssrc            = statistics.getSourceSsrc();
+      localReport.fractionLost    = statistics.takeFractionLost();
+      localReport.cumulativeLost  = (int)statistics.getCumulativeLost();
+      localReport.highestSequence = statistics.getHighestSequence();
+      localReport.jitter          = statistics.getJitter();
+      localReport.reportTime      = now;
+
+      if( lastRemoteReportArrival != 0 ) {
+        localReport.lastReportTime       = lastRemoteReportTime;
+        localReport.delaySinceLastReport = now - lastRemoteReportArrival;
+      }
+
+      reportsSent++;
+    }
+
+    sender.sendReceiverReport(localReport);
+  }
+
+  /**
+   * Handles the payload of a receiver report packet from the remote peer.
+   */
+  public synchronized void onReceiverReport(byte[] data, int offset, int length, long arrivalMillis) {
+    if( !remoteReport.parse(data, offset, length) ) {
+      Log.w( "ReceiverReporter", "Short receiver report: " + length );
+      return;
+    }
+
+    reportsReceived++;
+    lastRemoteReportTime    = remoteReport.reportTime;
+    lastRemoteReportArrival = arrivalMillis;
+
+    if( remoteReport.lastReportTime != 0 ) {
+      long rtt = (arrivalMillis - remoteReport.lastReportTime - remoteReport.delaySinceLastReport) & 0xFFFFFFFFL;
+      if( rtt < MAX_ROUND_TRIP_MILLIS ) {
+        roundTripMillis = rtt;
+      }
+    }
+  }
+
+  /**
+   * @return the most recent round trip time measurement, or -1 if none is available yet.
+   */
+  public synchronized long getRoundTripMillis() {
+    return roundTripMillis;
+  }
+
+  public synchronized boolean hasRemoteReport() {
+    return reportsReceived > 0;
+  }
+
+  /**
+   * @return the fraction of our packets the remote peer reported lost, between 0 and 1.
+   */
+  public synchronized float getRemoteFractionLost() {
+    return remoteReport.getFractionLost();
+  }
+
+  @Override
+  public synchronized Map<String, Object> sample() {
+    Map<String, Object> result = new HashMap<String, Object>(12);
+    result.put("sent", reportsSent);
+    result.put("received", reportsReceived);
+    result.put("rtt-millis", roundTripMillis);
+    result.put("local-fraction-lost", localReport.getFractionLost());
+    result.put("local-cumulative-lost", localReport.cumulativeLost);
+    result.put("local-highest-seq", localReport.highestSequence);
+    result.put("local-jitter", localReport.jitter);
+    result.put("remote-fraction-lost", remoteReport.getFractionLost());
+    result.put("remote-cumulative-lost", remoteReport.cumulativeLost);
+    result.put("remote-highest-seq", remoteReport.highestSequence);
+    result.put("remote-jitter", remoteReport.jitter);
+    return result;
+  }
+}
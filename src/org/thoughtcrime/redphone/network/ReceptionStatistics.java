@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.network;
+
+import org.thoughtcrime.redphone.codec.AudioCodec;
+
+/**
+ * Tracks the loss and interarrival jitter of the incoming RTP stream, following the
+ * receiver statistics described in RFC 3550 section 6.4.1 and appendix A.
+ *
+ * Sequence numbers are the logical (unwrapped) packet sequence numbers produced by
+ * {@link org.thoughtcrime.redphone.crypto.SecureRtpSocket}.  Jitter is computed from the
+ * RTP timestamp and is kept in timestamp units, i.e. audio samples.
+ *
+ * The fraction lost is measured over the interval between calls to {@link #takeFractionLost()},
+ * which is called once for each receiver report we send.
+ */
+public class ReceptionStatistics {
+  private long baseSequence    = -1;
+  private long highestSequence = -1;
+  private long received        = 0;
+  private long expectedPrior   = 0;
+  private long receivedPrior   = 0;
+  private long sourceSsrc      = 0;
+  private long history         = 0;
+
+  private long   lastTransit;
+  private double jitter;
+  private boolean haveTransit = false;
+
+  /**
+   * Records the arrival of a packet.
+   *
+   * @param logicalSequence the unwrapped sequence number of the packet.
+   * @param rtpTimestamp the RTP timestamp of the packet, or -1 if the sender does not stamp one.
+   * @param arrivalMillis the local arrival time of the packet.
+   */
+  public synchronized void packetReceived(long logicalSequence, long rtpTimestamp, long arrivalMillis) {
+    packetReceived(logicalSequence);
+
+    if( rtpTimestamp < 0 ) return;
+
+    long arrival = arrivalMillis * AudioCodec.SAMPLE_RATE / 1000;
+    long transit = arrival - rtpTimestamp;
+
+    if( haveTransit ) {
+      long d = Math.abs( transit - lastTransit );
+      jitter += (d - jitter) / 16.0;
+    }
+
+    lastTransit = transit;
+    haveTransit = true;
+  }
+
+  /**
+   * Records the arrival of a packet that doesn't carry an audio timestamp.
+   */
+  public synchronized void packetReceived(long logicalSequence) {
+    if( baseSequence < 0 ) {
+      baseSequence    = logicalSequence;
+      highestSequence = logicalSequence;
+      history         = 1;
+    } else if( logicalSequence > highestSequence ) {
+      long shift      = logicalSequence - highestSequence;
+      history         = shift >= Long.SIZE ? 1 : (history << shift) | 1;
+      highestSequence = logicalSequence;
+    } else if( highestSequence - logicalSequence < Long.SIZE ) {
+      history |= 1L << (highestSequence - logicalSequence);
+    }
+
+    received++;
+  }
+
+  /**
+   * Whether a packet has arrived with the given sequence number.  Only the most recent
+   * 64 sequence numbers are remembered, anything older is reported as received.
+   */
+  public synchronized boolean hasReceived(long logicalSequence) {
+    if( baseSequence < 0 || logicalSequence > highestSequence ) return false;
+
+    long age = highestSequence - logicalSequence;
+    return age >= Long.SIZE || (history & (1L << age)) != 0;
+  }
+
+  public synchronized void setSourceSsrc(long ssrc) {
+    this.sourceSsrc = ssrc;
+  }
+
+  public synchronized long getSourceSsrc() {
+    return sourceSsrc;
+  }
+
+  /**
+   * @return true once the remote peer has sent a packet with an RTP timestamp.
+   */
+  public synchronized boolean isTimestamped() {
+    return haveTransit;
+  }
+
+  public synchronized long getHighestSequence() {
+    return highestSequence;
+  }
+
+  public synchronized long getPacketsExpected() {
+    if( baseSequence < 0 ) return 0;
+    return highestSequence - baseSequence + 1;
+  }
+
+  public synchronized long getPacketsReceived() {
+    return received;
+  }
+
+  /**
+   * The number of packets lost since the start of the stream.  Duplicates can make this
+   * negative, as in RFC 3550.
+   */
+  public synchronized long getCumulativeLost() {
+    return getPacketsExpected() - received;
+  }
+
+  /**
+   * Computes the fraction of packets lost since the last call, as an 8 bit fixed point
+   * number as described in RFC 3550 appendix A.3.
+   */
+  public synchronized int takeFractionLost() {
+    long expected         = getPacketsExpected();
+    long expectedInterval = expected - expectedPrior;
+    long receivedInterval = received - receivedPrior;
+    long lostInterval     = expectedInterval - receivedInterval;
+
+    expectedPrior = expected;
+    receivedPrior = received;
+
+    if( expectedInterval == 0 || lostInterval <= 0 ) return 0;
+    return (int)Math.min( 255, (lostInterval << 8) / expectedInterval );
+  }
+
+  /**
+   * @return the interarrival jitter in RTP timestamp units (samples).
+   */
+  public synchronized long getJitter() {
+    return (long)jitter;
+  }
+
+  public synchronized int getJitterMillis() {
+    return (int)(jitter * 1000 / AudioCodec.SAMPLE_RATE);
+  }
+}
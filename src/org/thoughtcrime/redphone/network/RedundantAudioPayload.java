@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.network;
+
+/**
+ * Reads and writes audio payloads that carry a redundant copy of the previous packet's
+ * frames, using the block layout of RFC 2198 with a single redundant block.
+ *
+ * <pre>
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |1|   block PT  |  timestamp offset         |   block length    |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |0|   block PT  |  redundant block ...  |  primary block ...    |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * </pre>
+ *
+ * The redundant block always holds the frames of the packet with the immediately preceding
+ * sequence number, and the timestamp offset is the number of samples between its first frame
+ * and the first frame of the primary block.
+ */
+public class RedundantAudioPayload {
+  public static final int PAYLOAD_TYPE = 98;
+
+  public static final int HEADER_LENGTH        = 5;
+  public static final int MAX_BLOCK_LENGTH     = 0x3FF;
+  public static final int MAX_TIMESTAMP_OFFSET = 0x3FFF;
+
+  private int timestampOffset;
+  private int redundantOffset;
+  private int redundantLength;
+  private int primaryOffset;
+  private int primaryLength;
+
+  /**
+   * Writes a redundant payload into the provided buffer.
+   *
+   * @return the length of the payload written.
+   */
+  public static int write(byte[] buffer, int blockPayloadType, int timestampOffset,
+                          byte[] redundant, int redundantLength,
+                          byte[] primary, int primaryLength)
+  {
+    buffer[0] = (byte)(0x80 | (blockPayloadType & 0x7F));
+    buffer[1] = (byte)(timestampOffset >> 6);
+    buffer[2] = (byte)(((timestampOffset & 0x3F) << 2) | ((redundantLength >> 8) & 0x03));
+    buffer[3] = (byte)redundantLength;
+    buffer[4] = (byte)(blockPayloadType & 0x7F);
+
+    System.arraycopy(redundant, 0, buffer, HEADER_LENGTH, redundantLength);
+    System.arraycopy(primary, 0, buffer, HEADER_LENGTH + redundantLength, primaryLength);
+
+    return HEADER_LENGTH + redundantLength + primaryLength;
+  }
+
+  public static boolean canCarry(int timestampOffset, int redundantLength) {
+    return timestampOffset >= 0 && timestampOffset <= MAX_TIMESTAMP_OFFSET &&
+           redundantLength <= MAX_BLOCK_LENGTH;
+  }
+
+  /**
+   * Parses the block headers of a redundant payload.
+   *
+   * @return true if the payload was well formed.
+   */
+  public boolean parse(byte[] data, int offset, int length) {
+    if (length < HEADER_LENGTH)
+      return false;
+
+    if ((data[offset] & 0x80) == 0 || (data[offset + 4] & 0x80) != 0)
+      return false;
+
+    timestampOffset = ((data[offset + 1] & 0xFF) << 6) | ((data[offset + 2] & 0xFF) >> 2);
+    redundantLength = ((data[offset + 2] & 0x03) << 8) | (data[offset + 3] & 0xFF);
+    redundantOffset = offset + HEADER_LENGTH;
+    primaryOffset   = redundantOffset + redundantLength;
+    primaryLength   = length - HEADER_LENGTH - redundantLength;
+
+    return primaryLength >= 0;
+  }
+
+  public int getTimestampOffset() {
+    return timestampOffset;
+  }
+
+  public int getRedundantOffset() {
+    return redundantOffset;
+  }
+
+  public int getRedundantLength() {
+    return redundantLength;
+  }
+
+  public int getPrimaryOffset() {
+    return primaryOffset;
+  }
+
+  public int getPrimaryLength() {
+    return primaryLength;
+  }
+}
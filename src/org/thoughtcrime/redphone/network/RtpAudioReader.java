@@ -17,74 +17,227 @@
 
 package org.thoughtcrime.redphone.network;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.thoughtcrime.redphone.audio.EncodedAudioData;
+import org.thoughtcrime.redphone.codec.AudioCodec;
 import org.thoughtcrime.redphone.crypto.SecureRtpPacket;
 import org.thoughtcrime.redphone.crypto.SecureRtpSocket;
+import org.thoughtcrime.redphone.monitor.CallMonitor;
+import org.thoughtcrime.redphone.monitor.CountMetric;
+import org.thoughtcrime.redphone.monitor.HistogramMetric;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
-import org.thoughtcrime.redphone.profiling.PeriodicTimer;
-import org.thoughtcrime.redphone.profiling.TimeProfiler;
+import org.thoughtcrime.redphone.util.RingBuffer;
 
 import java.io.IOException;
-import java.util.List;
+
 /**
  * RtpAudioReader listens to a {@link SecureRtpSocket} and writes the incoming {@link EncodedAudioData} to
  * a queue.
  *
+ * Each call to {@link #go()} drains every datagram waiting in the socket, up to a configurable
+ * batch size, so that a burst of packets queued up behind a network stall reaches the jitter
+ * buffer in a single pass.  The size of each batch is reported to the {@link CallMonitor}.
+ *
+ * Packets are received into buffers checked out of a {@link PacketReservoir}.  The queued
+ * {@link EncodedAudioData} references the decrypted payload in place, and is recycled by the
+ * consumer once it has been played or discarded.
+ *
+ * Queued audio is keyed by codec frame index, taken from the RTP timestamp, so the jitter buffer
+ * works the same whatever number of frames the sender puts in each packet.  Peers that don't
+ * stamp the RTP version and timestamp always send {@link #LEGACY_FRAMES_PER_PACKET} frames per
+ * packet, and their frame index is derived from the packet sequence number instead.
+ *
+ * Packets carrying a {@link ReceiverReport} are handed to the {@link ReceiverReporter} rather
+ * than queued as audio.  Packets carrying a {@link RedundantAudioPayload} have their primary
+ * frames queued, and their redundant frames too when the previous packet never arrived.
+ *
  * @author Stuart O. Anderson
  */
 public class RtpAudioReader {
+  private static final int MAX_PACKET_SIZE          = 1500;
+  private static final int LEGACY_FRAMES_PER_PACKET = 2;
 
-  private final List<EncodedAudioData> audioQueue;
+  private final RingBuffer<EncodedAudioData> audioQueue;
+  private final PacketReservoir reservoir = new PacketReservoir(MAX_PACKET_SIZE);
+  private final SecureRtpPacket inPacket  = new SecureRtpPacket(null, 0);
   private final SecureRtpSocket socket;
-  private final PeriodicTimer recvTimer = new PeriodicTimer((long) (1000/60.0));
+  private final EncodedAudioData[] batch;
+  private final int maxBatchSize;
+  private int batchLength;
+  private final HistogramMetric batchSizes;
+  private final CountMetric redundancyCounts = new CountMetric();
+  private final RedundantAudioPayload redundantPayload = new RedundantAudioPayload();
+  private final ReceptionStatistics statistics = new ReceptionStatistics();
+  private ReceiverReporter reporter;
   private long expectedSequenceNumber = 0;
   private int sequenceAnomalies = 0;
   private PacketLogger packetLogger;
 
-  public RtpAudioReader(List<EncodedAudioData> incomingAudio,
-                        SecureRtpSocket socket, PacketLogger packetLogger) {
-    this.socket = socket;
-    audioQueue = incomingAudio;
+  public RtpAudioReader(RingBuffer<EncodedAudioData> incomingAudio, SecureRtpSocket socket,
+                        PacketLogger packetLogger, CallMonitor monitor, int maxBatchSize) {
+    this.socket       = socket;
+    this.audioQueue   = incomingAudio;
     this.packetLogger = packetLogger;
+    this.maxBatchSize = maxBatchSize;
+    this.batch        = new EncodedAudioData[maxBatchSize * 2];
+    this.batchSizes   = new HistogramMetric(0, maxBatchSize, maxBatchSize + 1);
+
+    monitor.addSampledMetrics("rtp-reader-batch", batchSizes);
+    monitor.addSampledMetrics("rtp-reader-redundancy", redundancyCounts);
   }
 
-  private int consecutiveReads = 0;
   private int totalReads = 0;
   public void go() throws IOException {
-    //if( !recvTimer.periodically()) return;
+    int batchSize = receiveBatch();
+    batchSizes.addEvent(batchSize);
 
-    SecureRtpPacket inPacket = socket.receive();
-
-    if( inPacket == null ) {
-      consecutiveReads=0;
+    if( batchSize == 0 ) {
       packetLogger.logPacket( expectedSequenceNumber, PacketLogger.FAILED_READ );
       return;
     }
-    consecutiveReads++;
-    totalReads++;
-    if( consecutiveReads > 30 ) {
-      Log.e("RtpAudioReader", "consecutiveReads=" + consecutiveReads + " totalReads=" + totalReads );
+
+    totalReads += batchSize;
+    if( batchSize == maxBatchSize ) {
+      Log.w("RtpAudioReader", "Receive batch full, batchSize=" + batchSize + " totalReads=" + totalReads );
     }
 
-    packetLogger.logPacket( inPacket.getLogicalSequence(), PacketLogger.PACKET_RECEIVED, audioQueue.size() );
+    for( int i=0; i < batchLength; i++ ) {
+      enqueue( batch[i] );
+      batch[i] = null;
+    }
+  }
+
+  private int receiveBatch() throws IOException {
+    int batchSize = 0;
+    long now      = SystemClock.uptimeMillis();
 
-    if( inPacket.getLogicalSequence() != expectedSequenceNumber ) {
+    batchLength = 0;
+
+    while( batchSize < maxBatchSize ) {
+      EncodedAudioData audioData = reservoir.getBuffer();
+      inPacket.setPacket(audioData.receiveBuffer, audioData.data.length);
+
+      if( !socket.receive(inPacket) ) {
+        audioData.recycle();
+        break;
+      }
+
+      audioData.offset               = inPacket.getPayloadOffset();
+      audioData.length               = inPacket.getPayloadLength();
+      audioData.sourceSequenceNumber = inPacket.getLogicalSequence();
+      checkSequence( audioData.sourceSequenceNumber );
+
+      if( inPacket.getVersion() == RtpPacket.PACKET_VERSION &&
+          inPacket.getPayloadType() == ReceiverReport.PAYLOAD_TYPE )
+      {
+        statistics.packetReceived( inPacket.getLogicalSequence() );
+        if( reporter != null ) {
+          reporter.onReceiverReport( audioData.data, audioData.offset, audioData.length, now );
+        }
+        audioData.recycle();
+        batchSize++;
+        continue;
+      }
+
+      if( inPacket.getVersion() == RtpPacket.PACKET_VERSION ) {
+        statistics.setSourceSsrc( inPacket.getSSRC() );
+        long timestamp           = inPacket.getTimeStamp();
+        audioData.sequenceNumber = timestamp / AudioCodec.SAMPLES_PER_FRAME;
+        statistics.packetReceived( inPacket.getLogicalSequence(), timestamp, now );
+      } else {
+        audioData.sequenceNumber = inPacket.getLogicalSequence() * LEGACY_FRAMES_PER_PACKET;
+        statistics.packetReceived( inPacket.getLogicalSequence(), -1, now );
+      }
+
+      if( inPacket.getVersion() == RtpPacket.PACKET_VERSION &&
+          inPacket.getPayloadType() == RedundantAudioPayload.PAYLOAD_TYPE )
+      {
+        if( !redundantPayload.parse( audioData.data, audioData.offset, audioData.length ) ) {
+          Log.w("RtpAudioReader", "Malformed redundant payload");
+          audioData.recycle();
+          batchSize++;
+          continue;
+        }
+
+        recoverRedundant( audioData );
+
+        audioData.offset = redundantPayload.getPrimaryOffset();
+        audioData.length = redundantPayload.getPrimaryLength();
+      }
+
+      batch[batchLength++] = audioData;
+      batchSize++;
+    }
+
+    return batchSize;
+  }
+
+  private void recoverRedundant( EncodedAudioData primary ) {
+    long previousSequence = primary.sourceSequenceNumber - 1;
+
+    if( statistics.hasReceived( previousSequence ) ) return;
+
+    EncodedAudioData recovered = reservoir.getBuffer();
+    int length                 = redundantPayload.getRedundantLength();
+
+    System.arraycopy( primary.data, redundantPayload.getRedundantOffset(), recovered.data, 0, length );
+    recovered.offset               = 0;
+    recovered.length               = length;
+    recovered.sourceSequenceNumber = previousSequence;
+    recovered.sequenceNumber       = primary.sequenceNumber -
+                                     redundantPayload.getTimestampOffset() / AudioCodec.SAMPLES_PER_FRAME;
+
+    packetLogger.logPacket( recovered.sequenceNumber, PacketLogger.PACKET_RECOVERED );
+    redundancyCounts.increment( "recovered", 1 );
+
+    batch[batchLength++] = recovered;
+  }
+
+  private void checkSequence( long sequenceNumber ) {
+    if( sequenceNumber != expectedSequenceNumber ) {
       sequenceAnomalies++;
-      Log.d("RtpAudioReader", "Sequence Anomaly: " + inPacket.getLogicalSequence() + " != " + expectedSequenceNumber );
-      expectedSequenceNumber = inPacket.getLogicalSequence();
+      Log.d("RtpAudioReader", "Sequence Anomaly: " + sequenceNumber + " != " + expectedSequenceNumber );
+      expectedSequenceNumber = sequenceNumber;
     }
     expectedSequenceNumber++;
+  }
+
+  private void enqueue( EncodedAudioData audioData ) {
+    packetLogger.logPacket( audioData.sequenceNumber, PacketLogger.PACKET_RECEIVED, audioQueue.size() );
+
+    EncodedAudioData evicted = audioQueue.offer(audioData);
+    if( evicted != null ) {
+      Log.w("RtpAudioReader", "Incoming audio queue full, dropped " + evicted.sequenceNumber );
+      evicted.recycle();
+    }
+  }
 
-    TimeProfiler.startBlock("VR:receiveAudio:getPayload" );
-    byte packetData[] = inPacket.getPayload();
-    TimeProfiler.stopBlock("VR:receiveAudio:getPayload" );
+  /**
+   * Prepares the keystream for the next few incoming packets.  Must be called from the thread
+   * that receives.
+   */
+  public void prefetchKeystream() {
+    socket.prefetchIncomingKeystream();
+  }
 
-    audioQueue.add(new EncodedAudioData(packetData, inPacket.getLogicalSequence(), inPacket.getSequenceNumber() ));
+  /**
+   * Sleeps until a packet is ready to be read or the timeout expires.
+   */
+  public void waitForPacket(long timeoutMillis) throws IOException {
+    socket.waitForReadable(timeoutMillis);
   }
 
   public long sequenceNumber() {
     return expectedSequenceNumber;
   }
+
+  public ReceptionStatistics getStatistics() {
+    return statistics;
+  }
+
+  public void setReceiverReporter(ReceiverReporter reporter) {
+    this.reporter = reporter;
+  }
 }
@@ -21,30 +21,55 @@ import android.os.SystemClock;
 import android.util.Log;
 
 import org.thoughtcrime.redphone.audio.EncodedAudioData;
+import org.thoughtcrime.redphone.codec.AudioCodec;
 import org.thoughtcrime.redphone.crypto.SecureRtpPacket;
 import org.thoughtcrime.redphone.crypto.SecureRtpSocket;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
 import org.thoughtcrime.redphone.profiling.StatisticsWatcher;
+import org.thoughtcrime.redphone.util.RingBuffer;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.security.SecureRandom;
 
 /**
  * RtpAudioSender bundles one or more {@link EncodedAudioData} objects into a
  * {@link SecureRtpPacket} and writes that packet to the provided {@link SecureRtpSocket}
  *
+ * The number of frames bundled into each packet can be changed during the call.  Every packet
+ * carries the RTP version and a timestamp set to the sample index of its first frame, which
+ * lets the receiver place each frame on the playout timeline regardless of the packetization.
+ *
+ * {@link ReceiverReport}s are sent through the same sequence space as audio packets, since
+ * the outgoing stream's keystream is derived from the sequence number.
+ *
+ * When redundancy is enabled each audio packet also carries the frames of the packet before it
+ * as a {@link RedundantAudioPayload}, so the receiver can recover from isolated losses.  The
+ * packet following a receiver report carries no redundancy, since the redundant block must
+ * belong to the immediately preceding sequence number.
+ *
  * @author Stuart O. Anderson
  */
 public class RtpAudioSender {
   // TODO: fix this with a proper codec negotiation
   public final static int payloadType = 96;
 
-  public final static int audioChunksPerPacket = 2;
+  public final static int MIN_FRAMES_PER_PACKET     = 1;
+  public final static int MAX_FRAMES_PER_PACKET     = 4;
+  public final static int DEFAULT_FRAMES_PER_PACKET = 2;
+
+  private volatile int framesPerPacket = DEFAULT_FRAMES_PER_PACKET;
+  private volatile boolean redundancyEnabled = false;
+  private final long ssrc = new SecureRandom().nextInt() & 0xFFFFFFFFL;
   private int packetSequenceNumber = 0;
+  private long lastTimestamp = 0;
   private SecureRtpSocket socket;
-  private LinkedList<EncodedAudioData> audioQueue;
+  private RingBuffer<EncodedAudioData> audioQueue;
   private final byte payloadBuffer[] = new byte[1024];
-  private final SecureRtpPacket outPacket = new SecureRtpPacket(1024);
+  private final byte previousPayload[] = new byte[1024];
+  private final byte redundantPayload[] = new byte[2048];
+  private int previousLength = -1;
+  private long previousTimestamp;
+  private final SecureRtpPacket outPacket = new SecureRtpPacket(2048);
 
   private StatisticsWatcher timeWatcher = new StatisticsWatcher();
   private long lastTime;
@@ -54,7 +79,7 @@ public class RtpAudioSender {
 
   private PacketLogger packetLogger;
 
-  public RtpAudioSender(LinkedList<EncodedAudioData> outgoingAudio,
+  public RtpAudioSender(RingBuffer<EncodedAudioData> outgoingAudio,
                         SecureRtpSocket socket, PacketLogger packetLogger) {
     this.socket       = socket;
     this.audioQueue   = outgoingAudio;
@@ -66,12 +91,19 @@ public class RtpAudioSender {
 
 
   public void go() throws IOException {
+    int frames = framesPerPacket;
 
-    if( audioQueue.size() < audioChunksPerPacket ) {
+    if( audioQueue.size() < frames ) {
       consecutiveSends = 0;
       return;
     }
 
+    while( audioQueue.size() >= frames ) {
+      sendPacket( frames );
+    }
+  }
+
+  private void sendPacket(int frames) throws IOException {
     consecutiveSends++;
     totalSends++;
     if( consecutiveSends > 15 && consecutiveSends%20==0) {
@@ -79,42 +111,98 @@ public class RtpAudioSender {
     }
 
     int payloadOffset = 0;
-    for( int packet = 0; packet < audioChunksPerPacket; packet++ ) {
-      if( audioQueue.size() != 0 ) {
-        EncodedAudioData ead = audioQueue.removeFirst();
-        byte chunkData[] = ead.data;
-        System.arraycopy(chunkData, 0, payloadBuffer, payloadOffset, chunkData.length );
+    long firstFrame   = 0;
+    for( int packet = 0; packet < frames; packet++ ) {
+      EncodedAudioData ead = audioQueue.poll();
+      if( ead != null ) {
+        System.arraycopy(ead.data, ead.offset, payloadBuffer, payloadOffset, ead.length );
 
         if( payloadOffset == 0 ) {
           //TODO is the cast-to-int a problem?
           packetLogger.logPacket( ead.sequenceNumber, PacketLogger.PACKET_SENDING );
+          firstFrame = ead.sequenceNumber;
         }
         else {
           packetLogger.logPacket( ead.sequenceNumber, PacketLogger.PACKET_BUNDLED );
         }
 
-        payloadOffset += chunkData.length;
+        payloadOffset += ead.length;
       }
     }
 
-    outPacket.setPayload(payloadBuffer, payloadOffset);
+    lastTimestamp = firstFrame * AudioCodec.SAMPLES_PER_FRAME;
 
-    outPacket.setPayloadType(payloadType);
+    int timestampOffset = (int)(lastTimestamp - previousTimestamp);
 
-    outPacket.setSequenceNumber(packetSequenceNumber);
-    socket.send(outPacket);
+    if( redundancyEnabled && previousLength >= 0 &&
+        RedundantAudioPayload.canCarry( timestampOffset, previousLength ) )
+    {
+      int length = RedundantAudioPayload.write( redundantPayload, payloadType, timestampOffset,
+                                                previousPayload, previousLength,
+                                                payloadBuffer, payloadOffset );
+      send(RedundantAudioPayload.PAYLOAD_TYPE, redundantPayload, length);
+    } else {
+      send(payloadType, payloadBuffer, payloadOffset);
+    }
+
+    System.arraycopy(payloadBuffer, 0, previousPayload, 0, payloadOffset);
+    previousLength    = payloadOffset;
+    previousTimestamp = lastTimestamp;
     mSentPackets++;
-    packetSequenceNumber++;
 
     printDebug();
   }
 
+  public void sendReceiverReport(ReceiverReport report) throws IOException {
+    int length = report.serialize(payloadBuffer, 0);
+    send(ReceiverReport.PAYLOAD_TYPE, payloadBuffer, length);
+    previousLength = -1;
+  }
+
+  private void send(int type, byte[] payload, int payloadLength) throws IOException {
+    outPacket.setPayload(payload, payloadLength);
+
+    outPacket.setVersion();
+    outPacket.setPayloadType(type);
+    outPacket.setTimeStamp(lastTimestamp);
+    outPacket.setSSRC(ssrc);
+
+    outPacket.setSequenceNumber(packetSequenceNumber);
+    socket.send(outPacket);
+    packetSequenceNumber++;
+  }
+
   private void printDebug() {
     long now = SystemClock.uptimeMillis();
     timeWatcher.observeValue((int)(now-lastTime));
     lastTime = now;
   }
 
+  public int getFramesPerPacket() {
+    return framesPerPacket;
+  }
+
+  public void setFramesPerPacket(int framesPerPacket) {
+    this.framesPerPacket = Math.max( MIN_FRAMES_PER_PACKET,
+                                     Math.min( MAX_FRAMES_PER_PACKET, framesPerPacket ) );
+  }
+
+  public boolean isRedundancyEnabled() {
+    return redundancyEnabled;
+  }
+
+  public void setRedundancyEnabled(boolean redundancyEnabled) {
+    this.redundancyEnabled = redundancyEnabled;
+  }
+
+  /**
+   * Prepares the keystream for the next few outgoing packets.  Must be called from the thread
+   * that sends.
+   */
+  public void prefetchKeystream() {
+    socket.prefetchOutgoingKeystream();
+  }
+
   public int getSequenceNumber() {
     return packetSequenceNumber;
   }
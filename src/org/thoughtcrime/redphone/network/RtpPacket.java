@@ -19,6 +19,8 @@ package org.thoughtcrime.redphone.network;
 
 import org.thoughtcrime.redphone.util.Conversions;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class builds an RTP packet
  * reference: rfc3550
@@ -33,6 +35,7 @@ public class RtpPacket {
 
   protected byte data[];
   protected int packetLength;
+  private ByteBuffer byteBuffer;
 
   public RtpPacket( int payloadLength ) {
     packetLength = payloadLength + HEADER_LENGTH;
@@ -50,6 +53,25 @@ public class RtpPacket {
     System.arraycopy(data, 0, this.data, 0, packetLength);
   }
 
+  /**
+   * Re-points this packet at a different backing buffer, allowing a single RtpPacket
+   * to act as a view over pooled receive buffers.
+   */
+  public void setPacket(byte[] data, int packetLength) {
+    this.data         = data;
+    this.packetLength = packetLength;
+  }
+
+  /**
+   * Re-points this packet at a pooled buffer, reusing the buffer's existing
+   * {@link ByteBuffer} wrapper for channel I/O.
+   */
+  public void setPacket(ByteBuffer buffer, int packetLength) {
+    this.byteBuffer   = buffer;
+    this.data         = buffer.array();
+    this.packetLength = packetLength;
+  }
+
   public void setVersion(){
     data[0]	= (byte) ((data[0] & 0x3F) | ((PACKET_VERSION & 0x03) << 6 ));
   }
@@ -142,11 +164,34 @@ public class RtpPacket {
     return result;
   }
 
+  public int getPayloadOffset() {
+    return HEADER_LENGTH;
+  }
+
+  public int getPayloadLength() {
+    return packetLength - HEADER_LENGTH;
+  }
+
   public byte[] getPacket() {
     return data;
   }
 
+  /**
+   * @return a {@link ByteBuffer} backed by this packet's data, created only when the
+   * backing array changes.
+   */
+  public ByteBuffer getByteBuffer() {
+    if (byteBuffer == null || byteBuffer.array() != data) {
+      byteBuffer = ByteBuffer.wrap(data);
+    }
+    return byteBuffer;
+  }
+
   public int getPacketLength() {
     return packetLength;
   }
+
+  public void setPacketLength(int packetLength) {
+    this.packetLength = packetLength;
+  }
 }
@@ -20,38 +20,59 @@ package org.thoughtcrime.redphone.network;
 import android.os.SystemClock;
 import android.util.Log;
 
-import org.thoughtcrime.redphone.call.CallStateListener;
 import org.thoughtcrime.redphone.profiling.PeriodicTimer;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 
 /**
- * RtpSocket wraps a {@link DatagramSocket}, allowing {@link RtpPacket}s to be sent a received.
+ * RtpSocket wraps a non-blocking {@link DatagramChannel}, allowing {@link RtpPacket}s to be sent
+ * and received.
+ *
+ * Reads never block.  Callers that want to wait for network data do so explicitly with
+ * {@link #waitForReadable(long)}, which sleeps in a {@link Selector} until the channel becomes
+ * readable or the supplied deadline passes, so an idle call does not wake up once per
+ * millisecond.
  *
  * @author Stuart O. Anderson
  */
 public class RtpSocket {
   private final byte [] buf = new byte[4096];
-  private DatagramSocket socket;
+  private final ByteBuffer receiveBuffer = ByteBuffer.wrap(buf);
+  private final DatagramChannel channel;
+  private final Selector selector;
+  private int timeoutMillis = 1;
 
   public RtpSocket(int localPort, InetSocketAddress remoteAddress) throws SocketException {
-    socket = new DatagramSocket(localPort);
-    socket.setSoTimeout(1);
-    socket.connect(new InetSocketAddress(remoteAddress.getAddress().getHostAddress(), remoteAddress.getPort()));
+    try {
+      channel = DatagramChannel.open();
+      channel.socket().bind(new InetSocketAddress(localPort));
+      channel.connect(new InetSocketAddress(remoteAddress.getAddress().getHostAddress(), remoteAddress.getPort()));
+      channel.configureBlocking(false);
+
+      selector = Selector.open();
+      channel.register(selector, SelectionKey.OP_READ);
+    } catch (SocketException e) {
+      throw e;
+    } catch (IOException e) {
+      SocketException se = new SocketException("Unable to open RTP channel: " + e.getMessage());
+      se.initCause(e);
+      throw se;
+    }
     Log.d( "RtpSocket", "Connected to: " + remoteAddress.getAddress().getHostAddress() );
   }
 
+  /**
+   * Sets how long {@link #receive()} will wait for a packet before giving up.
+   */
   public void setTimeout(int timeoutMillis) {
-    try {
-      socket.setSoTimeout(timeoutMillis);
-    } catch (SocketException e) {
-      Log.w("RtpSocket", e);
-    }
+    this.timeoutMillis = timeoutMillis;
   }
 
   private long totalSendTime = 0;
@@ -60,9 +81,12 @@ public class RtpSocket {
   public void send(RtpPacket outPacket) throws IOException {
     long start = SystemClock.uptimeMillis();
     try {
-      socket.send(new DatagramPacket(outPacket.getPacket(), outPacket.getPacketLength()));
+      ByteBuffer sendBuffer = outPacket.getByteBuffer();
+      sendBuffer.clear();
+      sendBuffer.limit(outPacket.getPacketLength());
+      channel.write(sendBuffer);
     } catch (IOException e) {
-      if (!socket.isClosed()) {
+      if (channel.isOpen()) {
         throw new IOException(e);
       }
     }
@@ -74,24 +98,90 @@ public class RtpSocket {
     }
   }
 
+  /**
+   * Receives a packet into a buffer shared by all calls to this method, waiting up to the
+   * configured timeout for one to arrive.
+   */
   public RtpPacket receive() throws IOException {
     try {
-      DatagramPacket dataPack = new DatagramPacket(buf, buf.length);
-      socket.setSoTimeout(1);
-      socket.receive(dataPack);
-      RtpPacket inPacket = new RtpPacket(dataPack.getData(), dataPack.getLength());
-      return inPacket;
-    } catch( SocketTimeoutException e ) {
-      //Do Nothing.
+      receiveBuffer.clear();
+      if (channel.read(receiveBuffer) <= 0) {
+        if (!waitForReadable(timeoutMillis)) {
+          return null;
+        }
+
+        receiveBuffer.clear();
+        if (channel.read(receiveBuffer) <= 0) {
+          return null;
+        }
+      }
+
+      return new RtpPacket(buf, receiveBuffer.position());
     } catch (IOException e) {
-      if (!socket.isClosed()) {
+      if (channel.isOpen()) {
         throw new IOException(e);
       }
     }
     return null;
   }
 
+  /**
+   * Receives a datagram directly into the backing buffer of the provided packet, without
+   * allocating or blocking.  The packet's length is updated to match the datagram that was read.
+   *
+   * @return true if a packet was read, false if none was available.
+   */
+  public boolean receive(RtpPacket packet) throws IOException {
+    try {
+      ByteBuffer packetBuffer = packet.getByteBuffer();
+      packetBuffer.clear();
+      if (channel.read(packetBuffer) <= 0) {
+        return false;
+      }
+
+      packet.setPacketLength(packetBuffer.position());
+      return true;
+    } catch (IOException e) {
+      if (channel.isOpen()) {
+        throw new IOException(e);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Blocks until the channel has a packet waiting to be read, or until timeoutMillis has
+   * elapsed.  A timeout of zero or less polls without blocking.
+   *
+   * @return true if the channel is readable.
+   */
+  public boolean waitForReadable(long timeoutMillis) throws IOException {
+    try {
+      int readyCount;
+      if (timeoutMillis <= 0) {
+        readyCount = selector.selectNow();
+      } else {
+        readyCount = selector.select(timeoutMillis);
+      }
+
+      selector.selectedKeys().clear();
+      return readyCount > 0;
+    } catch (ClosedSelectorException e) {
+      return false;
+    }
+  }
+
   public void close() {
-    socket.close();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      Log.w("RtpSocket", e);
+    }
+
+    try {
+      selector.close();
+    } catch (IOException e) {
+      Log.w("RtpSocket", e);
+    }
   }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.profiling;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records when each thread of a call enters and leaves named spans of code, and exports them
+ * as a Chrome trace-event JSON file that can be opened in chrome://tracing or Perfetto to see
+ * what every part of the call pipeline was doing on one timeline.
+ *
+ * Spans are registered once, typically in a static initializer, and the returned id is passed
+ * to {@link #begin(int)} and {@link #end(int)}:
+ *
+ * <pre>
+ * private static final int SPAN_ENCRYPT = CallTracer.registerSpan("SRPS:send:encrypt");
+ * ...
+ * CallTracer.begin(SPAN_ENCRYPT);
+ * ...
+ * CallTracer.end(SPAN_ENCRYPT);
+ * </pre>
+ *
+ * Outside of a trace session begin and end return after a single volatile read.  During a
+ * session each thread records into its own preallocated ring, which keeps only the most recent
+ * {@link #EVENTS_PER_THREAD} spans, so memory stays bounded however long the call runs.
+ * Spans with the same id can't nest within one thread.
+ */
+public class CallTracer {
+  private static final String TAG = "CallTracer";
+
+  public  static final String TRACE_FILENAME    = "callTrace.json";
+  public  static final int    EVENTS_PER_THREAD = 16384;
+  private static final int    MAX_SPANS         = 64;
+
+  private static final String[] spanNames = new String[MAX_SPANS];
+  private static int spanCount = 0;
+
+  private static volatile TraceSession session;
+
+  private static final ThreadLocal<ThreadTrace> threadTrace = new ThreadLocal<ThreadTrace>();
+
+  /**
+   * @return the id to trace the named span with, or -1 if too many spans have been registered.
+   */
+  public static synchronized int registerSpan(String name) {
+    for (int i = 0; i < spanCount; i++) {
+      if (spanNames[i].equals(name)) return i;
+    }
+
+    if (spanCount == MAX_SPANS) {
+      Log.w(TAG, "Too many spans, not tracing: " + name);
+      return -1;
+    }
+
+    spanNames[spanCount] = name;
+    return spanCount++;
+  }
+
+  public static void begin(int span) {
+    TraceSession current = session;
+    if (current == null || span < 0) return;
+
+    getThreadTrace(current).begin(span, System.nanoTime());
+  }
+
+  public static void end(int span) {
+    TraceSession current = session;
+    if (current == null || span < 0) return;
+
+    getThreadTrace(current).end(span, System.nanoTime());
+  }
+
+  /**
+   * Starts recording spans for a new call, discarding anything recorded before.
+   */
+  public static void startSession() {
+    session = new TraceSession();
+  }
+
+  /**
+   * Stops recording and writes the session's spans to {@link #TRACE_FILENAME} from a
+   * background thread.
+   */
+  public static void finishSession(final Context context) {
+    final TraceSession finished = session;
+    session = null;
+
+    if (finished == null) return;
+
+    new Thread("CallTracer export") {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+        try {
+          Writer out = new BufferedWriter(new OutputStreamWriter(
+              context.openFileOutput(TRACE_FILENAME, Context.MODE_WORLD_READABLE)));
+
+          try {
+            finished.export(out);
+          } finally {
+            out.close();
+          }
+        } catch (FileNotFoundException e) {
+          Log.w(TAG, e);
+        } catch (IOException e) {
+          Log.w(TAG, e);
+        }
+      }
+    }.start();
+  }
+
+  private static ThreadTrace getThreadTrace(TraceSession current) {
+    ThreadTrace trace = threadTrace.get();
+
+    if (trace == null || trace.session != current) {
+      trace = current.addThread(Thread.currentThread().getName());
+      threadTrace.set(trace);
+    }
+
+    return trace;
+  }
+
+  private static synchronized String getSpanName(int span) {
+    return spanNames[span];
+  }
+
+  private static class TraceSession {
+    private final long              startNanos = System.nanoTime();
+    private final List<ThreadTrace> threads    = new ArrayList<ThreadTrace>();
+
+    public synchronized ThreadTrace addThread(String threadName) {
+      ThreadTrace trace = new ThreadTrace(this, threads.size() + 1, threadName);
+      threads.add(trace);
+      return trace;
+    }
+
+    public void export(Writer out) throws IOException {
+      List<ThreadTrace> snapshot;
+
+      synchronized (this) {
+        snapshot = new ArrayList<ThreadTrace>(threads);
+      }
+
+      out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+
+      boolean first = true;
+
+      for (ThreadTrace trace : snapshot) {
+        if (!first) out.write(",\n");
+        first = false;
+
+        out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+        out.write(Integer.toString(trace.threadId));
+        out.write(",\"args\":{\"name\":\"");
+        writeEscaped(out, trace.threadName);
+        out.write("\"}}");
+
+        int  count  = trace.count;
+        int  oldest = Math.max(0, count - EVENTS_PER_THREAD);
+
+        for (int i = oldest; i < count; i++) {
+          int slot = i % EVENTS_PER_THREAD;
+
+          out.write(",\n{\"name\":\"");
+          writeEscaped(out, getSpanName(trace.spans[slot]));
+          out.write("\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+          out.write(Integer.toString(trace.threadId));
+          out.write(",\"ts\":");
+          writeMicros(out, trace.starts[slot] - startNanos);
+          out.write(",\"dur\":");
+          writeMicros(out, trace.durations[slot]);
+          out.write("}");
+        }
+      }
+
+      out.write("\n]}\n");
+    }
+
+    private static void writeMicros(Writer out, long nanos) throws IOException {
+      long   fraction = Math.abs(nanos % 1000);
+      String digits   = Long.toString(fraction + 1000).substring(1);
+
+      if (nanos < 0 && nanos > -1000) out.write('-');
+      out.write(Long.toString(nanos / 1000));
+      out.write('.');
+      out.write(digits);
+    }
+
+    private static void writeEscaped(Writer out, String value) throws IOException {
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+
+        if      (c == '"' || c == '\\') out.write("\\" + c);
+        else if (c < 0x20)              out.write(' ');
+        else                            out.write(c);
+      }
+    }
+  }
+
+  /**
+   * Spans recorded by one thread.  Only the owning thread writes to it; the count is
+   * published last so the exporter never reads a half written span.
+   */
+  private static class ThreadTrace {
+    private final TraceSession session;
+    private final int          threadId;
+    private final String       threadName;
+
+    private final long[] openSince = new long[MAX_SPANS];
+    private final int[]  spans     = new int[EVENTS_PER_THREAD];
+    private final long[] starts    = new long[EVENTS_PER_THREAD];
+    private final long[] durations = new long[EVENTS_PER_THREAD];
+
+    private volatile int count = 0;
+
+    public ThreadTrace(TraceSession session, int threadId, String threadName) {
+      this.session    = session;
+      this.threadId   = threadId;
+      this.threadName = threadName;
+    }
+
+    public void begin(int span, long now) {
+      openSince[span] = now;
+    }
+
+    public void end(int span, long now) {
+      long start = openSince[span];
+      if (start == 0) return;
+
+      int slot = count % EVENTS_PER_THREAD;
+
+      spans[slot]     = span;
+      starts[slot]    = start;
+      durations[slot] = now - start;
+      openSince[span] = 0;
+
+      count++;
+    }
+  }
+}
@@ -17,10 +17,17 @@
 
 package org.thoughtcrime.redphone.profiling;
 
-import android.os.SystemClock;
+import android.content.Context;
+import android.util.Log;
 
+import org.thoughtcrime.redphone.ApplicationContext;
 import org.thoughtcrime.redphone.Release;
-import org.thoughtcrime.redphone.audio.FileLogger;
+import org.thoughtcrime.redphone.monitor.CallMonitor;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 /**
  * Logs information about audio packet events to a file.
@@ -34,10 +41,18 @@ import org.thoughtcrime.redphone.audio.FileLogger;
  *
  * The sequence number is always the codec sequence number, not the RTP sequence number
  *
+ * During a call events are captured by a {@link PacketTraceRecorder} in a compact binary form,
+ * which costs the audio threads no more than a few array stores per event.  The text log is
+ * produced from the binary trace by {@link #exportText(Context)} when it's needed.
+ *
+ * Independently of the trace, stage events also feed a {@link StageLatencyTracker}, which
+ * reports how long frames spend in each part of the pipeline on every call.
+ *
  * @author Stuart O. Anderson
  */
-public class PacketLogger extends FileLogger {
-  public static final String PACKET_DATA_FILENAME = "packetData.txt";
+public class PacketLogger {
+  public static final String PACKET_DATA_FILENAME  = "packetData.txt";
+  public static final String PACKET_TRACE_FILENAME = "packetData.bin";
   public static final String TAG = "PacketLogger";
 
   public static final int PACKET_IN_MIC_QUEUE = 0;
@@ -55,10 +70,27 @@ public class PacketLogger extends FileLogger {
   public static final int EXPECTED_PACKET_NUM = 12;
   public static final int LATENCY_PEAK		= 13;
   public static final int FAILED_READ			= 14;
+  public static final int PACKET_RECOVERED    = 15;
   private static final long decimate = 1;
 
-  public PacketLogger() {
-    super( PACKET_DATA_FILENAME );
+  private static final int TRACE_CAPACITY = 8192;
+
+  private final StageLatencyTracker stageLatencies;
+  private PacketTraceRecorder recorder;
+
+  public PacketLogger( CallMonitor monitor ) {
+    stageLatencies = new StageLatencyTracker( monitor );
+
+    if( Release.DELIVER_DIAGNOSTIC_DATA ) {
+      try {
+        FileOutputStream traceOutput = ApplicationContext.getInstance().getContext()
+            .openFileOutput( PACKET_TRACE_FILENAME, Context.MODE_WORLD_READABLE );
+        recorder = new PacketTraceRecorder( traceOutput.getChannel(), TRACE_CAPACITY );
+        recorder.start();
+      } catch( FileNotFoundException e ) {
+        Log.w( TAG, e );
+      }
+    }
   }
 
   public void logPacket( long packetNumber, int stage ) {
@@ -66,14 +98,38 @@ public class PacketLogger extends FileLogger {
   }
 
   public void logPacket( long packetNumber, int stage, int extra ) {
+    stageLatencies.observe( packetNumber, stage );
+
     if( !Release.DELIVER_DIAGNOSTIC_DATA ) return;
     if( packetNumber % decimate != 0 && stage <= 6 ) return;
-    String info = new String() +
-      SystemClock.uptimeMillis() + " " +
-      packetNumber + " " +
-      stage + " " +
-      extra + "\n";
-      writeLine( info );
+    if( recorder != null ) recorder.record( packetNumber, stage, extra );
+  }
+
+  public void terminate() {
+    if( recorder != null ) {
+      recorder.terminate();
+    }
   }
 
+  /**
+   * Decodes the binary trace of the last call into the text log at
+   * {@link #PACKET_DATA_FILENAME}.
+   */
+  public static void exportText( Context context ) {
+    try {
+      FileInputStream  in  = context.openFileInput( PACKET_TRACE_FILENAME );
+      FileOutputStream out = context.openFileOutput( PACKET_DATA_FILENAME, Context.MODE_WORLD_READABLE );
+
+      try {
+        PacketTraceDecoder.decode( in, out );
+      } finally {
+        in.close();
+        out.close();
+      }
+    } catch( FileNotFoundException e ) {
+      Log.w( TAG, e );
+    } catch( IOException e ) {
+      Log.w( TAG, e );
+    }
+  }
 }
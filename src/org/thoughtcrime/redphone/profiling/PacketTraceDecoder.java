@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.profiling;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Converts a binary trace written by {@link PacketTraceRecorder} into the text format
+ * described in {@link PacketLogger}, one event per line.
+ */
+public class PacketTraceDecoder {
+
+  public static void decode(InputStream in, OutputStream out) throws IOException {
+    DataInputStream input  = new DataInputStream(new BufferedInputStream(in));
+    PrintStream     output = new PrintStream(out);
+
+    if (input.readInt() != PacketTraceRecorder.MAGIC)
+      throw new IOException("Not a packet trace");
+
+    int version      = input.readInt();
+    int recordLength = input.readInt();
+
+    if (version != PacketTraceRecorder.VERSION || recordLength < PacketTraceRecorder.RECORD_LENGTH)
+      throw new IOException("Unsupported packet trace version: " + version);
+
+    try {
+      while (true) {
+        long timeNanos      = input.readLong();
+        long sequenceNumber = input.readLong();
+        int  stage          = input.readInt();
+        int  extra          = input.readInt();
+
+        input.skipBytes(recordLength - PacketTraceRecorder.RECORD_LENGTH);
+
+        output.print(timeNanos / 1000000);
+        output.print(' ');
+        output.print(sequenceNumber);
+        output.print(' ');
+        output.print(stage);
+        output.print(' ');
+        output.print(extra);
+        output.print('\n');
+      }
+    } catch (EOFException e) {
+      // A trace cut short mid-record just loses its final event
+    }
+
+    output.flush();
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.profiling;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records packet trace events into a preallocated ring and writes them out to a file in
+ * blocks from a background thread, so the threads being traced never allocate, format text
+ * or touch the disk.
+ *
+ * The file starts with a header followed by fixed size big-endian records:
+ *
+ * <pre>
+ * header: int MAGIC, int VERSION, int RECORD_LENGTH
+ * record: long timeNanos, long sequenceNumber, int stage, int extra
+ * </pre>
+ *
+ * Timestamps come from {@link System#nanoTime()}, the same monotonic clock that backs
+ * {@link android.os.SystemClock#uptimeMillis()}.  {@link PacketTraceDecoder} turns the file
+ * back into the text format described in {@link PacketLogger}.
+ *
+ * Any number of threads may record events.  When the writer falls so far behind that the
+ * ring is full, new events are dropped and counted rather than blocking the caller.
+ */
+public class PacketTraceRecorder extends Thread {
+  private static final String TAG = "PacketTraceRecorder";
+
+  public static final int MAGIC         = 0x52505452; // "RPTR"
+  public static final int VERSION       = 1;
+  public static final int RECORD_LENGTH = 24;
+
+  private static final int  BLOCK_RECORDS     = 256;
+  private static final long FLUSH_INTERVAL_NS = 250 * 1000 * 1000;
+
+  private final long[] times;
+  private final long[] sequenceNumbers;
+  private final int[]  stages;
+  private final int[]  extras;
+  private final AtomicLongArray published;
+  private final int mask;
+
+  private final AtomicLong claimed = new AtomicLong(0);
+  private final AtomicLong flushed = new AtomicLong(0);
+  private final AtomicLong dropped = new AtomicLong(0);
+
+  private final FileChannel channel;
+  private final ByteBuffer  block = ByteBuffer.allocateDirect(BLOCK_RECORDS * RECORD_LENGTH);
+
+  private volatile boolean running = true;
+
+  /**
+   * @param channel where the trace is written; closed when the recorder is terminated.
+   * @param capacity the number of events that can be waiting to be written, rounded up to a
+   *                 power of two.
+   */
+  public PacketTraceRecorder(FileChannel channel, int capacity) {
+    super("PacketTraceRecorder");
+
+    int size = 1;
+    while (size < capacity) size <<= 1;
+
+    this.channel         = channel;
+    this.mask            = size - 1;
+    this.times           = new long[size];
+    this.sequenceNumbers = new long[size];
+    this.stages          = new int[size];
+    this.extras          = new int[size];
+    this.published       = new AtomicLongArray(size);
+
+    for (int i = 0; i < size; i++) {
+      published.set(i, -1);
+    }
+  }
+
+  public void record(long sequenceNumber, int stage, int extra) {
+    long index;
+
+    do {
+      index = claimed.get();
+
+      if (index - flushed.get() > mask) {
+        dropped.incrementAndGet();
+        return;
+      }
+    } while (!claimed.compareAndSet(index, index + 1));
+
+    int slot = (int)index & mask;
+
+    times[slot]           = System.nanoTime();
+    sequenceNumbers[slot] = sequenceNumber;
+    stages[slot]          = stage;
+    extras[slot]          = extra;
+
+    published.lazySet(slot, index);
+  }
+
+  /**
+   * @return the number of events dropped because the ring was full.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  @Override
+  public void run() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+    try {
+      writeHeader();
+
+      while (running) {
+        LockSupport.parkNanos(FLUSH_INTERVAL_NS);
+        flush();
+      }
+
+      flush();
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    } finally {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+    }
+
+    if (dropped.get() > 0) {
+      Log.w(TAG, "Dropped trace events: " + dropped.get());
+    }
+  }
+
+  /**
+   * Stops the recorder once everything recorded so far has been written.
+   */
+  public void terminate() {
+    running = false;
+    LockSupport.unpark(this);
+  }
+
+  private void writeHeader() throws IOException {
+    block.clear();
+    block.putInt(MAGIC);
+    block.putInt(VERSION);
+    block.putInt(RECORD_LENGTH);
+    block.flip();
+    write();
+  }
+
+  private void flush() throws IOException {
+    long next = flushed.get();
+
+    while (true) {
+      block.clear();
+
+      while (block.remaining() >= RECORD_LENGTH) {
+        int slot = (int)next & mask;
+        if (published.get(slot) != next) break;
+
+        block.putLong(times[slot]);
+        block.putLong(sequenceNumbers[slot]);
+        block.putInt(stages[slot]);
+        block.putInt(extras[slot]);
+        next++;
+      }
+
+      if (block.position() == 0) return;
+
+      flushed.lazySet(next);
+      block.flip();
+      write();
+    }
+  }
+
+  private void write() throws IOException {
+    while (block.hasRemaining()) {
+      channel.write(block);
+    }
+  }
+}
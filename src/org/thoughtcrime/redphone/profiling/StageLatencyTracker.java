@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.profiling;
+
+import org.thoughtcrime.redphone.monitor.CallMonitor;
+import org.thoughtcrime.redphone.monitor.HistogramMetric;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures how long frames spend between pairs of {@link PacketLogger} stages and reports the
+ * latencies to the {@link CallMonitor} as histograms in microseconds, named "stage-latency-"
+ * followed by the name of the pair.
+ *
+ * <ul>
+ *   <li>mic-encode: captured by the microphone until encoded.</li>
+ *   <li>encode-send: encoded until taken off the outgoing queue to be sent.</li>
+ *   <li>receive-insert: received from the network until handed to the playout buffer.</li>
+ *   <li>insert-decode: waiting in the playout buffer until decoded.</li>
+ * </ul>
+ *
+ * The time a frame reaches the first stage of a pair is remembered in a small ring indexed by
+ * sequence number, and matched when the same sequence number reaches the second stage.  The
+ * two stages of a pair may be logged from different threads, but each stage only from one.
+ * Frames that never reach the second stage, or reach it after their slot has been reused, are
+ * simply not measured.
+ */
+public class StageLatencyTracker {
+  private static final int SLOTS = 256;
+  private static final int MASK  = SLOTS - 1;
+  private static final int BINS  = 50;
+
+  private final StagePair[] pairs = {
+    new StagePair("mic-encode",     PacketLogger.PACKET_IN_MIC_QUEUE, PacketLogger.PACKET_ENCODED,      20),
+    new StagePair("encode-send",    PacketLogger.PACKET_ENCODED,      PacketLogger.PACKET_SENDING,     200),
+    new StagePair("receive-insert", PacketLogger.PACKET_RECEIVED,     PacketLogger.PLAY_QUEUE_INSERT,   50),
+    new StagePair("insert-decode",  PacketLogger.PLAY_QUEUE_INSERT,   PacketLogger.PACKET_DECODED,     500)
+  };
+
+  public StageLatencyTracker(CallMonitor monitor) {
+    for (StagePair pair : pairs) {
+      monitor.addSampledMetrics("stage-latency-" + pair.name, pair.latencies);
+    }
+  }
+
+  public void observe(long sequenceNumber, int stage) {
+    // Frames bundled behind the first frame of a packet leave the queue at the same point
+    if (stage == PacketLogger.PACKET_BUNDLED) stage = PacketLogger.PACKET_SENDING;
+
+    long now = -1;
+
+    for (StagePair pair : pairs) {
+      if (pair.fromStage != stage && pair.toStage != stage) continue;
+      if (now == -1) now = System.nanoTime();
+
+      if (pair.fromStage == stage) pair.start(sequenceNumber, now);
+      else                         pair.finish(sequenceNumber, now);
+    }
+  }
+
+  private static class StagePair {
+    private final String          name;
+    private final int             fromStage;
+    private final int             toStage;
+    private final HistogramMetric latencies;
+
+    private final AtomicLongArray sequenceNumbers = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray startTimes      = new AtomicLongArray(SLOTS);
+
+    public StagePair(String name, int fromStage, int toStage, int maxMillis) {
+      this.name      = name;
+      this.fromStage = fromStage;
+      this.toStage   = toStage;
+      this.latencies = new HistogramMetric(0, maxMillis * 1000, BINS);
+
+      for (int i = 0; i < SLOTS; i++) {
+        sequenceNumbers.set(i, Long.MIN_VALUE);
+      }
+    }
+
+    public void start(long sequenceNumber, long now) {
+      int slot = (int)sequenceNumber & MASK;
+
+      sequenceNumbers.set(slot, Long.MIN_VALUE);
+      startTimes.lazySet(slot, now);
+      sequenceNumbers.lazySet(slot, sequenceNumber);
+    }
+
+    public void finish(long sequenceNumber, long now) {
+      int slot = (int)sequenceNumber & MASK;
+
+      if (sequenceNumbers.get(slot) != sequenceNumber) return;
+      long startTime = startTimes.get(slot);
+      if (sequenceNumbers.get(slot) != sequenceNumber) return;
+
+      latencies.addEvent((int)Math.min((now - startTime) / 1000, Integer.MAX_VALUE / BINS));
+    }
+  }
+}
@@ -19,84 +19,187 @@ package org.thoughtcrime.redphone.profiling;
 
 import android.util.Log;
 
+import org.thoughtcrime.redphone.monitor.SampledMetrics;
+
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * Provides synchronized logging from several {@link TimeProfiler} instances.
+ * Accumulates how much time is spent executing in each of several named blocks of code.
+ *
+ * Timers are registered once, typically in a static initializer, and the returned handle is
+ * passed to {@link #startBlock(int)} and {@link #stopBlock(int)}.  Each thread accumulates
+ * into its own counters, so timing a block takes no lock and touches no shared state, and
+ * blocks are timed with {@link System#nanoTime()}.  A sampler created with
+ * {@link #newSampler()} sums the counters of every thread whenever the call monitor samples
+ * it, reporting the time spent and number of runs of each block since the previous sample.
  *
- * Periodically writes to log a summary of how much time has been spent executing in each
- * of several named contexts.  Multiple contexts can be active simultaneously.
+ * Every timer is also a {@link CallTracer} span, so timed blocks show up in call traces.
  *
  * @author Stuart O. Anderson
  */
-public class TimeProfiler extends Thread {
-  private static List<ProfilingTimer> timers = new LinkedList<ProfilingTimer>();
-  private static ProfilingTimer printTimer = new ProfilingTimer("PrintTimer");
-  private static PeriodicTimer outputTimer = new PeriodicTimer(3000);
-  private static HashMap<String, ProfilingTimer> timerHash = new HashMap<String, ProfilingTimer>();
-  private static boolean debug = false;
-  private static boolean running;
-
-  public static void registerTimer(ProfilingTimer timer) {
-    timers.add(timer);
-    if (timerHash.get(timer.getName()) == null) {
-      timerHash.put(timer.getName(), timer);
+public class TimeProfiler {
+  private static final String TAG        = "TimeProfiler";
+  private static final int    MAX_TIMERS = 64;
+
+  private static final String[] timerNames = new String[MAX_TIMERS];
+  private static final int[]    traceSpans = new int[MAX_TIMERS];
+  private static int timerCount = 0;
+
+  private static final List<ThreadTimers> threads = new CopyOnWriteArrayList<ThreadTimers>();
+  private static final long[] retiredNanos = new long[MAX_TIMERS];
+  private static final long[] retiredRuns  = new long[MAX_TIMERS];
+
+  private static final ThreadLocal<ThreadTimers> threadTimers = new ThreadLocal<ThreadTimers>() {
+    @Override
+    protected ThreadTimers initialValue() {
+      ThreadTimers timers = new ThreadTimers(Thread.currentThread());
+      threads.add(timers);
+      return timers;
     }
-    Log.d("TimeProfiler", "registered " + timer.getName() + " total: "
-        + timers.size());
-  }
+  };
 
-  synchronized public static void startBlock(String name) {
-    if( !debug ) return;
-    ProfilingTimer timer = timerHash.get(name);
-    if (timer == null) {
-      timer = new ProfilingTimer(name);
-      registerTimer(timer);
+  /**
+   * @return the handle to time the named block with, or -1 if too many timers have been
+   * registered.
+   */
+  public static synchronized int registerTimer(String name) {
+    for (int i = 0; i < timerCount; i++) {
+      if (timerNames[i].equals(name)) return i;
     }
-    timer.start();
-  }
 
-  synchronized public static void stopBlock( String name ) {
-    if( !debug )return;
-    ProfilingTimer timer = timerHash.get(name);
-    if (timer == null) {
-      timer = new ProfilingTimer(name);
-      registerTimer(timer);
+    if (timerCount == MAX_TIMERS) {
+      Log.w(TAG, "Too many timers, not profiling: " + name);
+      return -1;
     }
-    timer.stop();
+
+    timerNames[timerCount] = name;
+    traceSpans[timerCount] = CallTracer.registerSpan(name);
+    return timerCount++;
+  }
+
+  public static void startBlock(int timer) {
+    if (timer < 0) return;
+
+    threadTimers.get().start(timer, System.nanoTime());
+    CallTracer.begin(traceSpans[timer]);
   }
 
+  public static void stopBlock(int timer) {
+    if (timer < 0) return;
 
-  @Override
-  public void run() {
-    if( !debug ) return;
-    registerTimer(printTimer);
-    running = true;
-    printTimer.start();
-    while (running) {
-      try {
-        Thread.sleep(500);
-      } catch (InterruptedException e) {
+    CallTracer.end(traceSpans[timer]);
+    threadTimers.get().stop(timer, System.nanoTime());
+  }
+
+  /**
+   * @return metrics reporting, for each block run since the previous sample, the microseconds
+   * spent in it and the number of times it ran.
+   */
+  public static SampledMetrics newSampler() {
+    return new Sampler();
+  }
+
+  /**
+   * Sums the counters of every thread that has timed a block, folding in and forgetting the
+   * counters of threads that have exited.
+   */
+  private static synchronized int collect(long[] nanos, long[] runs) {
+    List<ThreadTimers> exited = new ArrayList<ThreadTimers>();
+
+    for (ThreadTimers timers : threads) {
+      boolean alive = timers.thread.isAlive();
+
+      for (int i = 0; i < MAX_TIMERS; i++) {
+        long threadNanos = timers.nanos.get(i);
+        long threadRuns  = timers.runs.get(i);
+
+        if (alive) {
+          nanos[i] += threadNanos;
+          runs[i]  += threadRuns;
+        } else {
+          retiredNanos[i] += threadNanos;
+          retiredRuns[i]  += threadRuns;
+        }
       }
-      printTiming();
+
+      if (!alive) exited.add(timers);
     }
+
+    threads.removeAll(exited);
+
+    for (int i = 0; i < MAX_TIMERS; i++) {
+      nanos[i] += retiredNanos[i];
+      runs[i]  += retiredRuns[i];
+    }
+
+    return timerCount;
   }
 
-  public static void printTiming() {
-    if (!outputTimer.periodically())
-      return;
-    Log.d("TimeProfiler", "Timing Results");
-    Iterator<ProfilingTimer> i = timers.iterator();
-    while (i.hasNext()) {
-      ProfilingTimer p = (ProfilingTimer) i.next();
-      p.print(printTimer.getAccumTime());
+  private static synchronized String getTimerName(int timer) {
+    return timerNames[timer];
+  }
+
+  private static class Sampler implements SampledMetrics {
+    private final long[] lastNanos = new long[MAX_TIMERS];
+    private final long[] lastRuns  = new long[MAX_TIMERS];
+
+    public Sampler() {
+      collect(lastNanos, lastRuns);
+    }
+
+    @Override
+    public Map<String, Object> sample() {
+      long[] nanos = new long[MAX_TIMERS];
+      long[] runs  = new long[MAX_TIMERS];
+      int    count = collect(nanos, runs);
+
+      Map<String, Object> result = new HashMap<String, Object>();
+
+      for (int i = 0; i < count; i++) {
+        long runDelta = runs[i] - lastRuns[i];
+        if (runDelta == 0) continue;
+
+        String name = getTimerName(i);
+        result.put(name + "-micros", (nanos[i] - lastNanos[i]) / 1000);
+        result.put(name + "-runs", runDelta);
+      }
+
+      System.arraycopy(nanos, 0, lastNanos, 0, MAX_TIMERS);
+      System.arraycopy(runs, 0, lastRuns, 0, MAX_TIMERS);
+
+      return result;
     }
   }
 
-  public static void terminate() {
-    TimeProfiler.running = false;
+  /**
+   * Counters for the blocks timed by one thread.  Only the owning thread writes them.
+   */
+  private static class ThreadTimers {
+    private final Thread          thread;
+    private final long[]          started = new long[MAX_TIMERS];
+    private final AtomicLongArray nanos   = new AtomicLongArray(MAX_TIMERS);
+    private final AtomicLongArray runs    = new AtomicLongArray(MAX_TIMERS);
+
+    public ThreadTimers(Thread thread) {
+      this.thread = thread;
+    }
+
+    public void start(int timer, long now) {
+      started[timer] = now;
+    }
+
+    public void stop(int timer, long now) {
+      long start = started[timer];
+      if (start == 0) return;
+
+      started[timer] = 0;
+      nanos.lazySet(timer, nanos.get(timer) + (now - start));
+      runs.lazySet(timer, runs.get(timer) + 1);
+    }
   }
 }
@@ -19,6 +19,7 @@ package org.thoughtcrime.redphone.ui;
 
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -57,10 +58,16 @@ public class ApplicationPreferencesActivity extends SherlockPreferenceActivity {
   public static final String SIMULATE_PACKET_DROPS      	  = "pref_simulate_packet_loss";
   public static final String MINIMIZE_LATENCY           	  = "pref_min_latency";
   public static final String SINGLE_THREAD		        	    = "pref_singlethread";
+  public static final String QUANTILE_DELAY             	  = "pref_quantile_delay";
+  public static final String CALL_TRACE                 	  = "pref_call_trace";
+  public static final String TRUNCATED_AUTH_TAG         	  = "pref_truncated_auth_tag";
+  public static final String AEAD_MEDIA_ENCRYPTION      	  = "pref_aead_media_encryption";
+  public static final String PRESHARED_RECONNECT        	  = "pref_preshared_reconnect";
   public static final String USE_C2DM_LEGACY            	  = "pref_use_c2dm";
   public static final String SIGNALING_METHOD           	  = "pref_signaling_method";
   public static final String AUDIO_TRACK_DES_LEVEL      	  = "pref_audio_track_des_buffer_level";
-  public static final String CALL_STREAM_DES_LEVEL      	  = "pref_call_stream_des_buffer_level";
+  public static final String CALL_STREAM_DES_LEVEL      	  = "pref_call_stream_des_frame_level";
+  private static final String CALL_STREAM_DES_PACKET_LEVEL = "pref_call_stream_des_buffer_level";
   public static final String ASK_DIAGNOSTIC_REPORTING  	 	  = "pref_ask_diagnostic_reporting";
   public static final String ENABLE_CALL_METRICS_UPLOAD		  = "pref_enable_call_metrics_upload";
   public static final String ENABLE_CALL_QUALITY_DIALOG		  = "pref_enable_call_quality_dialog";
@@ -170,8 +177,15 @@ public class ApplicationPreferencesActivity extends SherlockPreferenceActivity {
   }
 
   public static float getCallStreamDesBufferLevel( Context context ) {
-    return PreferenceManager
-           .getDefaultSharedPreferences(context).getFloat(CALL_STREAM_DES_LEVEL, 2.5f);
+    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+    // Earlier versions stored the level in packets, which always carried two frames.
+    if (!preferences.contains(CALL_STREAM_DES_LEVEL) &&
+        preferences.contains(CALL_STREAM_DES_PACKET_LEVEL)) {
+      return preferences.getFloat(CALL_STREAM_DES_PACKET_LEVEL, 2.5f) * 2;
+    }
+
+    return preferences.getFloat(CALL_STREAM_DES_LEVEL, 5f);
   }
 
   public static boolean getAudioModeIncall(Context context) {
@@ -212,6 +226,26 @@ public class ApplicationPreferencesActivity extends SherlockPreferenceActivity {
     return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(SINGLE_THREAD, false);
   }
 
+  public static boolean isQuantileDelayEstimator(Context context) {
+    return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(QUANTILE_DELAY, false);
+  }
+
+  public static boolean isCallTraceEnabled(Context context) {
+    return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(CALL_TRACE, false);
+  }
+
+  public static boolean isTruncatedAuthTag(Context context) {
+    return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(TRUNCATED_AUTH_TAG, false);
+  }
+
+  public static boolean isAeadMediaEncryption(Context context) {
+    return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(AEAD_MEDIA_ENCRYPTION, false);
+  }
+
+  public static boolean isPresharedReconnect(Context context) {
+    return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PRESHARED_RECONNECT, false);
+  }
+
 
   private class GCMToggleListener implements Preference.OnPreferenceChangeListener {
     @Override
@@ -26,6 +26,7 @@ import android.net.Uri;
 
 import org.thoughtcrime.redphone.R;
 import org.thoughtcrime.redphone.audio.CallLogger;
+import org.thoughtcrime.redphone.profiling.CallTracer;
 import org.thoughtcrime.redphone.profiling.PacketLogger;
 import org.thoughtcrime.redphone.util.LogUtil;
 
@@ -75,7 +76,9 @@ public class QualityReporting {
     sendIntent.putExtra(Intent.EXTRA_SUBJECT, "RedPhone Timing Data");
 
     Uri timingAttachmentLocation = LogUtil.copyDataToSdCard(ctx, CallLogger.TIMING_DATA_FILENAME);
+    PacketLogger.exportText(ctx);
     Uri packetAttachmentLocation = LogUtil.copyDataToSdCard(ctx, PacketLogger.PACKET_DATA_FILENAME);
+    Uri traceAttachmentLocation = LogUtil.copyDataToSdCard(ctx, CallTracer.TRACE_FILENAME);
     Uri logAttachmentLocation = LogUtil.generateCompressedLogFile();
 
     //has to be an ArrayList
@@ -87,6 +90,9 @@ public class QualityReporting {
     if( packetAttachmentLocation != null ) {
       uris.add( packetAttachmentLocation );
     }
+    if( traceAttachmentLocation != null ) {
+      uris.add( traceAttachmentLocation );
+    }
     if( logAttachmentLocation != null ) {
       uris.add( logAttachmentLocation );
     }
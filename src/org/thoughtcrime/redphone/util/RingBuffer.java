@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2026 RedPhone contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thoughtcrime.redphone.util;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, preallocated queue for passing objects from exactly one producer thread to
+ * exactly one consumer thread without locks or per-element allocation.
+ *
+ * When the queue is full the {@link OverflowPolicy} decides what gives:
+ * <ul>
+ *   <li>{@link OverflowPolicy#DROP_OLDEST} evicts the element at the head of the queue to
+ *   make room, so a stalled consumer only ever sees the freshest audio.</li>
+ *   <li>{@link OverflowPolicy#BLOCK} waits up to a deadline for the consumer to make room,
+ *   then gives up and rejects the new element.</li>
+ * </ul>
+ * Either way {@link #offer(Object)} hands back the element that didn't make it into the queue
+ * so the producer can recycle it.
+ *
+ * Slots aren't cleared when an element is consumed, since the producer may already be
+ * refilling them, so the queue holds references to up to capacity stale elements.  That
+ * is harmless for the pooled objects it's used with.
+ *
+ * @param <T> type of object held in the queue
+ */
+public class RingBuffer<T> {
+
+  public enum OverflowPolicy {
+    DROP_OLDEST,
+    BLOCK
+  }
+
+  private static final long BLOCK_POLL_NANOS = 100 * 1000;
+
+  private final Object[]       slots;
+  private final int            mask;
+  private final OverflowPolicy policy;
+  private final long           blockTimeoutMillis;
+
+  private final AtomicLong head = new AtomicLong(0);
+  private final AtomicLong tail = new AtomicLong(0);
+  private final AtomicLong dropped = new AtomicLong(0);
+
+  public RingBuffer(int capacity) {
+    this(capacity, OverflowPolicy.DROP_OLDEST, 0);
+  }
+
+  /**
+   * @param capacity the maximum number of queued elements, rounded up to a power of two.
+   * @param policy what to do when the producer finds the queue full.
+   * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits for room.
+   */
+  public RingBuffer(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+    int size = 1;
+    while (size < capacity) size <<= 1;
+
+    this.slots              = new Object[size];
+    this.mask               = size - 1;
+    this.policy             = policy;
+    this.blockTimeoutMillis = blockTimeoutMillis;
+  }
+
+  /**
+   * Adds an element to the tail of the queue.  May only be called from the producer thread.
+   *
+   * @return the element that was evicted or rejected to respect the capacity, or null if
+   * the queue had room.
+   */
+  public T offer(T item) {
+    long t = tail.get();
+    T    overflow = null;
+
+    if (t - head.get() >= slots.length) {
+      if (policy == OverflowPolicy.BLOCK) {
+        if (!waitForRoom(t)) {
+          dropped.incrementAndGet();
+          return item;
+        }
+      } else {
+        overflow = evictOldest(t);
+      }
+    }
+
+    slots[(int)t & mask] = item;
+    tail.lazySet(t + 1);
+
+    return overflow;
+  }
+
+  private T evictOldest(long t) {
+    while (true) {
+      long h = head.get();
+
+      if (t - h < slots.length)
+        return null;
+
+      T oldest = slot(h);
+
+      if (head.compareAndSet(h, h + 1)) {
+        dropped.incrementAndGet();
+        return oldest;
+      }
+    }
+  }
+
+  private boolean waitForRoom(long t) {
+    long deadline = SystemClock.uptimeMillis() + blockTimeoutMillis;
+
+    while (t - head.get() >= slots.length) {
+      if (SystemClock.uptimeMillis() >= deadline)
+        return false;
+
+      LockSupport.parkNanos(BLOCK_POLL_NANOS);
+    }
+
+    return true;
+  }
+
+  /**
+   * Removes the element at the head of the queue.  May only be called from the consumer thread.
+   *
+   * @return the oldest queued element, or null if the queue is empty.
+   */
+  public T poll() {
+    while (true) {
+      long h = head.get();
+
+      if (h >= tail.get())
+        return null;
+
+      T item = slot(h);
+
+      // The producer may have evicted this element while we were reading it
+      if (head.compareAndSet(h, h + 1))
+        return item;
+    }
+  }
+
+  /**
+   * Moves every queued element onto another ring buffer, such as a free list.  May only be
+   * called from this queue's consumer thread, which must also be the target's producer.
+   */
+  public void drainTo(RingBuffer<T> target) {
+    T item;
+    while ((item = poll()) != null) {
+      target.offer(item);
+    }
+  }
+
+  public int size() {
+    long h = head.get();
+    long t = tail.get();
+    return (int)Math.max(0, t - h);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int capacity() {
+    return slots.length;
+  }
+
+  /**
+   * @return the number of elements evicted or rejected because the queue was full.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  private T slot(long index) {
+    return (T)slots[(int)index & mask];
+  }
+}
@@ -0,0 +1,32 @@
+package org.thoughtcrime.redphone.audio;
+
+import android.test.AndroidTestCase;
+
+public class EventWindowTest extends AndroidTestCase {
+  public void testEventsExpire() {
+    EventWindow window = new EventWindow(1000, 10);
+    window.addEvent(10000);
+    window.addEvent(10050);
+    window.addEvent(10500);
+
+    assertEquals(3, window.countEvents(10500));
+    assertEquals(3, window.countEvents(10950));
+    assertEquals(1, window.countEvents(11050));
+    assertEquals(0, window.countEvents(11550));
+  }
+
+  public void testLongGapClearsWindow() {
+    EventWindow window = new EventWindow(1000, 10);
+    window.addEvent(10000);
+    assertEquals(0, window.countEvents(50000));
+    window.addEvent(50000);
+    assertEquals(1, window.countEvents(50000));
+  }
+
+  public void testStaleEventIgnored() {
+    EventWindow window = new EventWindow(1000, 10);
+    assertEquals(0, window.countEvents(20000));
+    window.addEvent(10000);
+    assertEquals(0, window.countEvents(20000));
+  }
+}
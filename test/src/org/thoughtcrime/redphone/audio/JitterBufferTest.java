@@ -0,0 +1,86 @@
+package org.thoughtcrime.redphone.audio;
+
+import android.test.AndroidTestCase;
+
+public class JitterBufferTest extends AndroidTestCase {
+  private static EncodedAudioData frame(long sequenceNumber) {
+    return new EncodedAudioData(new byte[1], sequenceNumber, sequenceNumber);
+  }
+
+  public void testOrderedLookup() {
+    JitterBuffer buffer = new JitterBuffer(8);
+    assertNull(buffer.getFirst());
+
+    assertNull(buffer.put(frame(12)));
+    assertNull(buffer.put(frame(10)));
+    assertNull(buffer.put(frame(14)));
+
+    assertEquals(3, buffer.size());
+    assertEquals(10, buffer.getFirstSequence());
+    assertEquals(14, buffer.getLastSequence());
+    assertEquals(12, buffer.get(12).sequenceNumber);
+    assertNull(buffer.get(11));
+    assertNull(buffer.get(18));
+  }
+
+  public void testRemoveTracksEnds() {
+    JitterBuffer buffer = new JitterBuffer(8);
+    buffer.put(frame(10));
+    buffer.put(frame(12));
+    buffer.put(frame(14));
+
+    assertEquals(10, buffer.remove(10).sequenceNumber);
+    assertEquals(12, buffer.getFirstSequence());
+
+    assertEquals(14, buffer.remove(14).sequenceNumber);
+    assertEquals(12, buffer.getLastSequence());
+
+    assertNull(buffer.remove(13));
+    buffer.remove(12);
+    assertEquals(0, buffer.size());
+  }
+
+  public void testReplaceSameSequence() {
+    JitterBuffer    buffer = new JitterBuffer(8);
+    EncodedAudioData first = frame(3);
+
+    buffer.put(first);
+    assertSame(first, buffer.put(frame(3)));
+    assertEquals(1, buffer.size());
+  }
+
+  public void testDiscardBefore() {
+    JitterBuffer buffer = new JitterBuffer(8);
+    for (int i = 0; i < 6; i += 2) {
+      buffer.put(frame(i));
+    }
+
+    assertEquals(2, buffer.discardBefore(3));
+    assertEquals(1, buffer.size());
+    assertEquals(4, buffer.getFirstSequence());
+    assertEquals(0, buffer.discardBefore(4));
+  }
+
+  public void testWindowSlides() {
+    JitterBuffer buffer = new JitterBuffer(8);
+    buffer.put(frame(0));
+    buffer.put(frame(5));
+
+    assertNull(buffer.put(frame(9)));
+    assertEquals(2, buffer.size());
+    assertEquals(5, buffer.getFirstSequence());
+
+    EncodedAudioData old = frame(1);
+    assertSame(old, buffer.put(old));
+    assertEquals(2, buffer.size());
+  }
+
+  public void testNegativeSequences() {
+    JitterBuffer buffer = new JitterBuffer(4);
+    buffer.put(frame(-2));
+    buffer.put(frame(1));
+
+    assertEquals(-2, buffer.getFirst().sequenceNumber);
+    assertEquals(1, buffer.get(1).sequenceNumber);
+  }
+}
@@ -0,0 +1,39 @@
+package org.thoughtcrime.redphone.audio;
+
+import android.test.AndroidTestCase;
+
+public class QuantileDelayEstimatorTest extends AndroidTestCase {
+  public void testInitialDelayUntilObserved() {
+    QuantileDelayEstimator estimator = new QuantileDelayEstimator(.03f, 5);
+    assertEquals(5, estimator.getDesiredFrameDelay(), 0);
+  }
+
+  public void testTracksQuantile() {
+    QuantileDelayEstimator estimator = new QuantileDelayEstimator(.03f, 5);
+    for (int i = 0; i < 2000; i++) {
+      estimator.observeLateness(i % 100);
+    }
+
+    float delay = estimator.getDesiredFrameDelay();
+    assertTrue(delay >= 4.5f && delay <= 5.5f);
+  }
+
+  public void testRisesQuicklyAndFallsSlowly() {
+    QuantileDelayEstimator estimator = new QuantileDelayEstimator(.03f, 5);
+    for (int i = 0; i < 2000; i++) {
+      estimator.observeLateness(i % 20);
+    }
+    float calm = estimator.getDesiredFrameDelay();
+
+    for (int i = 0; i < 50; i++) {
+      estimator.observeLateness(200);
+    }
+    float burst = estimator.getDesiredFrameDelay();
+    assertTrue(burst >= 9);
+
+    for (int i = 0; i < 200; i++) {
+      estimator.observeLateness(i % 20);
+    }
+    assertTrue(estimator.getDesiredFrameDelay() > calm);
+  }
+}
@@ -0,0 +1,131 @@
+package org.thoughtcrime.redphone.crypto;
+
+import junit.framework.TestCase;
+
+import org.spongycastle.crypto.engines.AESFastEngine;
+import org.spongycastle.crypto.modes.GCMBlockCipher;
+import org.spongycastle.crypto.params.AEADParameters;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class StreamAeadTest extends TestCase {
+  private final Random random = new Random(2468);
+  private final byte[] key    = randomBytes(16);
+  private final byte[] salt   = randomBytes(StreamAead.SALT_LENGTH);
+
+  public void testRoundTrip() {
+    StreamAead sender   = new StreamAead(key, salt);
+    StreamAead receiver = new StreamAead(key, salt);
+
+    for (int i = 0; i < 50; i++) {
+      byte[]          payload = randomBytes(random.nextInt(200));
+      SecureRtpPacket packet  = packet(payload, 42, i);
+
+      sender.seal(packet);
+      assertEquals(12 + payload.length + StreamAead.TAG_LENGTH, packet.getPacketLength());
+
+      assertTrue(receiver.open(packet));
+      assertTrue(Arrays.equals(payload, payloadOf(packet)));
+    }
+  }
+
+  public void testMatchesReferenceGcm() throws Exception {
+    StreamAead cipher = new StreamAead(key, salt);
+
+    for (int length = 0; length < 70; length++) {
+      SecureRtpPacket packet = packet(randomBytes(length), 0x12345678L, 0x10000L + length);
+      byte[]          header = Arrays.copyOf(packet.getPacket(), 12);
+      byte[]          nonce  = salt.clone();
+
+      nonce[2]  ^= 0x12;
+      nonce[3]  ^= 0x34;
+      nonce[4]  ^= 0x56;
+      nonce[5]  ^= 0x78;
+      nonce[9]  ^= 0x01;
+      nonce[11] ^= (byte)length;
+
+      GCMBlockCipher reference = new GCMBlockCipher(new AESFastEngine());
+      reference.init(true, new AEADParameters(new KeyParameter(key), 128, nonce, header));
+
+      byte[] expected = new byte[length + StreamAead.TAG_LENGTH];
+      int    written  = reference.processBytes(payloadOf(packet), 0, length, expected, 0);
+      reference.doFinal(expected, written);
+
+      cipher.seal(packet);
+
+      byte[] actual = Arrays.copyOfRange(packet.getPacket(), 12, 12 + length + StreamAead.TAG_LENGTH);
+      assertTrue(Arrays.equals(expected, actual));
+    }
+  }
+
+  public void testNonceDependsOnSequenceAndSsrc() {
+    StreamAead cipher  = new StreamAead(key, salt);
+    byte[]     payload = randomBytes(38);
+
+    SecureRtpPacket first  = packet(payload, 1, 5);
+    SecureRtpPacket second = packet(payload, 1, 6);
+    SecureRtpPacket third  = packet(payload, 2, 5);
+
+    cipher.seal(first);
+    cipher.seal(second);
+    cipher.seal(third);
+
+    assertFalse(Arrays.equals(payloadOf(first), payloadOf(second)));
+    assertFalse(Arrays.equals(payloadOf(first), payloadOf(third)));
+  }
+
+  public void testRejectsTampering() {
+    StreamAead sender   = new StreamAead(key, salt);
+    StreamAead receiver = new StreamAead(key, salt);
+
+    int[] positions = {2, 12, 12 + 20, 12 + 38 + StreamAead.TAG_LENGTH - 1};
+
+    for (int position : positions) {
+      SecureRtpPacket packet = packet(randomBytes(38), 7, 3);
+      sender.seal(packet);
+
+      packet.getPacket()[position] ^= 1;
+      assertFalse(receiver.open(packet));
+    }
+  }
+
+  public void testForgeryDoesNotAdvanceSequence() {
+    SecureStream sender   = new SecureStream(key, salt);
+    SecureStream receiver = new SecureStream(key, salt);
+
+    SecureRtpPacket forged = packet(randomBytes(20), 9, 30000);
+    forged.setMacLength(StreamAead.TAG_LENGTH);
+    assertFalse(receiver.open(forged));
+
+    SecureRtpPacket packet = packet(randomBytes(20), 9, 1);
+    sender.updateSequence(packet);
+    sender.seal(packet);
+
+    assertTrue(receiver.open(packet));
+    assertEquals(1, packet.getLogicalSequence());
+  }
+
+  private SecureRtpPacket packet(byte[] payload, long ssrc, long sequence) {
+    SecureRtpPacket packet = new SecureRtpPacket(payload.length);
+    packet.setVersion();
+    packet.setSSRC(ssrc);
+    packet.setSequenceNumber((int)sequence);
+    packet.setPayload(payload, payload.length);
+    packet.setMacLength(StreamAead.TAG_LENGTH);
+    packet.setLogicalSequence(sequence);
+    return packet;
+  }
+
+  private byte[] payloadOf(SecureRtpPacket packet) {
+    return Arrays.copyOfRange(packet.getPacket(), packet.getPayloadOffset(),
+                              packet.getPayloadOffset() + packet.getPayloadLength());
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,151 @@
+package org.thoughtcrime.redphone.crypto;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Checks StreamCipher against the original per-packet AES/CTR implementation, so the
+ * wire format can't drift.  Only uses the JVM's crypto provider, so it runs off-device.
+ */
+public class StreamCipherTest extends TestCase {
+  private static final int MAC_SIZE = 20;
+
+  private final Random random = new Random(1234);
+  private final byte[] key    = randomBytes(16);
+  private final byte[] salt   = randomBytes(14);
+
+  public void testMatchesReferenceEncryption() throws Exception {
+    StreamCipher cipher = new StreamCipher(key, salt);
+
+    int[]  lengths   = {0, 1, 15, 16, 17, 38, 160, 161, 1000};
+    long[] sequences = {0, 1, 65535, 65536, 0x123456789AL, -1};
+
+    for (int length : lengths) {
+      for (long sequence : sequences) {
+        byte[]          payload = randomBytes(length);
+        long            ssrc    = random.nextInt() & 0xFFFFFFFFL;
+        SecureRtpPacket packet  = packet(payload, ssrc, sequence);
+
+        cipher.encrypt(packet);
+
+        byte[] expected = referenceEncrypt(payload, ssrc, sequence);
+        byte[] actual   = Arrays.copyOfRange(packet.getPacket(), packet.getPayloadOffset(),
+                                             packet.getPayloadOffset() + length);
+
+        assertTrue(Arrays.equals(expected, actual));
+        assertEquals(12 + length + MAC_SIZE, packet.getPacketLength());
+      }
+    }
+  }
+
+  public void testDecryptRoundTrip() throws Exception {
+    StreamCipher sender   = new StreamCipher(key, salt);
+    StreamCipher receiver = new StreamCipher(key, salt);
+
+    for (int i = 0; i < 100; i++) {
+      byte[]          payload = randomBytes(random.nextInt(300));
+      SecureRtpPacket packet  = packet(payload, 42, i);
+
+      sender.encrypt(packet);
+      receiver.decrypt(packet);
+
+      byte[] actual = Arrays.copyOfRange(packet.getPacket(), packet.getPayloadOffset(),
+                                         packet.getPayloadOffset() + payload.length);
+      assertTrue(Arrays.equals(payload, actual));
+    }
+  }
+
+  public void testPrefetchedKeystreamMatchesReference() throws Exception {
+    StreamCipher cipher = new StreamCipher(key, salt);
+    long         ssrc   = 99;
+
+    assertEquals(0, cipher.prefetch(4));
+
+    for (long sequence = 0; sequence < 40; sequence++) {
+      if (sequence > 0 && sequence % 3 == 0) {
+        assertTrue(cipher.prefetch(4) > 0);
+      }
+
+      byte[]          payload = randomBytes(sequence % 5 == 0 ? 400 : 38);
+      SecureRtpPacket packet  = packet(payload, ssrc, sequence);
+
+      cipher.encrypt(packet);
+
+      byte[] actual = Arrays.copyOfRange(packet.getPacket(), packet.getPayloadOffset(),
+                                         packet.getPayloadOffset() + payload.length);
+      assertTrue(Arrays.equals(referenceEncrypt(payload, ssrc, sequence), actual));
+    }
+  }
+
+  public void testPrefetchIgnoresOtherSsrc() throws Exception {
+    StreamCipher cipher = new StreamCipher(key, salt);
+
+    cipher.encrypt(packet(randomBytes(10), 1, 0));
+    cipher.prefetch(4);
+
+    byte[]          payload = randomBytes(38);
+    SecureRtpPacket packet  = packet(payload, 2, 1);
+    cipher.encrypt(packet);
+
+    byte[] actual = Arrays.copyOfRange(packet.getPacket(), packet.getPayloadOffset(),
+                                       packet.getPayloadOffset() + payload.length);
+    assertTrue(Arrays.equals(referenceEncrypt(payload, 2, 1), actual));
+    assertEquals(1, cipher.prefetch(1));
+  }
+
+  public void testLeavesHeaderAndMacUntouched() throws Exception {
+    StreamCipher    cipher = new StreamCipher(key, salt);
+    SecureRtpPacket packet = packet(randomBytes(50), 7, 9);
+    byte[]          mac    = randomBytes(MAC_SIZE);
+
+    packet.setMac(mac);
+    byte[] header = Arrays.copyOf(packet.getPacket(), 12);
+
+    cipher.encrypt(packet);
+
+    assertTrue(Arrays.equals(header, Arrays.copyOf(packet.getPacket(), 12)));
+    assertTrue(Arrays.equals(mac, packet.getMac()));
+  }
+
+  private SecureRtpPacket packet(byte[] payload, long ssrc, long sequence) {
+    SecureRtpPacket packet = new SecureRtpPacket(payload.length);
+    packet.setVersion();
+    packet.setSSRC(ssrc);
+    packet.setSequenceNumber((int)sequence);
+    packet.setPayload(payload, payload.length);
+    packet.setLogicalSequence(sequence);
+    return packet;
+  }
+
+  private byte[] referenceEncrypt(byte[] payload, long ssrc, long logicalSequence)
+      throws Exception
+  {
+    byte[] iv = new byte[16];
+    System.arraycopy(salt, 0, iv, 0, salt.length);
+
+    iv[6]   ^= (byte)(ssrc >> 8);
+    iv[7]   ^= (byte)(ssrc);
+    iv[8]   ^= (byte)(logicalSequence >> 40);
+    iv[9]   ^= (byte)(logicalSequence >> 32);
+    iv[10]  ^= (byte)(logicalSequence >> 24);
+    iv[11]  ^= (byte)(logicalSequence >> 16);
+    iv[12]  ^= (byte)(logicalSequence >> 8);
+    iv[13]  ^= (byte)(logicalSequence);
+
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+    return cipher.doFinal(payload);
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
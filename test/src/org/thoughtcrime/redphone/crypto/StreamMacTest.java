@@ -0,0 +1,83 @@
+package org.thoughtcrime.redphone.crypto;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+public class StreamMacTest extends TestCase {
+  private final Random random = new Random(4321);
+  private final byte[] key    = randomBytes(20);
+
+  public void testFullTagMatchesHmac() throws Exception {
+    StreamMac       mac    = new StreamMac(key);
+    SecureRtpPacket packet = packet(randomBytes(40), SecureRtpPacket.MAC_SIZE);
+
+    mac.macPacket(packet);
+
+    assertTrue(Arrays.equals(referenceMac(packet), packet.getMac()));
+    assertTrue(mac.verifyPacket(packet));
+  }
+
+  public void testTruncatedTag() throws Exception {
+    StreamMac       mac     = new StreamMac(key);
+    byte[]          payload = randomBytes(40);
+    SecureRtpPacket packet  = packet(payload, SecureRtpPacket.TRUNCATED_MAC_SIZE);
+
+    assertEquals(12 + payload.length + SecureRtpPacket.TRUNCATED_MAC_SIZE, packet.getPacketLength());
+    assertEquals(payload.length, packet.getPayloadLength());
+
+    mac.macPacket(packet);
+
+    byte[] expected = Arrays.copyOf(referenceMac(packet), SecureRtpPacket.TRUNCATED_MAC_SIZE);
+    assertTrue(Arrays.equals(expected, packet.getMac()));
+    assertTrue(mac.verifyPacket(packet));
+  }
+
+  public void testRejectsTampering() {
+    StreamMac mac = new StreamMac(key);
+
+    for (int macLength : new int[] {SecureRtpPacket.MAC_SIZE, SecureRtpPacket.TRUNCATED_MAC_SIZE}) {
+      SecureRtpPacket packet = packet(randomBytes(30), macLength);
+      mac.macPacket(packet);
+
+      packet.getPacket()[packet.getPayloadOffset()] ^= 1;
+      assertFalse(mac.verifyPacket(packet));
+      packet.getPacket()[packet.getPayloadOffset()] ^= 1;
+
+      packet.getPacket()[packet.getMacOffset() + macLength - 1] ^= 1;
+      assertFalse(mac.verifyPacket(packet));
+    }
+  }
+
+  public void testRejectsShortPacket() {
+    StreamMac       mac    = new StreamMac(key);
+    SecureRtpPacket packet = new SecureRtpPacket(new byte[64], 12 + 5);
+
+    assertFalse(mac.verifyPacket(packet));
+  }
+
+  private SecureRtpPacket packet(byte[] payload, int macLength) {
+    SecureRtpPacket packet = new SecureRtpPacket(payload.length);
+    packet.setVersion();
+    packet.setPayload(payload, payload.length);
+    packet.setMacLength(macLength);
+    return packet;
+  }
+
+  private byte[] referenceMac(SecureRtpPacket packet) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA1");
+    mac.init(new SecretKeySpec(key, "HmacSHA1"));
+    mac.update(packet.getPacket(), 0, packet.getPacketLength() - packet.getMacLength());
+    return mac.doFinal();
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
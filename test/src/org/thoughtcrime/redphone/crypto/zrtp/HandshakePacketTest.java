@@ -0,0 +1,61 @@
+package org.thoughtcrime.redphone.crypto.zrtp;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class HandshakePacketTest extends TestCase {
+
+  public void testMessageTypes() {
+    assertEquals(HandshakePacket.MESSAGE_HELLO,       typeOf(HelloPacket.TYPE));
+    assertEquals(HandshakePacket.MESSAGE_HELLO_ACK,   typeOf(HelloAckPacket.TYPE));
+    assertEquals(HandshakePacket.MESSAGE_COMMIT,      typeOf(CommitPacket.TYPE));
+    assertEquals(HandshakePacket.MESSAGE_DH_PART_ONE, typeOf(DHPartOnePacket.TYPE));
+    assertEquals(HandshakePacket.MESSAGE_DH_PART_TWO, typeOf(DHPartTwoPacket.TYPE));
+    assertEquals(HandshakePacket.MESSAGE_CONFIRM_ONE, typeOf(ConfirmOnePacket.TYPE));
+    assertEquals(HandshakePacket.MESSAGE_CONFIRM_TWO, typeOf(ConfirmTwoPacket.TYPE));
+    assertEquals(HandshakePacket.MESSAGE_CONFIRM_ACK, typeOf(ConfAckPacket.TYPE));
+    assertEquals(HandshakePacket.MESSAGE_ERROR,       typeOf(ErrorPacket.TYPE));
+  }
+
+  public void testUnknownMessageType() {
+    assertEquals(HandshakePacket.MESSAGE_UNKNOWN, typeOf("GoClear "));
+    assertEquals(HandshakePacket.MESSAGE_UNKNOWN, typeOf("hello   "));
+  }
+
+  public void testErrorCode() throws InvalidPacketException {
+    ErrorPacket error = new ErrorPacket(new ErrorPacket(ErrorPacket.NO_SHARED_SECRET));
+    assertEquals(ErrorPacket.NO_SHARED_SECRET, error.getErrorCode());
+  }
+
+  public void testPresharedCommit() throws InvalidPacketException {
+    HashChain hashChain = new HashChain();
+    byte[]    zid       = new byte[12];
+    byte[]    keyId     = new PresharedSecretCalculator(new byte[32]).getKeyId();
+
+    CommitPacket commit = new CommitPacket(new CommitPacket(hashChain, zid, keyId), true);
+
+    assertTrue(commit.isPreshared());
+    assertTrue(Arrays.equals(keyId, commit.getKeyId()));
+    commit.verifyMac(hashChain.getH1());
+
+    try {
+      commit.verifyMac(hashChain.getH2());
+      fail("Accepted a MAC keyed with the wrong preimage");
+    } catch (InvalidPacketException expected) {}
+  }
+
+  public void testPresharedKeyIdDependsOnSecret() {
+    byte[] rs1 = new byte[32];
+    byte[] one = new PresharedSecretCalculator(rs1).getKeyId();
+
+    rs1[0] = 1;
+
+    assertEquals(CommitPacket.KEY_ID_LENGTH, one.length);
+    assertFalse(Arrays.equals(one, new PresharedSecretCalculator(rs1).getKeyId()));
+  }
+
+  private int typeOf(String type) {
+    return new HandshakePacket(type, 12).getMessageType();
+  }
+}
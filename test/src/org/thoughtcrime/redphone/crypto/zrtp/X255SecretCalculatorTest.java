@@ -0,0 +1,68 @@
+package org.thoughtcrime.redphone.crypto.zrtp;
+
+import junit.framework.TestCase;
+
+import org.thoughtcrime.redphone.crypto.zrtp.retained.RetainedSecretsDerivatives;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+
+public class X255SecretCalculatorTest extends TestCase {
+
+  // RFC 7748 section 6.1
+  private static final String ALICE_PRIVATE = "77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a";
+  private static final String BOB_PUBLIC    = "de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f";
+  private static final String SHARED        = "4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742";
+
+  public void testKnownAnswer() {
+    KeyPair alice = new KeyPair(null, new X255Key.Private(fromHex(ALICE_PRIVATE)));
+    byte[]  dh    = new X255SecretCalculator().calculateKeyAgreement(alice, fromHex(BOB_PUBLIC));
+
+    assertTrue(Arrays.equals(fromHex(SHARED), dh));
+  }
+
+  public void testAgreement() {
+    KeyPair initiator = new X255SecretCalculator().generateKeyPair();
+    KeyPair responder = new X255SecretCalculator().generateKeyPair();
+
+    X255SecretCalculator calculator = new X255SecretCalculator();
+
+    byte[] one = calculator.calculateKeyAgreement(initiator, responder.getPublic().getEncoded());
+    byte[] two = calculator.calculateKeyAgreement(responder, initiator.getPublic().getEncoded());
+
+    assertTrue(Arrays.equals(one, two));
+  }
+
+  public void testRejectsSmallOrderPoint() {
+    KeyPair keyPair = new X255SecretCalculator().generateKeyPair();
+
+    try {
+      new X255SecretCalculator().calculateKeyAgreement(keyPair, new byte[32]);
+      fail("Accepted the identity point");
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testDHPartRoundTrip() throws InvalidPacketException {
+    HashChain hashChain = new HashChain();
+    byte[]    pvr       = new X255SecretCalculator().generateKeyPair().getPublic().getEncoded();
+
+    RetainedSecretsDerivatives derivatives = new RetainedSecretsDerivatives(null, null);
+    X255DHPartTwoPacket        local       = new X255DHPartTwoPacket(hashChain, pvr, derivatives);
+    X255DHPartTwoPacket        foreign     = new X255DHPartTwoPacket(local, true);
+
+    assertEquals(HandshakePacket.MESSAGE_DH_PART_TWO, foreign.getMessageType());
+    assertTrue(Arrays.equals(pvr, foreign.getPvr()));
+    assertEquals("X255", new String(foreign.getAgreementSpec()));
+    foreign.verifyMac(hashChain.getH0());
+  }
+
+  private byte[] fromHex(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+
+    for (int i=0;i<bytes.length;i++) {
+      bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+
+    return bytes;
+  }
+}
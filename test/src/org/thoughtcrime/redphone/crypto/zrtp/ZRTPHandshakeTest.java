@@ -0,0 +1,317 @@
+package org.thoughtcrime.redphone.crypto.zrtp;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import org.thoughtcrime.redphone.crypto.SecureRtpSocket;
+import org.thoughtcrime.redphone.crypto.zrtp.retained.RetainedSecrets;
+import org.thoughtcrime.redphone.network.RtpSocket;
+
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs complete ZRTP handshakes between an initiator and a responder in this
+ * process, over loopback UDP.  Retained secrets are kept in memory rather than
+ * in the app's database, and both sides keep the same ZIDs from call to call,
+ * so later calls can be keyed in Preshared mode.
+ */
+public class ZRTPHandshakeTest extends AndroidTestCase {
+
+  private static final String INITIATOR_NUMBER = "+15555550100";
+  private static final String RESPONDER_NUMBER = "+15555550101";
+  private static final int    INITIATOR_PORT   = 31300;
+  private static final int    RESPONDER_PORT   = 31301;
+
+  private static final int    MAX_CONSECUTIVE_PRESHARED_CALLS = 9;
+
+  private final SecureRandom                 random          = new SecureRandom();
+  private final Map<String, RetainedSecrets> retainedSecrets = new HashMap<String, RetainedSecrets>();
+  private final byte[]                       initiatorZid    = randomZid();
+  private final byte[]                       responderZid    = randomZid();
+
+  // Read by the responder's constructor, so it can't be a field of the socket
+  private boolean presharedEnabled;
+
+  public void testKeysAgree() throws Exception {
+    Call call = runCall(false);
+
+    assertKeysAgree(call);
+    assertEquals(2, retainedSecrets.size());
+  }
+
+  public void testPresharedReconnect() throws Exception {
+    Call first = runCall(true);
+
+    assertKeysAgree(first);
+    assertTrue(first.initiatorSent(HandshakePacket.MESSAGE_DH_PART_TWO));
+
+    Call second = runCall(true);
+
+    assertKeysAgree(second);
+    assertFalse(second.initiatorSent(HandshakePacket.MESSAGE_DH_PART_TWO));
+    assertFalse(second.responderSent(HandshakePacket.MESSAGE_DH_PART_ONE));
+    assertEquals(1, getInitiatorSecrets().getPresharedCount());
+    assertEquals(1, getResponderSecrets().getPresharedCount());
+
+    assertFalse(Arrays.equals(first.initiator.getMasterSecret().getRetainedSecret(),
+                              second.initiator.getMasterSecret().getRetainedSecret()));
+    assertTrue(Arrays.equals(second.initiator.getMasterSecret().getRetainedSecret(),
+                             getInitiatorSecrets().getRetainedSecretOne()));
+  }
+
+  public void testPresharedForcesKeyAgreement() throws Exception {
+    runCall(true);
+
+    for (int i = 1; i <= MAX_CONSECUTIVE_PRESHARED_CALLS; i++) {
+      Call call = runCall(true);
+
+      assertKeysAgree(call);
+      assertFalse(call.initiatorSent(HandshakePacket.MESSAGE_DH_PART_TWO));
+      assertEquals(i, getInitiatorSecrets().getPresharedCount());
+      assertEquals(i, getResponderSecrets().getPresharedCount());
+    }
+
+    Call forced = runCall(true);
+
+    assertKeysAgree(forced);
+    assertTrue(forced.initiatorSent(HandshakePacket.MESSAGE_DH_PART_TWO));
+    assertFalse(forced.responderSent(HandshakePacket.MESSAGE_ERROR));
+    assertEquals(0, getInitiatorSecrets().getPresharedCount());
+    assertEquals(0, getResponderSecrets().getPresharedCount());
+
+    Call next = runCall(true);
+
+    assertKeysAgree(next);
+    assertFalse(next.initiatorSent(HandshakePacket.MESSAGE_DH_PART_TWO));
+  }
+
+  public void testPresharedFallbackWhenResponderLostSecret() throws Exception {
+    runCall(true);
+
+    synchronized (this) {
+      retainedSecrets.remove(getKey(INITIATOR_NUMBER, initiatorZid));
+    }
+
+    Call call = runCall(true);
+
+    assertKeysAgree(call);
+    assertTrue(call.responderSent(HandshakePacket.MESSAGE_ERROR));
+    assertTrue(call.initiatorSent(HandshakePacket.MESSAGE_DH_PART_TWO));
+    assertEquals(0, getInitiatorSecrets().getPresharedCount());
+  }
+
+  public void testPresharedFallbackOnWrongSecret() throws Exception {
+    runCall(true);
+
+    byte[] wrongSecret = new byte[32];
+    random.nextBytes(wrongSecret);
+
+    synchronized (this) {
+      retainedSecrets.put(getKey(INITIATOR_NUMBER, initiatorZid),
+                          new RetainedSecrets(wrongSecret, null, 0));
+    }
+
+    Call call = runCall(true);
+
+    assertKeysAgree(call);
+    assertTrue(call.responderSent(HandshakePacket.MESSAGE_ERROR));
+    assertTrue(call.initiatorSent(HandshakePacket.MESSAGE_DH_PART_TWO));
+    assertEquals(0, getInitiatorSecrets().getPresharedCount());
+    assertEquals(0, getResponderSecrets().getPresharedCount());
+  }
+
+  private Call runCall(boolean preshared) throws Exception {
+    RtpSocket initiatorSocket = new RtpSocket(INITIATOR_PORT, new InetSocketAddress("127.0.0.1", RESPONDER_PORT));
+    RtpSocket responderSocket = new RtpSocket(RESPONDER_PORT, new InetSocketAddress("127.0.0.1", INITIATOR_PORT));
+
+    final Call        call    = new Call();
+    final Exception[] failure = new Exception[1];
+
+    presharedEnabled = preshared;
+    call.initiator   = new TestInitiatorSocket(getContext(), new SecureRtpSocket(initiatorSocket), call);
+    call.responder   = new TestResponderSocket(getContext(), new SecureRtpSocket(responderSocket), call);
+
+    Thread responderThread = new Thread("ZRTPHandshakeTest responder") {
+      @Override
+      public void run() {
+        try {
+          call.responder.negotiateStart();
+          call.responder.negotiateFinish();
+        } catch (Exception e) {
+          failure[0] = e;
+        }
+      }
+    };
+
+    try {
+      responderThread.start();
+
+      call.initiator.negotiateStart();
+      call.initiator.negotiateFinish();
+
+      responderThread.join();
+    } finally {
+      call.initiator.close();
+      call.responder.close();
+    }
+
+    if (failure[0] != null)
+      throw failure[0];
+
+    return call;
+  }
+
+  private void assertKeysAgree(Call call) {
+    MasterSecret initiatorSecret = call.initiator.getMasterSecret();
+    MasterSecret responderSecret = call.responder.getMasterSecret();
+
+    assertTrue(Arrays.equals(initiatorSecret.getInitiatorSrtpKey(),   responderSecret.getInitiatorSrtpKey()));
+    assertTrue(Arrays.equals(initiatorSecret.getResponderSrtpKey(),   responderSecret.getResponderSrtpKey()));
+    assertTrue(Arrays.equals(initiatorSecret.getInitiatorSrtpSalt(),  responderSecret.getInitiatorSrtpSalt()));
+    assertTrue(Arrays.equals(initiatorSecret.getResponderSrtpSailt(), responderSecret.getResponderSrtpSailt()));
+    assertTrue(Arrays.equals(initiatorSecret.getInitiatorAeadKey(),   responderSecret.getInitiatorAeadKey()));
+    assertTrue(Arrays.equals(initiatorSecret.getResponderAeadKey(),   responderSecret.getResponderAeadKey()));
+    assertTrue(Arrays.equals(initiatorSecret.getSAS(),                responderSecret.getSAS()));
+    assertTrue(Arrays.equals(initiatorSecret.getRetainedSecret(),     responderSecret.getRetainedSecret()));
+
+    assertFalse(Arrays.equals(initiatorSecret.getInitiatorSrtpKey(), initiatorSecret.getResponderSrtpKey()));
+  }
+
+  private byte[] randomZid() {
+    byte[] zid = new byte[12];
+    random.nextBytes(zid);
+    return zid;
+  }
+
+  private String getKey(String number, byte[] zid) {
+    return number + ":" + Arrays.toString(zid);
+  }
+
+  private RetainedSecrets getInitiatorSecrets() {
+    return getTestRetainedSecrets(RESPONDER_NUMBER, responderZid);
+  }
+
+  private RetainedSecrets getResponderSecrets() {
+    return getTestRetainedSecrets(INITIATOR_NUMBER, initiatorZid);
+  }
+
+  private synchronized RetainedSecrets getTestRetainedSecrets(String number, byte[] zid) {
+    RetainedSecrets secrets = retainedSecrets.get(getKey(number, zid));
+
+    if (secrets == null) return new RetainedSecrets(null, null);
+    else                 return secrets;
+  }
+
+  private synchronized void cacheTestRetainedSecret(String number, byte[] zid, byte[] rs1,
+                                                    boolean preshared)
+  {
+    RetainedSecrets previous       = getTestRetainedSecrets(number, zid);
+    int             presharedCount = preshared ? previous.getPresharedCount() + 1 : 0;
+
+    retainedSecrets.put(getKey(number, zid),
+                        new RetainedSecrets(rs1, previous.getRetainedSecretOne(), presharedCount));
+  }
+
+  private HelloPacket createTestHello(HashChain hashChain, byte[] zid) {
+    String[] keyAgreementOptions;
+
+    if (presharedEnabled) {
+      keyAgreementOptions = new String[] {HelloPacket.KEY_AGREEMENT_X255,
+                                          HelloPacket.KEY_AGREEMENT_PRESHARED};
+    } else {
+      keyAgreementOptions = new String[] {HelloPacket.KEY_AGREEMENT_X255};
+    }
+
+    return new HelloPacket(hashChain, zid, new String[0], new String[0], keyAgreementOptions);
+  }
+
+  private static class Call {
+    ZRTPInitiatorSocket initiator;
+    ZRTPResponderSocket responder;
+
+    final List<Integer> initiatorSent = new ArrayList<Integer>();
+    final List<Integer> responderSent = new ArrayList<Integer>();
+
+    synchronized boolean initiatorSent(int messageType) {
+      return initiatorSent.contains(messageType);
+    }
+
+    synchronized boolean responderSent(int messageType) {
+      return responderSent.contains(messageType);
+    }
+  }
+
+  private class TestInitiatorSocket extends ZRTPInitiatorSocket {
+    private final Call call;
+
+    public TestInitiatorSocket(Context context, SecureRtpSocket socket, Call call) {
+      super(context, socket, initiatorZid, RESPONDER_NUMBER);
+      this.call = call;
+    }
+
+    @Override
+    protected HelloPacket createLocalHello() {
+      return createTestHello(hashChain, localZid);
+    }
+
+    @Override
+    protected void sendFreshPacket(HandshakePacket packet) {
+      synchronized (call) {
+        call.initiatorSent.add(packet.getMessageType());
+      }
+      super.sendFreshPacket(packet);
+    }
+
+    @Override
+    protected RetainedSecrets getRetainedSecrets(String number, byte[] zid) {
+      return getTestRetainedSecrets(number, zid);
+    }
+
+    @Override
+    protected void cacheRetainedSecret(String number, byte[] zid, byte[] rs1,
+                                       long expiration, boolean continuity, boolean preshared)
+    {
+      cacheTestRetainedSecret(number, zid, rs1, preshared);
+    }
+  }
+
+  private class TestResponderSocket extends ZRTPResponderSocket {
+    private final Call call;
+
+    public TestResponderSocket(Context context, SecureRtpSocket socket, Call call) {
+      super(context, socket, responderZid, INITIATOR_NUMBER);
+      this.call = call;
+    }
+
+    @Override
+    protected HelloPacket createLocalHello() {
+      return createTestHello(hashChain, localZid);
+    }
+
+    @Override
+    protected void sendFreshPacket(HandshakePacket packet) {
+      synchronized (call) {
+        call.responderSent.add(packet.getMessageType());
+      }
+      super.sendFreshPacket(packet);
+    }
+
+    @Override
+    protected RetainedSecrets getRetainedSecrets(String number, byte[] zid) {
+      return getTestRetainedSecrets(number, zid);
+    }
+
+    @Override
+    protected void cacheRetainedSecret(String number, byte[] zid, byte[] rs1,
+                                       long expiration, boolean continuity, boolean preshared)
+    {
+      cacheTestRetainedSecret(number, zid, rs1, preshared);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.thoughtcrime.redphone.network;
+
+import android.test.AndroidTestCase;
+
+public class PacketizationControllerTest extends AndroidTestCase {
+
+  // loss, jitter in milliseconds, expected frames per packet
+  private static final Object[][] CASES = {
+    { 0.00f,   0, 1 },
+    { 0.009f, 19, 1 },
+    { 0.01f,   0, 2 },
+    { 0.00f,  20, 2 },
+    { 0.03f,  40, 2 },
+    { 0.05f,  60, 2 },
+    { 0.051f,  0, 3 },
+    { 0.00f,  61, 3 },
+    { 0.10f, 100, 3 },
+    { 0.101f,  0, 4 },
+    { 0.00f, 101, 4 },
+    { 0.50f, 500, 4 },
+  };
+
+  public void testChooseFramesPerPacket() {
+    for (Object[] c : CASES) {
+      float loss     = (Float)c[0];
+      int   jitter   = (Integer)c[1];
+      int   expected = (Integer)c[2];
+
+      assertEquals("loss=" + loss + " jitter=" + jitter,
+                   expected, PacketizationController.chooseFramesPerPacket(loss, jitter));
+    }
+  }
+
+  public void testChoiceWithinSenderLimits() {
+    for (int jitter = 0; jitter <= 200; jitter += 5) {
+      for (float loss = 0; loss <= 0.3f; loss += 0.005f) {
+        int frames = PacketizationController.chooseFramesPerPacket(loss, jitter);
+        assertTrue(frames >= RtpAudioSender.MIN_FRAMES_PER_PACKET);
+        assertTrue(frames <= RtpAudioSender.MAX_FRAMES_PER_PACKET);
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package org.thoughtcrime.redphone.network;
+
+import android.test.AndroidTestCase;
+
+public class ReceiverReportTest extends AndroidTestCase {
+
+  public void testRoundTrip() {
+    ReceiverReport report = new ReceiverReport();
+    report.ssrc                 = 0xDEADBEEFL;
+    report.fractionLost         = 200;
+    report.cumulativeLost       = 123456;
+    report.highestSequence      = 0xFFFFFFFEL;
+    report.jitter               = 160;
+    report.lastReportTime       = 0x80000001L;
+    report.delaySinceLastReport = 250;
+    report.reportTime           = 0x7FFFFFFFL;
+
+    byte[] buffer = new byte[ReceiverReport.LENGTH + 3];
+    assertEquals(ReceiverReport.LENGTH, report.serialize(buffer, 3));
+
+    ReceiverReport parsed = new ReceiverReport();
+    assertTrue(parsed.parse(buffer, 3, ReceiverReport.LENGTH));
+
+    assertEquals(report.ssrc, parsed.ssrc);
+    assertEquals(report.fractionLost, parsed.fractionLost);
+    assertEquals(report.cumulativeLost, parsed.cumulativeLost);
+    assertEquals(report.highestSequence, parsed.highestSequence);
+    assertEquals(report.jitter, parsed.jitter);
+    assertEquals(report.lastReportTime, parsed.lastReportTime);
+    assertEquals(report.delaySinceLastReport, parsed.delaySinceLastReport);
+    assertEquals(report.reportTime, parsed.reportTime);
+  }
+
+  public void testNegativeCumulativeLost() {
+    assertEquals(-5, roundTripCumulativeLost(-5));
+  }
+
+  public void testCumulativeLostClamped() {
+    assertEquals(0x7FFFFF, roundTripCumulativeLost(0x1000000));
+    assertEquals(-0x800000, roundTripCumulativeLost(-0x1000000));
+  }
+
+  public void testFractionLost() {
+    ReceiverReport report = new ReceiverReport();
+    report.fractionLost = 64;
+    assertEquals(0.25f, report.getFractionLost(), 0f);
+  }
+
+  public void testTruncatedReportRejected() {
+    byte[] buffer = new byte[ReceiverReport.LENGTH];
+    new ReceiverReport().serialize(buffer, 0);
+
+    assertFalse(new ReceiverReport().parse(buffer, 0, ReceiverReport.LENGTH - 1));
+  }
+
+  private int roundTripCumulativeLost(int cumulativeLost) {
+    ReceiverReport report = new ReceiverReport();
+    report.cumulativeLost = cumulativeLost;
+
+    byte[] buffer = new byte[ReceiverReport.LENGTH];
+    report.serialize(buffer, 0);
+
+    ReceiverReport parsed = new ReceiverReport();
+    assertTrue(parsed.parse(buffer, 0, buffer.length));
+    return parsed.cumulativeLost;
+  }
+}
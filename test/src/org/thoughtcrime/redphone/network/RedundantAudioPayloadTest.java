@@ -0,0 +1,110 @@
+package org.thoughtcrime.redphone.network;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+
+public class RedundantAudioPayloadTest extends AndroidTestCase {
+
+  private static final int BLOCK_TYPE = 3;
+
+  public void testRoundTrip() {
+    byte[] redundant = bytes(38, 1);
+    byte[] primary   = bytes(42, 101);
+    byte[] buffer    = new byte[RedundantAudioPayload.HEADER_LENGTH + redundant.length + primary.length];
+
+    int length = RedundantAudioPayload.write(buffer, BLOCK_TYPE, 0x2A5B,
+                                             redundant, redundant.length,
+                                             primary, primary.length);
+    assertEquals(buffer.length, length);
+
+    RedundantAudioPayload payload = new RedundantAudioPayload();
+    assertTrue(payload.parse(buffer, 0, length));
+    assertEquals(0x2A5B, payload.getTimestampOffset());
+    assertEquals(redundant.length, payload.getRedundantLength());
+    assertEquals(primary.length, payload.getPrimaryLength());
+    assertTrue(Arrays.equals(redundant, slice(buffer, payload.getRedundantOffset(), payload.getRedundantLength())));
+    assertTrue(Arrays.equals(primary, slice(buffer, payload.getPrimaryOffset(), payload.getPrimaryLength())));
+  }
+
+  public void testRoundTripAtOffset() {
+    byte[] redundant = bytes(RedundantAudioPayload.MAX_BLOCK_LENGTH, 7);
+    byte[] primary   = bytes(20, 9);
+    byte[] payload   = new byte[RedundantAudioPayload.HEADER_LENGTH + redundant.length + primary.length];
+
+    int length = RedundantAudioPayload.write(payload, BLOCK_TYPE, RedundantAudioPayload.MAX_TIMESTAMP_OFFSET,
+                                             redundant, redundant.length,
+                                             primary, primary.length);
+
+    byte[] buffer = new byte[length + 12];
+    System.arraycopy(payload, 0, buffer, 12, length);
+
+    RedundantAudioPayload parsed = new RedundantAudioPayload();
+    assertTrue(parsed.parse(buffer, 12, length));
+    assertEquals(RedundantAudioPayload.MAX_TIMESTAMP_OFFSET, parsed.getTimestampOffset());
+    assertEquals(12 + RedundantAudioPayload.HEADER_LENGTH, parsed.getRedundantOffset());
+    assertTrue(Arrays.equals(redundant, slice(buffer, parsed.getRedundantOffset(), parsed.getRedundantLength())));
+    assertTrue(Arrays.equals(primary, slice(buffer, parsed.getPrimaryOffset(), parsed.getPrimaryLength())));
+  }
+
+  public void testEmptyPrimary() {
+    byte[] redundant = bytes(10, 1);
+    byte[] buffer    = new byte[RedundantAudioPayload.HEADER_LENGTH + redundant.length];
+
+    int length = RedundantAudioPayload.write(buffer, BLOCK_TYPE, 320, redundant, redundant.length, new byte[0], 0);
+
+    RedundantAudioPayload payload = new RedundantAudioPayload();
+    assertTrue(payload.parse(buffer, 0, length));
+    assertEquals(0, payload.getPrimaryLength());
+  }
+
+  public void testTruncatedHeaderRejected() {
+    byte[] buffer = new byte[RedundantAudioPayload.HEADER_LENGTH];
+    RedundantAudioPayload.write(buffer, BLOCK_TYPE, 320, new byte[0], 0, new byte[0], 0);
+
+    assertFalse(new RedundantAudioPayload().parse(buffer, 0, RedundantAudioPayload.HEADER_LENGTH - 1));
+  }
+
+  public void testNegativePrimaryLengthRejected() {
+    byte[] redundant = bytes(30, 1);
+    byte[] buffer    = new byte[RedundantAudioPayload.HEADER_LENGTH + redundant.length];
+
+    RedundantAudioPayload.write(buffer, BLOCK_TYPE, 320, redundant, redundant.length, new byte[0], 0);
+
+    assertFalse(new RedundantAudioPayload().parse(buffer, 0, buffer.length - 1));
+  }
+
+  public void testMissingBlockMarkersRejected() {
+    byte[] buffer = new byte[RedundantAudioPayload.HEADER_LENGTH + 4];
+    RedundantAudioPayload.write(buffer, BLOCK_TYPE, 320, new byte[2], 2, new byte[2], 2);
+
+    byte[] noFollowingBlock = buffer.clone();
+    noFollowingBlock[0] &= 0x7F;
+    assertFalse(new RedundantAudioPayload().parse(noFollowingBlock, 0, noFollowingBlock.length));
+
+    byte[] noFinalBlock = buffer.clone();
+    noFinalBlock[4] |= 0x80;
+    assertFalse(new RedundantAudioPayload().parse(noFinalBlock, 0, noFinalBlock.length));
+  }
+
+  public void testCanCarry() {
+    assertTrue(RedundantAudioPayload.canCarry(0, 0));
+    assertTrue(RedundantAudioPayload.canCarry(RedundantAudioPayload.MAX_TIMESTAMP_OFFSET,
+                                              RedundantAudioPayload.MAX_BLOCK_LENGTH));
+    assertFalse(RedundantAudioPayload.canCarry(-1, 10));
+    assertFalse(RedundantAudioPayload.canCarry(RedundantAudioPayload.MAX_TIMESTAMP_OFFSET + 1, 10));
+    assertFalse(RedundantAudioPayload.canCarry(320, RedundantAudioPayload.MAX_BLOCK_LENGTH + 1));
+  }
+
+  private static byte[] bytes(int length, int seed) {
+    byte[] bytes = new byte[length];
+    for (int i=0;i<length;i++) bytes[i] = (byte)(seed + i);
+    return bytes;
+  }
+
+  private static byte[] slice(byte[] buffer, int offset, int length) {
+    byte[] slice = new byte[length];
+    System.arraycopy(buffer, offset, slice, 0, length);
+    return slice;
+  }
+}
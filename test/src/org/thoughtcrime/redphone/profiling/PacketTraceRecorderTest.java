@@ -0,0 +1,54 @@
+package org.thoughtcrime.redphone.profiling;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+public class PacketTraceRecorderTest extends AndroidTestCase {
+  public void testRoundTrip() throws Exception {
+    File trace = File.createTempFile("trace", ".bin");
+    trace.deleteOnExit();
+
+    PacketTraceRecorder recorder =
+        new PacketTraceRecorder(new FileOutputStream(trace).getChannel(), 1024);
+    recorder.start();
+
+    for (int i = 0; i < 1000; i++) {
+      recorder.record(i, PacketLogger.PACKET_RECEIVED, -i);
+    }
+
+    recorder.terminate();
+    recorder.join();
+
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    PacketTraceDecoder.decode(new FileInputStream(trace), text);
+
+    String[] lines = text.toString().split("\n");
+    assertEquals(1000, lines.length);
+
+    for (int i = 0; i < lines.length; i++) {
+      String[] fields = lines[i].split(" ");
+      assertEquals(4, fields.length);
+      assertEquals(i, Long.parseLong(fields[1]));
+      assertEquals(PacketLogger.PACKET_RECEIVED, Integer.parseInt(fields[2]));
+      assertEquals(-i, Integer.parseInt(fields[3]));
+    }
+  }
+
+  public void testDropsWhenFull() throws Exception {
+    File trace = File.createTempFile("trace", ".bin");
+    trace.deleteOnExit();
+
+    PacketTraceRecorder recorder =
+        new PacketTraceRecorder(new FileOutputStream(trace).getChannel(), 4);
+
+    for (int i = 0; i < 6; i++) {
+      recorder.record(i, PacketLogger.PACKET_SENDING, 0);
+    }
+
+    assertEquals(2, recorder.getDroppedCount());
+  }
+}
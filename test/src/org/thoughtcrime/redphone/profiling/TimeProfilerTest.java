@@ -0,0 +1,50 @@
+package org.thoughtcrime.redphone.profiling;
+
+import android.test.AndroidTestCase;
+
+import org.thoughtcrime.redphone.monitor.SampledMetrics;
+
+import java.util.Map;
+
+public class TimeProfilerTest extends AndroidTestCase {
+  public void testRegisterReturnsSameHandle() {
+    int timer = TimeProfiler.registerTimer("test:same");
+    assertEquals(timer, TimeProfiler.registerTimer("test:same"));
+  }
+
+  public void testSamplesRunsFromAllThreads() throws InterruptedException {
+    final int      timer   = TimeProfiler.registerTimer("test:threads");
+    SampledMetrics sampler = TimeProfiler.newSampler();
+
+    Thread worker = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 5; i++) {
+          TimeProfiler.startBlock(timer);
+          TimeProfiler.stopBlock(timer);
+        }
+      }
+    };
+    worker.start();
+
+    for (int i = 0; i < 3; i++) {
+      TimeProfiler.startBlock(timer);
+      TimeProfiler.stopBlock(timer);
+    }
+    worker.join();
+
+    Map<String, Object> sample = sampler.sample();
+    assertEquals(8L, ((Long)sample.get("test:threads-runs")).longValue());
+    assertNotNull(sample.get("test:threads-micros"));
+
+    assertNull(sampler.sample().get("test:threads-runs"));
+  }
+
+  public void testStopWithoutStartIgnored() {
+    int            timer   = TimeProfiler.registerTimer("test:unstarted");
+    SampledMetrics sampler = TimeProfiler.newSampler();
+
+    TimeProfiler.stopBlock(timer);
+    assertNull(sampler.sample().get("test:unstarted-runs"));
+  }
+}
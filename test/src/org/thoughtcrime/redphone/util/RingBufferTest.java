@@ -0,0 +1,104 @@
+package org.thoughtcrime.redphone.util;
+
+import android.test.AndroidTestCase;
+
+public class RingBufferTest extends AndroidTestCase {
+  public void testFifo() {
+    RingBuffer<Integer> ring = new RingBuffer<Integer>(4);
+    assertNull(ring.poll());
+    for (int i = 0; i < 3; i++) {
+      assertNull(ring.offer(i));
+    }
+    assertEquals(3, ring.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, (int) ring.poll());
+    }
+    assertNull(ring.poll());
+    assertTrue(ring.isEmpty());
+  }
+
+  public void testCapacityRoundsUp() {
+    assertEquals(8, new RingBuffer<Integer>(5).capacity());
+    assertEquals(1, new RingBuffer<Integer>(1).capacity());
+  }
+
+  public void testDropOldest() {
+    RingBuffer<Integer> ring = new RingBuffer<Integer>(2, RingBuffer.OverflowPolicy.DROP_OLDEST, 0);
+    assertNull(ring.offer(0));
+    assertNull(ring.offer(1));
+    assertEquals(0, (int) ring.offer(2));
+    assertEquals(1, ring.getDroppedCount());
+    assertEquals(1, (int) ring.poll());
+    assertEquals(2, (int) ring.poll());
+    assertNull(ring.poll());
+  }
+
+  public void testDrainTo() {
+    RingBuffer<Integer> ring     = new RingBuffer<Integer>(4);
+    RingBuffer<Integer> freeList = new RingBuffer<Integer>(4);
+    ring.offer(0);
+    ring.offer(1);
+    ring.drainTo(freeList);
+    assertTrue(ring.isEmpty());
+    assertEquals(0, (int) freeList.poll());
+    assertEquals(1, (int) freeList.poll());
+    assertNull(freeList.poll());
+  }
+
+  public void testBlockRejectsAfterTimeout() {
+    RingBuffer<Integer> ring = new RingBuffer<Integer>(1, RingBuffer.OverflowPolicy.BLOCK, 10);
+    assertNull(ring.offer(0));
+    assertEquals(1, (int) ring.offer(1));
+    assertEquals(1, ring.getDroppedCount());
+    assertEquals(0, (int) ring.poll());
+  }
+
+  public void testBlockWaitsForConsumer() throws InterruptedException {
+    final RingBuffer<Integer> ring = new RingBuffer<Integer>(1, RingBuffer.OverflowPolicy.BLOCK, 5000);
+    ring.offer(0);
+
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+        }
+        ring.poll();
+      }
+    };
+    consumer.start();
+
+    assertNull(ring.offer(1));
+    consumer.join();
+    assertEquals(1, (int) ring.poll());
+  }
+
+  public void testConcurrentOrdering() throws InterruptedException {
+    final int count = 100000;
+    final RingBuffer<Integer> ring = new RingBuffer<Integer>(16, RingBuffer.OverflowPolicy.DROP_OLDEST, 0);
+
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          ring.offer(i);
+        }
+      }
+    };
+    producer.start();
+
+    int last     = -1;
+    int received = 0;
+    while (producer.isAlive() || !ring.isEmpty()) {
+      Integer item = ring.poll();
+      if (item == null) continue;
+      assertTrue(item > last);
+      last = item;
+      received++;
+    }
+    producer.join();
+
+    assertEquals(count, received + ring.getDroppedCount());
+  }
+}